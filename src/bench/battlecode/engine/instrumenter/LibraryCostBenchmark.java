@@ -0,0 +1,215 @@
+package battlecode.engine.instrumenter;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.reflect.Field;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import battlecode.engine.EngineContext;
+
+/**
+ * Library methods that players can call without being charged for the
+ * bytecodes they run, for several input sizes, and a baseline of metered
+ * player code.  MethodCostCalibrator turns the times into costs for
+ * MethodCosts.txt.
+ * <p>
+ * This is a hand-picked subset of the whitelisted methods, not all of them:
+ * the java.lang methods whose time grows with the size of their input, or
+ * that are slow enough for a robot to gain from calling them in a loop.
+ * The costs of the other methods in MethodCosts.txt are left as they are.
+ * Only methods that run uninstrumented belong here.  java.util and
+ * java.math are instrumented, so the robot pays for every bytecode of an
+ * Arrays.sort or a HashMap.putAll already, and the String regex methods are
+ * sent to InstrumentableString, which uses the instrumented regex classes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class LibraryCostBenchmark {
+
+	/**
+	 * The entries of MethodCosts.txt, in the format 'ClassName/methodName',
+	 * that a benchmark measures.
+	 */
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target(ElementType.METHOD)
+	public @interface Calibrates {
+		String[] value();
+	}
+
+	/** The name of the baseline benchmark. */
+	public static final String BASELINE = "bytecodes";
+
+	/**
+	 * The bytecodes in each iteration of the baseline's loop, as javac
+	 * compiles it and RoboMethodAdapter counts it.
+	 */
+	public static final int BYTECODES_PER_ELEMENT = 13;
+
+	/** The length of the strings and arrays that the methods get. */
+	@Param({"16", "256", "4096"})
+	public int size;
+
+	private EngineContext context;
+
+	private Field bytecodesLeft;
+
+	private int[] ints;
+	private int[] intsCopy;
+	private char[] chars;
+	private String string;
+	private String equalString;
+	private String absent;
+	private Object[] formatArgs;
+	private String formatString;
+
+	@Setup
+	public void setUp() throws Exception {
+		context = EngineContext.open();
+		RobotMonitor.reset();
+		bytecodesLeft = RobotMonitor.class.getDeclaredField("bytecodesLeft");
+		bytecodesLeft.setAccessible(true);
+
+		Random random = new Random(42);
+		ints = new int[size];
+		intsCopy = new int[size];
+		chars = new char[size];
+		for (int i = 0; i < size; i++) {
+			ints[i] = random.nextInt();
+			chars[i] = (char)('a' + random.nextInt(26));
+		}
+		string = new String(chars);
+		equalString = new String(chars);
+		// upper case, so indexOf never finds it and looks at the whole string
+		absent = string.substring(0, Math.min(size, 8)).toUpperCase();
+
+		formatArgs = new Object[size];
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < size; i++) {
+			formatArgs[i] = Integer.valueOf(ints[i]);
+			sb.append("%d,");
+		}
+		formatString = sb.toString();
+	}
+
+	@TearDown
+	public void tearDown() {
+		context.close();
+	}
+
+	/**
+	 * Player code, metered the way RoboMethodAdapter meters a loop: the
+	 * iteration's bytecodes are charged at the jump back.
+	 */
+	@Benchmark
+	public int bytecodes() throws IllegalAccessException {
+		bytecodesLeft.setInt(context.getRobotMonitor(), Integer.MAX_VALUE);
+		int[] a = ints;
+		int n = a.length;
+		int x = 0;
+		for (int i = 0; i < n; i++) {
+			x = x * 31 + a[i];
+			RobotMonitor.incrementBytecodes(BYTECODES_PER_ELEMENT);
+		}
+		return x;
+	}
+
+	@Benchmark
+	@Calibrates("java/lang/String/indexOf")
+	public int indexOf() {
+		return string.indexOf(absent);
+	}
+
+	@Benchmark
+	@Calibrates("java/lang/String/contains")
+	public boolean contains() {
+		return string.contains(absent);
+	}
+
+	@Benchmark
+	@Calibrates("java/lang/String/equals")
+	public boolean stringEquals() {
+		return string.equals(equalString);
+	}
+
+	@Benchmark
+	@Calibrates("java/lang/String/compareTo")
+	public int compareTo() {
+		return string.compareTo(equalString);
+	}
+
+	@Benchmark
+	@Calibrates("java/lang/String/replace")
+	public String replaceChar() {
+		return string.replace('a', 'b');
+	}
+
+	@Benchmark
+	@Calibrates("java/lang/String/replace")
+	public String replaceString() {
+		return string.replace("a", "bc");
+	}
+
+	@Benchmark
+	@Calibrates("java/lang/String/toCharArray")
+	public char[] toCharArray() {
+		return string.toCharArray();
+	}
+
+	@Benchmark
+	@Calibrates("java/lang/String/toUpperCase")
+	public String toUpperCase() {
+		return string.toUpperCase();
+	}
+
+	@Benchmark
+	@Calibrates("java/lang/String/concat")
+	public String concat() {
+		return string.concat(equalString);
+	}
+
+	@Benchmark
+	@Calibrates("java/lang/String/valueOf")
+	public String valueOf() {
+		return String.valueOf(chars);
+	}
+
+	@Benchmark
+	@Calibrates("java/lang/String/format")
+	public String format() {
+		return String.format(formatString, formatArgs);
+	}
+
+	@Benchmark
+	@Calibrates("java/lang/StringBuilder/append")
+	public StringBuilder append() {
+		return new StringBuilder().append(string);
+	}
+
+	@Benchmark
+	@Calibrates("java/lang/StringBuilder/insert")
+	public StringBuilder insert() {
+		return new StringBuilder("x").insert(0, string);
+	}
+
+	@Benchmark
+	@Calibrates("java/lang/StringBuilder/reverse")
+	public StringBuilder reverse() {
+		return new StringBuilder(string).reverse();
+	}
+
+	@Benchmark
+	@Calibrates("java/lang/System/arraycopy")
+	public int[] arraycopy() {
+		System.arraycopy(ints, 0, intsCopy, 0, size);
+		return intsCopy;
+	}
+}
@@ -0,0 +1,294 @@
+package battlecode.engine.instrumenter;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.StringTokenizer;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Calibrates the costs in MethodCosts.txt by running LibraryCostBenchmark.
+ * <p>
+ * The time of each benchmark is fit to a straight line in the input size,
+ * and the baseline's slope gives the time of one bytecode of metered player
+ * code.  A method costs the bytecodes that the same time would buy at the
+ * reference size (calibrate.size, 256 by default), less the one bytecode
+ * that the call itself is charged.  MethodCosts.txt only has one cost per
+ * method name, so a call on a larger input is still cheaper than it should
+ * be; the report gives the time per element to show which methods that
+ * matters for.
+ * <p>
+ * The measured methods' costs are raised to what they measured, and the
+ * methods that are charged the least for their time are reported.  A cost
+ * is only lowered if calibrate.lower is true, since a faster machine would
+ * otherwise make methods cheaper for everyone.  The costs are written to
+ * MethodCosts.txt in the idata file named by calibrate.out (idata by
+ * default), or to calibrate.out itself if it is a .txt file.  Command line
+ * arguments are passed to JMH.  See the calibrate-method-costs target in
+ * build.xml.
+ */
+public class MethodCostCalibrator {
+
+	private static final int REPORTED = 20;
+
+	private static class Calibration {
+		final String method;
+		final double nsAtReference;
+		final double nsPerElement;
+		final double bytecodes;
+		int charged;
+
+		Calibration(String method, double nsAtReference, double nsPerElement, double bytecodes) {
+			this.method = method;
+			this.nsAtReference = nsAtReference;
+			this.nsPerElement = nsPerElement;
+			this.bytecodes = bytecodes;
+		}
+
+		int cost() {
+			return Math.max(0, (int)Math.ceil(bytecodes) - 1);
+		}
+
+		double underpricing() {
+			return bytecodes / charged;
+		}
+	}
+
+	private MethodCostCalibrator() {}
+
+	public static void main(String[] args) throws Exception {
+		int referenceSize = Integer.getInteger("calibrate.size", 256);
+		String outFile = System.getProperty("calibrate.out", "idata");
+		boolean lower = Boolean.getBoolean("calibrate.lower");
+
+		Options options = new OptionsBuilder()
+			.parent(new CommandLineOptions(args))
+			.include(LibraryCostBenchmark.class.getSimpleName())
+			.mode(Mode.AverageTime)
+			.timeUnit(TimeUnit.NANOSECONDS)
+			.build();
+
+		// benchmark -> size -> nanoseconds
+		Map<String, SortedMap<Integer, Double>> times = new HashMap<String, SortedMap<Integer, Double>>();
+		for(RunResult result : new Runner(options).run()) {
+			BenchmarkParams params = result.getParams();
+			String benchmark = params.getBenchmark();
+			benchmark = benchmark.substring(benchmark.lastIndexOf('.') + 1);
+			SortedMap<Integer, Double> t = times.get(benchmark);
+			if(t == null) {
+				t = new TreeMap<Integer, Double>();
+				times.put(benchmark, t);
+			}
+			t.put(Integer.valueOf(params.getParam("size")), result.getPrimaryResult().getScore());
+		}
+
+		SortedMap<Integer, Double> baseline = times.get(LibraryCostBenchmark.BASELINE);
+		double[] baselineFit = baseline == null ? null : fit(baseline);
+		if(baselineFit == null || baselineFit[1] <= 0)
+			throw new IllegalStateException("The " + LibraryCostBenchmark.BASELINE + " benchmark has to run at two sizes or more to time a bytecode");
+		double nsPerBytecode = baselineFit[1] / LibraryCostBenchmark.BYTECODES_PER_ELEMENT;
+
+		// the overloads of a method share an entry, so it costs as much as the slowest
+		Map<String, Calibration> calibrations = new HashMap<String, Calibration>();
+		for(Method m : LibraryCostBenchmark.class.getMethods()) {
+			LibraryCostBenchmark.Calibrates c = m.getAnnotation(LibraryCostBenchmark.Calibrates.class);
+			SortedMap<Integer, Double> t = times.get(m.getName());
+			if(c == null || t == null)
+				continue;
+			double[] f = fit(t);
+			double ns = Math.max(f[0] + f[1] * referenceSize, 0);
+			for(String method : c.value()) {
+				Calibration old = calibrations.get(method);
+				if(old == null || old.nsAtReference < ns)
+					calibrations.put(method, new Calibration(method, ns, f[1], ns / nsPerBytecode));
+			}
+		}
+
+		File idata = new File(outFile.endsWith(".txt") ? "idata" : outFile);
+		List<String> lines = new ArrayList<String>();
+		Map<String, Calibration> unlisted = new TreeMap<String, Calibration>(calibrations);
+		int kept = 0;
+		for(String line : readMethodCosts(idata)) {
+			StringTokenizer st = new StringTokenizer(line);
+			String method = st.nextToken();
+			int cost = Integer.parseInt(st.nextToken());
+			String endsBlock = st.nextToken();
+			Calibration c = unlisted.remove(method);
+			if(c == null) {
+				lines.add(line);
+				continue;
+			}
+			c.charged = 1 + cost;
+			if(c.cost() < cost && !lower) {
+				kept++;
+				lines.add(line);
+				continue;
+			}
+			lines.add(method + " " + c.cost() + " " + endsBlock);
+		}
+		// a method that isn't in MethodCosts.txt ends the basic block
+		for(Calibration c : unlisted.values()) {
+			c.charged = 1;
+			lines.add(c.method + " " + c.cost() + " true");
+		}
+		if(outFile.endsWith(".txt"))
+			writeLines(new File(outFile), lines);
+		else
+			writeMethodCosts(idata, lines);
+
+		List<Calibration> report = new ArrayList<Calibration>();
+		for(Calibration c : calibrations.values()) {
+			String className = c.method.substring(0, c.method.lastIndexOf('/'));
+			if(!ClassReferenceUtil.isAllowed(className))
+				System.out.println("[calibrate] " + className + " isn't allowed, but " + c.method + " was measured anyway");
+			if(c.underpricing() > 1)
+				report.add(c);
+		}
+		Collections.sort(report, new Comparator<Calibration>() {
+			public int compare(Calibration a, Calibration b) {
+				return Double.compare(b.underpricing(), a.underpricing());
+			}
+		});
+
+		System.out.println();
+		System.out.printf("One bytecode of player code takes %.3f ns.  Costs are for inputs of size %d.%n", nsPerBytecode, referenceSize);
+		System.out.printf("Wrote the costs of %d measured methods to %s.%n", calibrations.size() - kept, outFile);
+		if(kept > 0)
+			System.out.printf("Kept the higher costs of %d methods that measured cheaper; set calibrate.lower to lower them.%n", kept);
+		System.out.println();
+		System.out.println("The most underpriced methods:");
+		System.out.printf("%-36s %8s %10s %8s %12s %12s%n", "method", "charged", "measured", "ratio", "ns", "ns/element");
+		for(Calibration c : report.subList(0, Math.min(REPORTED, report.size())))
+			System.out.printf("%-36s %8d %10.1f %8.1f %12.1f %12.3f%n", c.method, c.charged, c.bytecodes, c.underpricing(), c.nsAtReference, c.nsPerElement);
+		if(report.isEmpty())
+			System.out.println("(none)");
+	}
+
+	// least squares fit of time = intercept + slope * size
+	private static double[] fit(SortedMap<Integer, Double> times) {
+		double n = times.size(), sx = 0, sy = 0, sxx = 0, sxy = 0;
+		for(Map.Entry<Integer, Double> e : times.entrySet()) {
+			double x = e.getKey(), y = e.getValue();
+			sx += x;
+			sy += y;
+			sxx += x * x;
+			sxy += x * y;
+		}
+		double d = n * sxx - sx * sx;
+		if(d == 0)
+			return new double[] { sy / n, 0 };
+		double slope = (n * sxy - sx * sy) / d;
+		return new double[] { (sy - slope * sx) / n, slope };
+	}
+
+	private static void writeLines(File file, List<String> lines) throws IOException {
+		PrintWriter out = new PrintWriter(new FileWriter(file));
+		try {
+			for(String line : lines)
+				out.println(line);
+		} finally {
+			out.close();
+		}
+	}
+
+	// replaces MethodCosts.txt in the given idata file, keeping its other entries
+	private static void writeMethodCosts(File idata, List<String> lines) throws IOException {
+		Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+		ZipFile zfile = new ZipFile(idata);
+		try {
+			Enumeration<? extends ZipEntry> e = zfile.entries();
+			while(e.hasMoreElements()) {
+				ZipEntry entry = e.nextElement();
+				entries.put(entry.getName(), readFully(zfile.getInputStream(entry)));
+			}
+		} finally {
+			zfile.close();
+		}
+		StringBuilder sb = new StringBuilder();
+		for(String line : lines)
+			sb.append(line).append('\n');
+		entries.put("MethodCosts.txt", sb.toString().getBytes("UTF-8"));
+
+		// written next to idata and then moved over it, so a failure leaves
+		// idata as it was
+		File tmp = new File(idata.getPath() + ".tmp");
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(tmp));
+		try {
+			for(Map.Entry<String, byte[]> entry : entries.entrySet()) {
+				out.putNextEntry(new ZipEntry(entry.getKey()));
+				out.write(entry.getValue());
+				out.closeEntry();
+			}
+		} finally {
+			out.close();
+		}
+		if(tmp.renameTo(idata))
+			return;
+		// some file systems don't rename over an existing file, so idata is
+		// moved out of the way first and put back if tmp can't take its place
+		File bak = new File(idata.getPath() + ".bak");
+		bak.delete();
+		if(!idata.renameTo(bak))
+			throw new IOException("can't replace " + idata + " with " + tmp);
+		if(!tmp.renameTo(idata)) {
+			if(!bak.renameTo(idata))
+				throw new IOException("can't replace " + idata + " with " + tmp + ", the old " + idata + " is in " + bak);
+			throw new IOException("can't replace " + idata + " with " + tmp);
+		}
+		bak.delete();
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int n;
+		while((n = in.read(buf)) > 0)
+			bytes.write(buf, 0, n);
+		return bytes.toByteArray();
+	}
+
+	// the lines of MethodCosts.txt in the given idata file, in order
+	private static List<String> readMethodCosts(File idata) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		ZipFile zfile = new ZipFile(idata);
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(zfile.getInputStream(zfile.getEntry("MethodCosts.txt"))));
+			String line;
+			while((line = reader.readLine()) != null) {
+				if(line.trim().length() > 0)
+					lines.add(line);
+			}
+		} finally {
+			zfile.close();
+		}
+		return lines;
+	}
+}
@@ -0,0 +1,47 @@
+package battlecode.engine.instrumenter;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import battlecode.engine.EngineContext;
+
+/**
+ * The bytecode counting call that instrumented player code makes at the
+ * end of every basic block.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RobotMonitorBenchmark {
+
+	private static final int CALLS = 1024;
+
+	private EngineContext context;
+
+	private Field bytecodesLeft;
+
+	@Setup
+	public void setUp() throws Exception {
+		context = EngineContext.open();
+		RobotMonitor.reset();
+		// refilled before every batch of calls, so the robot never runs
+		// out of bytecodes and never has to yield to the scheduler
+		bytecodesLeft = RobotMonitor.class.getDeclaredField("bytecodesLeft");
+		bytecodesLeft.setAccessible(true);
+	}
+
+	@TearDown
+	public void tearDown() {
+		context.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CALLS)
+	public void incrementBytecodes() throws IllegalAccessException {
+		bytecodesLeft.setInt(context.getRobotMonitor(), Integer.MAX_VALUE);
+		for (int i = 0; i < CALLS; i++)
+			RobotMonitor.incrementBytecodes(3);
+	}
+}
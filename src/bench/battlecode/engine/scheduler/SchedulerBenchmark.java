@@ -0,0 +1,68 @@
+package battlecode.engine.scheduler;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import battlecode.engine.EngineContext;
+import battlecode.server.Config;
+
+/**
+ * Handoff latency of the scheduler ring.  Each invocation passes control
+ * from the benchmark thread through every robot thread and back, so it
+ * measures <tt>robots + 1</tt> handoffs.  The robot threads do nothing but
+ * pass control on; they use negative IDs so that the robot monitor does
+ * not look them up in a world.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SchedulerBenchmark {
+
+	@Param({"1", "10", "100"})
+	public int robots;
+
+	@Param({"threads", "virtual"})
+	public String scheduler;
+
+	private EngineContext context;
+
+	private volatile boolean stopping;
+
+	@Setup
+	public void setUp() {
+		Config.getGlobalConfig().set("bc.engine.scheduler", scheduler);
+		Scheduler.reset();
+		context = EngineContext.open();
+		Scheduler.start();
+		stopping = false;
+		for (int i = 0; i < robots; i++) {
+			Thread t = Scheduler.newThread(new Runnable() {
+				public void run() {
+					try {
+						Scheduler.endTurn();
+						while (!stopping)
+							Scheduler.passToNextThread();
+					} finally {
+						Scheduler.die();
+					}
+				}
+			}, "robot " + i);
+			Scheduler.add(t, -2 - i);
+			t.start();
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		stopping = true;
+		// each robot wakes up, leaves the ring and wakes the next one
+		Scheduler.passToNextThread();
+		context.close();
+	}
+
+	@Benchmark
+	public void passAroundRing() {
+		Scheduler.passToNextThread();
+	}
+}
@@ -0,0 +1,54 @@
+package battlecode.serial;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import battlecode.engine.signal.Signal;
+import battlecode.world.BenchmarkWorlds;
+import battlecode.world.GameWorld;
+import battlecode.world.InternalRobot;
+import battlecode.world.signal.IndicatorStringSignal;
+import battlecode.world.signal.MovementSignal;
+
+/**
+ * Building a RoundDelta, which folds repeated indicator string signals.
+ * The signals are a mix of movements and indicator strings, with each
+ * robot setting each of its strings a few times per round.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RoundDeltaBenchmark {
+
+	@Param({"100", "1000", "10000"})
+	public int signalCount;
+
+	@Param({"0.1", "0.5"})
+	public double indicatorFraction;
+
+	private Signal[] signals;
+
+	@Setup
+	public void setUp() {
+		GameWorld world = BenchmarkWorlds.emptyWorld(60, 60);
+		List<InternalRobot> robots = BenchmarkWorlds.populate(world, 0.05, 42);
+		Random rand = new Random(7);
+		signals = new Signal[signalCount];
+		for (int i = 0; i < signalCount; i++) {
+			InternalRobot r = robots.get(rand.nextInt(robots.size()));
+			if (rand.nextDouble() < indicatorFraction)
+				signals[i] = new IndicatorStringSignal(r, rand.nextInt(3), "string " + i);
+			else
+				signals[i] = new MovementSignal(r, r.getLocation(), true);
+		}
+	}
+
+	@Benchmark
+	public RoundDelta construct() {
+		// the constructor clears folded signals out of the array it is given
+		return new RoundDelta(signals.clone());
+	}
+}
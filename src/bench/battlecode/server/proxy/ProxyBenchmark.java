@@ -0,0 +1,95 @@
+package battlecode.server.proxy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjdk.jmh.annotations.*;
+
+import battlecode.engine.signal.Signal;
+import battlecode.serial.RoundDelta;
+import battlecode.world.BenchmarkWorlds;
+import battlecode.world.GameWorld;
+import battlecode.world.InternalRobot;
+import battlecode.world.signal.EnergonChangeSignal;
+import battlecode.world.signal.IndicatorStringSignal;
+import battlecode.world.signal.MovementSignal;
+
+/**
+ * Writing one round to a proxy.  The output is thrown away, so this
+ * measures encoding and compression rather than the disk.
+ * <ul>
+ * <li>serial: Java serialization, as sent to TCP clients</li>
+ * <li>gzip: Java serialization through gzip, as written by FileProxy</li>
+ * <li>binary: the encoding used by BinaryFileProxy</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProxyBenchmark {
+
+	@Param({"serial", "gzip", "binary"})
+	public String format;
+
+	@Param({"100", "1000"})
+	public int signalCount;
+
+	private RoundDelta round;
+
+	private Proxy proxy;
+
+	private BinaryMatchFormat.Encoder encoder;
+
+	private static class NullOutputStream extends OutputStream {
+		public void write(int b) {
+		}
+
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+
+	@Setup
+	public void setUp() throws IOException {
+		GameWorld world = BenchmarkWorlds.emptyWorld(60, 60);
+		List<InternalRobot> robots = BenchmarkWorlds.populate(world, 0.05, 42);
+		Random rand = new Random(7);
+		Signal[] signals = new Signal[signalCount];
+		for (int i = 0; i < signalCount - 1; i++) {
+			InternalRobot r = robots.get(rand.nextInt(robots.size()));
+			if (rand.nextInt(10) == 0)
+				signals[i] = new IndicatorStringSignal(r, rand.nextInt(3), "string " + rand.nextInt(50));
+			else
+				signals[i] = new MovementSignal(r, r.getLocation(), true);
+		}
+		signals[signalCount - 1] = new EnergonChangeSignal(robots.toArray(new InternalRobot[robots.size()]));
+		round = new RoundDelta(signals);
+
+		if ("binary".equals(format)) {
+			encoder = new BinaryMatchFormat.Encoder();
+			return;
+		}
+		final OutputStream out;
+		if ("gzip".equals(format))
+			out = new GZIPOutputStream(new NullOutputStream());
+		else
+			out = new NullOutputStream();
+		proxy = new Proxy() {
+			protected OutputStream getOutputStream() {
+				return out;
+			}
+		};
+		proxy.open();
+	}
+
+	@Benchmark
+	public Object writeRound() throws IOException {
+		if (encoder != null)
+			return encoder.encode(round);
+		proxy.writeRound(round);
+		return null;
+	}
+}
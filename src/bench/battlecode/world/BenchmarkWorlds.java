@@ -0,0 +1,69 @@
+package battlecode.world;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import battlecode.common.Chassis;
+import battlecode.common.GameConstants;
+import battlecode.common.MapLocation;
+import battlecode.common.RobotLevel;
+import battlecode.common.Team;
+import battlecode.common.TerrainTile;
+
+/**
+ * Builds worlds for the benchmarks without going through a map file or
+ * loading any players.
+ */
+public class BenchmarkWorlds {
+
+    private BenchmarkWorlds() {
+    }
+
+    /**
+     * Creates a world on an all-land map of the given size.
+     */
+    public static GameWorld emptyWorld(int width, int height) {
+        Map<GameMap.MapProperties, Integer> props = new EnumMap<GameMap.MapProperties, Integer>(GameMap.MapProperties.class);
+        props.put(GameMap.MapProperties.WIDTH, width);
+        props.put(GameMap.MapProperties.HEIGHT, height);
+        props.put(GameMap.MapProperties.SEED, 1);
+        TerrainTile[][] tiles = new TerrainTile[width][height];
+        for (int x = 0; x < width; x++)
+            for (int y = 0; y < height; y++)
+                tiles[x][y] = TerrainTile.LAND;
+        return new GameWorld(new GameMap(props, tiles), "teamA", "teamB",
+                new long[2][GameConstants.TEAM_MEMORY_LENGTH]);
+    }
+
+    /**
+     * Fills the given fraction of the ground squares of the world with
+     * light robots of random teams.
+     */
+    public static List<InternalRobot> populate(GameWorld world, double density, long seed) {
+        Random rand = new Random(seed);
+        GameMap map = world.getGameMap();
+        MapLocation origin = map.getMapOrigin();
+        List<InternalRobot> robots = new ArrayList<InternalRobot>();
+        for (int x = 0; x < map.getWidth(); x++) {
+            for (int y = 0; y < map.getHeight(); y++) {
+                MapLocation loc = new MapLocation(origin.x + x, origin.y + y);
+                if (rand.nextDouble() < density && world.getObject(loc, RobotLevel.ON_GROUND) == null)
+                    robots.add(new InternalRobot(world, Chassis.LIGHT, loc,
+                            rand.nextBoolean() ? Team.A : Team.B, false));
+            }
+        }
+        return robots;
+    }
+
+    /**
+     * Returns the location at the middle of the world's map.
+     */
+    public static MapLocation center(GameWorld world) {
+        GameMap map = world.getGameMap();
+        MapLocation origin = map.getMapOrigin();
+        return new MapLocation(origin.x + map.getWidth() / 2, origin.y + map.getHeight() / 2);
+    }
+}
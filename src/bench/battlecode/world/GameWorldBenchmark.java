@@ -0,0 +1,51 @@
+package battlecode.world;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import battlecode.common.MapLocation;
+import battlecode.common.RobotLevel;
+
+/**
+ * Location lookups that every move and sense goes through.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GameWorldBenchmark {
+
+    @Param({"0.05", "0.25"})
+    public double density;
+
+    private GameWorld world;
+    private MapLocation[] locations;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        world = BenchmarkWorlds.emptyWorld(60, 60);
+        BenchmarkWorlds.populate(world, density, 42);
+        MapLocation origin = world.getGameMap().getMapOrigin();
+        Random rand = new Random(7);
+        locations = new MapLocation[1024];
+        for (int i = 0; i < locations.length; i++)
+            locations[i] = new MapLocation(origin.x + rand.nextInt(60), origin.y + rand.nextInt(60));
+    }
+
+    private MapLocation nextLocation() {
+        next = (next + 1) & (locations.length - 1);
+        return locations[next];
+    }
+
+    @Benchmark
+    public boolean canMove() {
+        return world.canMove(RobotLevel.ON_GROUND, nextLocation());
+    }
+
+    @Benchmark
+    public InternalObject getObject() {
+        return world.getObject(nextLocation(), RobotLevel.ON_GROUND);
+    }
+}
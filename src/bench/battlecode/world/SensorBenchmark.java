@@ -0,0 +1,49 @@
+package battlecode.world;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import battlecode.common.Chassis;
+import battlecode.common.ComponentType;
+import battlecode.common.GameObject;
+import battlecode.common.Robot;
+import battlecode.common.Team;
+
+/**
+ * Sensing everything in range, for several robot densities and sensor
+ * ranges.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SensorBenchmark {
+
+    @Param({"0.01", "0.05", "0.25"})
+    public double density;
+
+    @Param({"SIGHT", "RADAR"})
+    public ComponentType sensorType;
+
+    private Sensor sensor;
+
+    @Setup
+    public void setUp() {
+        GameWorld world = BenchmarkWorlds.emptyWorld(60, 60);
+        InternalRobot robot = new InternalRobot(world, Chassis.MEDIUM, BenchmarkWorlds.center(world), Team.A, false);
+        // sensors ask the controller where the robot is
+        new RobotControllerImpl(world, robot).processBeginningOfTurn();
+        BenchmarkWorlds.populate(world, density, 42);
+        sensor = new Sensor(sensorType, robot);
+    }
+
+    @Benchmark
+    public Robot[] senseNearbyRobots() {
+        return sensor.senseNearbyGameObjects(Robot.class);
+    }
+
+    @Benchmark
+    public GameObject[] senseNearbyGameObjects() {
+        return sensor.senseNearbyGameObjects(GameObject.class);
+    }
+}
@@ -16,6 +16,8 @@ public final class GameConstants {
     public static final double BROADCAST_FIXED_COST = 0.01;
     /** Additional cost  per byte of message size */
     public static final double BROADCAST_COST_PER_BYTE = 0.0001;
+    /** The maximum number of messages in a robot's incoming message queue.  When a message arrives at a full queue, the oldest message is discarded. */
+    public static final int MESSAGE_QUEUE_SIZE = 1000;
     /** The minimum possible map height. */
     public static final int MAP_MIN_HEIGHT = 20;
     /** The maximum possible map height. */
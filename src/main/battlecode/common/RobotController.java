@@ -46,7 +46,9 @@ public interface RobotController {
 
     /**
      * Retrieve the next message waiting in your incoming message queue. Also
-     * removes the message from the queue.
+     * removes the message from the queue.  The queue holds at most
+     * {@link GameConstants#MESSAGE_QUEUE_SIZE} messages; when a message
+     * arrives at a full queue, the oldest message is discarded.
      *
      * @return next Message object in your queue, or null if your queue is
      *         empty.
@@ -1,7 +1,6 @@
 package battlecode.engine;
 
 import battlecode.engine.instrumenter.*;
-import battlecode.engine.instrumenter.lang.RoboRandom;
 import battlecode.engine.scheduler.Scheduler;
 import battlecode.engine.signal.Signal;
 import battlecode.world.GameWorldFactory;
@@ -19,21 +18,21 @@ public class Engine {
     private final boolean garbageCollectEnabled;
     private final int garbageCollectRounds;
     private final boolean breakpointsEnabled;
-    private static Engine theInstance = null;
+    private final EngineContext context;
     private Runnable ioCallback;
 
     public Engine(String teamA, String teamB, String mapName, String mapPath, long[][] archonMemory) {
-        theInstance = this;
+        context = EngineContext.open();
         Config options = Config.getGlobalConfig();
         this.garbageCollectEnabled = options.getBoolean("bc.engine.gc");
         this.garbageCollectRounds = options.getInt("bc.engine.gc-rounds");
         this.breakpointsEnabled = options.getBoolean("bc.engine.breakpoints");
         GenericWorld tempGameWorld = null;
         //InternalObject.resetIDs();
-        IndividualClassLoader.reset();
         Scheduler.reset();
         RobotMonitor.reset();
         PlayerFactory.checkOptions();
+        PlayerFactory.prepareTeams(teamA, teamB);
         try {
             try {
                 tempGameWorld = GameWorldFactory.createGameWorld(teamA, teamB, mapName, mapPath, archonMemory);
@@ -48,8 +47,8 @@ public class Engine {
             gameWorld = tempGameWorld;
         }
         gameWorld.resetStatic();
+        context.setGameWorld(gameWorld);
         RobotMonitor.setGameWorld(gameWorld);
-        RoboRandom.setMapSeed(gameWorld.getMapSeed());
         Scheduler.start();
     }
 
@@ -64,6 +63,7 @@ public class Engine {
         if (!gameWorld.isRunning()) {
             return GameState.DONE;
         }
+        context.bind();
         try {
             if (gameWorld.getCurrentRound() != -1) {
                 gameWorld.clearAllSignals();
@@ -99,6 +99,7 @@ public class Engine {
      * @return true if the gamestate may have changed, false if the gamestate did not change
      */
     public boolean receiveSignal(Signal s) {
+        context.bind();
         gameWorld.clearAllSignals();
         Exception result = s.accept(gameWorld);
         return (result == null);
@@ -109,7 +110,25 @@ public class Engine {
     }
 
     public static int getRoundNum() {
-        return theInstance.gameWorld.getCurrentRound();
+        return EngineContext.current().getGameWorld().getCurrentRound();
+    }
+
+    /**
+     * Stops the match between rounds, before it is over, and lets the robot
+     * threads return.  The match has no result afterwards.
+     */
+    public void abort() {
+        context.bind();
+        RobotMonitor.killAllRobots();
+        Scheduler.passToNextThread();
+    }
+
+    /**
+     * Releases the per-match engine state.  Should be called once the
+     * match is over.
+     */
+    public void close() {
+        context.close();
     }
 
     public long[][] getArchonMemory() {
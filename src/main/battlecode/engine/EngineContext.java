@@ -0,0 +1,112 @@
+package battlecode.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import battlecode.engine.instrumenter.IndividualClassLoader;
+import battlecode.engine.instrumenter.RobotMonitor;
+import battlecode.engine.scheduler.Scheduler;
+
+/**
+ * Holds the engine state that belongs to one match: the scheduler ring,
+ * the robot monitor, the instrumented class cache and the world.
+ * <p>
+ * The engine and the instrumented player code reach this state through
+ * static methods (e.g. RobotMonitor.incrementBytecodes), which look up the
+ * context of the calling thread with {@link #current}.  Robot threads
+ * inherit the context of the thread that spawned them, so a context only
+ * has to be bound to the thread that drives the match.  When only one
+ * match is running, the lookup is a single field read.
+ */
+public class EngineContext {
+
+	private static final InheritableThreadLocal<EngineContext> threadContext = new InheritableThreadLocal<EngineContext>();
+
+	// the only open context, or null if zero or several contexts are open
+	private static volatile EngineContext soleContext;
+
+	private static final List<EngineContext> openContexts = new ArrayList<EngineContext>();
+
+	private final Scheduler scheduler = new Scheduler();
+	private final RobotMonitor robotMonitor = new RobotMonitor();
+	private final IndividualClassLoader.Cache classCache = new IndividualClassLoader.Cache();
+	private GenericWorld gameWorld;
+	private long mapSeed;
+
+	private EngineContext() {
+	}
+
+	/**
+	 * Creates a new context and binds it to the calling thread.
+	 */
+	public static EngineContext open() {
+		EngineContext context = new EngineContext();
+		synchronized (openContexts) {
+			openContexts.add(context);
+			updateSoleContext();
+		}
+		context.bind();
+		return context;
+	}
+
+	private static void updateSoleContext() {
+		soleContext = (openContexts.size() == 1) ? openContexts.get(0) : null;
+	}
+
+	/**
+	 * Returns the context of the match that the calling thread belongs to.
+	 */
+	public static EngineContext current() {
+		EngineContext context = soleContext;
+		if (context != null)
+			return context;
+		return threadContext.get();
+	}
+
+	/**
+	 * Makes this the context of the calling thread, and of any threads
+	 * it starts from now on.
+	 */
+	public void bind() {
+		threadContext.set(this);
+	}
+
+	/**
+	 * Releases this context once its match is over.
+	 */
+	public void close() {
+		synchronized (openContexts) {
+			if (!openContexts.remove(this))
+				return;
+			updateSoleContext();
+		}
+		scheduler.checkFinished();
+		if (threadContext.get() == this)
+			threadContext.remove();
+	}
+
+	public Scheduler getScheduler() {
+		return scheduler;
+	}
+
+	public RobotMonitor getRobotMonitor() {
+		return robotMonitor;
+	}
+
+	public IndividualClassLoader.Cache getClassCache() {
+		return classCache;
+	}
+
+	public GenericWorld getGameWorld() {
+		return gameWorld;
+	}
+
+	public long getMapSeed() {
+		return mapSeed;
+	}
+
+	void setGameWorld(GenericWorld gw) {
+		gameWorld = gw;
+		mapSeed = gw.getMapSeed();
+	}
+}
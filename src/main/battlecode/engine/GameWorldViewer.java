@@ -23,6 +23,12 @@ public interface GameWorldViewer {
 
 	public Signal[] getAllSignals(boolean includeBytecodesUsedSignal);
 
+	/**
+	 * Returns signals that recreate the current state of the world when
+	 * they are applied to an empty map.
+	 */
+	public Signal[] getStateSignals();
+
 	public RoundStats getRoundStats();
 
 	public GameStats getGameStats();
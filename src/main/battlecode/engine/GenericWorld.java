@@ -8,9 +8,9 @@ import battlecode.engine.signal.SignalHandler;
  */
 public interface GenericWorld extends GameWorldViewer, SignalHandler<Exception> {
 
-	public void beginningOfExecution(int id);
+	public void beginningOfExecution(GenericRobot robot);
 
-	public void endOfExecution(int id);
+	public void endOfExecution(GenericRobot robot);
 
 	public void processBeginningOfRound();
 
@@ -12,11 +12,29 @@ public class PlayerFactory {
 
 	private static boolean _debugMethodsEnabled = false;
 
+	// whether the robots of a team share a TeamClassLoader
+	private static boolean _sharedClasses = false;
+
+	// whether team classes are instrumented before the match starts
+	private static boolean _eagerInstrumentation = false;
+
 	private PlayerFactory() {}
 
 	public static void checkOptions() {
 		Config options = Config.getGlobalConfig();
 		_debugMethodsEnabled = options.getBoolean("bc.engine.debug-methods");
+		_sharedClasses = options.getBoolean("bc.engine.shared-classes");
+		_eagerInstrumentation = options.getBoolean("bc.engine.eager-instrumentation");
+	}
+
+	/**
+	 * Instruments the classes of the given teams ahead of time, if
+	 * bc.engine.eager-instrumentation is set.  Must be called after
+	 * checkOptions and before any robots are loaded.
+	 */
+	public static void prepareTeams(String... teamNames) {
+		if(_eagerInstrumentation)
+			EagerInstrumenter.instrumentTeams(_debugMethodsEnabled, _sharedClasses, teamNames);
 	}
 
 	public static void loadPlayer(GenericController rc, String teamName) {
@@ -25,7 +43,11 @@ public class PlayerFactory {
 		Class playerClass;
 		try{
 			// The classloaders ignore silenced now - RobotMonitor takes care of it
-			ClassLoader icl = new IndividualClassLoader(teamName, _debugMethodsEnabled, false);
+			ClassLoader icl;
+			if(_sharedClasses && TeamClassLoader.canShare(teamName))
+				icl = TeamClassLoader.forTeam(teamName, _debugMethodsEnabled);
+			else
+				icl = new IndividualClassLoader(teamName, _debugMethodsEnabled, false);
 			playerClass = icl.loadClass(teamName + ".RobotPlayer");
 			//~ System.out.println("PF done loading");
 		} catch(InstrumentationException ie) {
@@ -2,6 +2,8 @@ package battlecode.engine.instrumenter;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.zip.ZipFile;
 
 import org.objectweb.asm.Type;
@@ -31,6 +33,16 @@ class ClassReferenceUtil {
 	// change the name.  But when we rename the class, it can't use the old class's native methods any more.
 	// This might have issues so for now I'm just not instrumenting java.io
 	// private final static Set<String> uninstrumentedClasses;
+
+	// The replacements of class names and method descriptors, by team, for
+	// checkDisallowed false and true, and for a lazy instrumenter, which
+	// replaces illegal classes instead of failing.  A replacement only
+	// depends on these, and classes are instrumented on several threads at
+	// once, so these are concurrent maps.
+	private final static ConcurrentMap<String, ConcurrentMap<String, String>> uncheckedReferences = new ConcurrentHashMap<String, ConcurrentMap<String, String>>();
+	private final static ConcurrentMap<String, ConcurrentMap<String, String>> checkedReferences = new ConcurrentHashMap<String, ConcurrentMap<String, String>>();
+	private final static ConcurrentMap<String, ConcurrentMap<String, String>> lazyUncheckedReferences = new ConcurrentHashMap<String, ConcurrentMap<String, String>>();
+	private final static ConcurrentMap<String, ConcurrentMap<String, String>> lazyCheckedReferences = new ConcurrentHashMap<String, ConcurrentMap<String, String>>();
 		
 	private ClassReferenceUtil() {}
 
@@ -95,6 +107,11 @@ class ClassReferenceUtil {
 		return allowedPackages.contains(className.substring(0,dotIndex));
 	}
 
+	// whether players may reference the given class
+	static boolean isAllowed(String className) {
+		return isInAllowedPackage(className) && !disallowedClasses.contains(className);
+	}
+
 	private static boolean shouldAddInstrumentedPrefix(String className) {
 		if(className.startsWith("battlecode/")) {
 			if(className.equals("battlecode/engine/instrumenter/lang/InstrumentableString"))
@@ -141,10 +158,31 @@ class ClassReferenceUtil {
 	 * @return the name of the class that should replace this reference, in fully qualified form
 	 */
 	public static String classReference(String className, String teamPackageName, boolean silenced, boolean checkDisallowed) {
-		String ans = classReferenceX(className, teamPackageName, silenced, checkDisallowed);
+		if(className == null) return null;
+		Map<String, String> references = referenceCache(teamPackageName, checkDisallowed);
+		String ans = references.get(className);
+		if(ans == null) {
+			ans = classReferenceX(className, teamPackageName, silenced, checkDisallowed);
+			references.put(className, ans);
+		}
 		//System.out.println("CR "+className+":"+ans);
 		return ans;
 	}
+
+	// returns the replacements already made for the given team
+	private static Map<String, String> referenceCache(String teamPackageName, boolean checkDisallowed) {
+		ConcurrentMap<String, ConcurrentMap<String, String>> teams;
+		if(InstrumentingClassLoader.lazy())
+			teams = checkDisallowed ? lazyCheckedReferences : lazyUncheckedReferences;
+		else
+			teams = checkDisallowed ? checkedReferences : uncheckedReferences;
+		ConcurrentMap<String, String> references = teams.get(teamPackageName);
+		if(references == null) {
+			teams.putIfAbsent(teamPackageName, new ConcurrentHashMap<String, String>());
+			references = teams.get(teamPackageName);
+		}
+		return references;
+	}
    
     public static String classReferenceX(String className, String teamPackageName, boolean silenced, boolean checkDisallowed) {
 		if(className == null) return null;
@@ -225,6 +263,17 @@ class ClassReferenceUtil {
 	 * @throws InstrumentationException if any of the class references contained the the method descriptor are not allowed.
 	 */
 	public static String methodDescReference(String methodDesc, String teamPackageName, boolean silenced, boolean checkDisallowed) {
+		// descriptors start with '(', so they can share the map with class names
+		Map<String, String> references = referenceCache(teamPackageName, checkDisallowed);
+		String ret = references.get(methodDesc);
+		if(ret == null) {
+			ret = methodDescReferenceX(methodDesc, teamPackageName, silenced, checkDisallowed);
+			references.put(methodDesc, ret);
+		}
+		return ret;
+	}
+
+	public static String methodDescReferenceX(String methodDesc, String teamPackageName, boolean silenced, boolean checkDisallowed) {
 		String ret = "(";
 
 		Type[] argTypes = Type.getArgumentTypes(methodDesc);
@@ -0,0 +1,137 @@
+package battlecode.engine.instrumenter;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import battlecode.engine.EngineContext;
+import battlecode.engine.ErrorReporter;
+
+/**
+ * Instruments all the classes of the teams in a match before the match
+ * starts (see bc.engine.eager-instrumentation).
+ * <p>
+ * Otherwise a class is instrumented when a robot first loads it, on the
+ * robot's thread, so the first rounds of a match wait for the instrumenter
+ * one class at a time.  EagerInstrumenter finds the class files in each team
+ * package, instruments them on one thread per processor, and puts them in
+ * the match's IndividualClassLoader.Cache, where the class loaders look
+ * before instrumenting a class themselves.
+ * <p>
+ * A class that fails to instrument is reported right away, but the robots
+ * are only killed if they load it, as before.
+ */
+public class EagerInstrumenter {
+
+	private EagerInstrumenter() {}
+
+	/**
+	 * Instruments the classes of the given teams for the current match.
+	 *
+	 * @param debugMethodsEnabled whether debug methods are enabled
+	 * @param sharedClasses whether the robots of a team share a TeamClassLoader
+	 * @param teams the package names of the teams
+	 */
+	public static void instrumentTeams(boolean debugMethodsEnabled, boolean sharedClasses, String... teams) {
+		IndividualClassLoader.Cache cache = EngineContext.current().getClassCache();
+		Map<String, Future<byte[]>> results = new LinkedHashMap<String, Future<byte[]>>();
+		ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		try {
+			for(final String team : new LinkedHashSet<String>(Arrays.asList(teams))) {
+				// the same kind of loader that the robots will use, since
+				// it decides how the classes are instrumented
+				final InstrumentingClassLoader loader;
+				try {
+					if(sharedClasses && TeamClassLoader.canShare(team))
+						loader = TeamClassLoader.forTeam(team, debugMethodsEnabled);
+					else
+						loader = new IndividualClassLoader(team, debugMethodsEnabled, false);
+				} catch(InstrumentationException ie) {
+					// reported already; the robots will fail to load
+					continue;
+				}
+				for(final String name : findClasses(team)) {
+					results.put(name, pool.submit(new Callable<byte[]>() {
+						public byte[] call() {
+							return loader.instrument(name, true, team);
+						}
+					}));
+				}
+			}
+			for(Map.Entry<String, Future<byte[]>> result : results.entrySet()) {
+				try {
+					cache.putEagerClass(result.getKey(), result.getValue().get());
+				} catch(ExecutionException e) {
+					if(e.getCause() instanceof InstrumentationException)
+						cache.putEagerError(result.getKey());
+					else
+						ErrorReporter.report(e.getCause());
+				}
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Returns the names of the class files in the given package and its
+	 * subpackages, in directories or jar files on the class path.
+	 */
+	static List<String> findClasses(String packageName) {
+		Set<String> classes = new LinkedHashSet<String>();
+		try {
+			Enumeration<URL> urls = ClassLoader.getSystemResources(packageName);
+			while(urls.hasMoreElements()) {
+				URL url = urls.nextElement();
+				if(url.getProtocol().equals("file"))
+					findClasses(new File(URLDecoder.decode(url.getPath(), "UTF-8")), packageName, classes);
+				else if(url.getProtocol().equals("jar")) {
+					JarFile jar = ((JarURLConnection)url.openConnection()).getJarFile();
+					Enumeration<JarEntry> entries = jar.entries();
+					while(entries.hasMoreElements()) {
+						String name = entries.nextElement().getName();
+						if(name.startsWith(packageName + "/") && name.endsWith(".class"))
+							classes.add(name.substring(0, name.length() - 6));
+					}
+				}
+			}
+		} catch(IOException e) {
+			// the robots' class loaders will find whatever we miss
+			ErrorReporter.report(e, false);
+		}
+		return new ArrayList<String>(classes);
+	}
+
+	private static void findClasses(File dir, String packageName, Set<String> classes) {
+		File[] files = dir.listFiles();
+		if(files == null)
+			return;
+		for(File f : files) {
+			String name = f.getName();
+			if(f.isDirectory())
+				findClasses(f, packageName + "/" + name, classes);
+			else if(name.endsWith(".class"))
+				classes.add(packageName + "/" + name.substring(0, name.length() - 6));
+		}
+	}
+
+}
@@ -12,6 +12,7 @@ import java.util.Set;
 import java.util.Stack;
 import java.util.zip.ZipFile;
 
+import battlecode.engine.EngineContext;
 import battlecode.engine.ErrorReporter;
 
 import org.objectweb.asm.*;
@@ -21,31 +22,123 @@ public class IndividualClassLoader extends InstrumentingClassLoader {
 
 	private final static String[] disallowedPlayerPackages = {"java/", "battlecode/", "sun/"};
 		
-	// caches the binary format of classes that have been instrumented
-	// the values are byte arrays, not Classes, because each instance of InstrumentingClassLoader should define its own class,
-	// even if another InstrumentingClassLoader has already loaded a class from the same class file
-	private final static Map<String, byte[]> instrumentedClasses = new HashMap<String,byte[]>();
-	
-	// caches the names of teams with errors, so that if a class is loaded for that team, it immediately throws an exception
-	private final static Set<String> teamsWithErrors = Collections.newSetFromMap(new IdentityHashMap<String,Boolean>());
-	
+	/**
+	 * The classes instrumented for one match.  Each EngineContext has its own
+	 * Cache, so matches running at the same time do not share loaded classes.
+	 */
+	public static class Cache {
+
+		// caches the binary format of classes that have been instrumented
+		// the values are byte arrays, not Classes, because each instance of InstrumentingClassLoader should define its own class,
+		// even if another InstrumentingClassLoader has already loaded a class from the same class file
+		private final Map<String, byte[]> instrumentedClasses = new HashMap<String,byte[]>();
+
+		// caches the names of teams with errors, so that if a class is loaded for that team, it immediately throws an exception
+		private final Set<String> teamsWithErrors = Collections.newSetFromMap(new IdentityHashMap<String,Boolean>());
+
+		private final SingletonClassLoader singletonLoader = new SingletonClassLoader();
+
+		// team classes that EagerInstrumenter instrumented before the match
+		// started, and the ones it found errors in
+		private final Map<String, byte[]> eagerClasses = new HashMap<String, byte[]>();
+		private final Set<String> eagerErrors = new HashSet<String>();
+
+		synchronized void putEagerClass(String name, byte[] classBytes) {
+			eagerClasses.put(name, classBytes);
+		}
+
+		synchronized void putEagerError(String name) {
+			eagerErrors.add(name);
+		}
+
+		/**
+		 * Returns the instrumented team class with the given name, or null if
+		 * it wasn't instrumented before the match.
+		 *
+		 * @throws InstrumentationException if instrumenting the class failed
+		 */
+		synchronized byte[] eagerClass(String name) throws InstrumentationException {
+			// the error was reported when the class was instrumented
+			if(eagerErrors.contains(name))
+				throw new InstrumentationException();
+			return eagerClasses.get(name);
+		}
+
+		// the loader of each team, if the robots of a team share their classes
+		private final Map<String, TeamClassLoader> teamLoaders = new HashMap<String, TeamClassLoader>();
+
+		// the digest of each team's class files, for InstrumentedClassCache
+		private final Map<String, byte[]> teamDigests = new HashMap<String, byte[]>();
+
+		// whether the robots of each team can share its classes
+		private final Map<String, Boolean> sharedTeams = new HashMap<String, Boolean>();
+
+		SingletonClassLoader singletonLoader() {
+			return singletonLoader;
+		}
+
+		synchronized byte[] teamDigest(String teamPackageName) {
+			byte[] digest = teamDigests.get(teamPackageName);
+			if(digest == null) {
+				digest = InstrumentedClassCache.teamDigest(teamPackageName);
+				teamDigests.put(teamPackageName, digest);
+			}
+			return digest;
+		}
+
+		synchronized boolean canShareClasses(String teamPackageName) {
+			Boolean canShare = sharedTeams.get(teamPackageName);
+			if(canShare == null) {
+				String enumName = RobotStatics.sharedEnumState(teamPackageName);
+				if(enumName != null)
+					System.out.println("[Engine] " + enumName.replace('/', '.') + " is an enum that robots could change, so the robots of " + teamPackageName + " won't share their classes");
+				canShare = Boolean.valueOf(enumName == null);
+				sharedTeams.put(teamPackageName, canShare);
+			}
+			return canShare.booleanValue();
+		}
+
+		synchronized TeamClassLoader teamLoader(String teamPackageName, boolean debugMethodsEnabled) throws InstrumentationException {
+			TeamClassLoader loader = teamLoaders.get(teamPackageName);
+			if(loader == null) {
+				loader = new TeamClassLoader(teamPackageName, debugMethodsEnabled, this);
+				teamLoaders.put(teamPackageName, loader);
+			}
+			return loader;
+		}
+
+	}
+
+	private final Map<String, byte[]> instrumentedClasses;
+	private final Set<String> teamsWithErrors;
+	private final SingletonClassLoader singletonLoader;
+	private final Cache cache;
+
 	// the name of the team this InstrumentingClassLoader is loading
 	private final String teamPackageName;
 
-	public static void reset() {
-		instrumentedClasses.clear();
-		teamsWithErrors.clear();
-		singletonLoader = new SingletonClassLoader();
+	public IndividualClassLoader(String teamPackageName, boolean debugMethodsEnabled, boolean silenced) throws InstrumentationException {
+		this(teamPackageName, debugMethodsEnabled, silenced, EngineContext.current().getClassCache());
 	}
 
-	static SingletonClassLoader singletonLoader = new SingletonClassLoader();
+	public IndividualClassLoader(String teamPackageName, boolean debugMethodsEnabled, boolean silenced, Cache cache) throws InstrumentationException {
+		super(silenced,debugMethodsEnabled,cache.singletonLoader);
 
-	public IndividualClassLoader(String teamPackageName, boolean debugMethodsEnabled, boolean silenced) throws InstrumentationException {
-		super(silenced,debugMethodsEnabled,singletonLoader);
+		instrumentedClasses = cache.instrumentedClasses;
+		teamsWithErrors = cache.teamsWithErrors;
+		singletonLoader = cache.singletonLoader;
+		this.cache = cache;
 	
 		checkSettings();
 
-		// check that the package we're trying to load isn't contained in a disallowed package
+		checkTeamPackage(teamPackageName);
+		
+		this.teamPackageName = teamPackageName.intern();
+		
+	}
+
+	// check that the package we're trying to load isn't contained in a disallowed package
+	static void checkTeamPackage(String teamPackageName) throws InstrumentationException {
 		String teamNameSlash = teamPackageName + "/";
 		for(String sysName : disallowedPlayerPackages) {
 			if(teamNameSlash.startsWith(sysName)) {
@@ -53,9 +146,26 @@ public class IndividualClassLoader extends InstrumentingClassLoader {
 				throw new InstrumentationException();
 			}
 		}
-		
-		this.teamPackageName = teamPackageName.intern();
-		
+	}
+
+	// whether name is a class that a loader defines its own copy of, without
+	// instrumenting it
+	static boolean isCopiedClass(String name) {
+		return name.equals("battlecode/engine/instrumenter/lang/ObjectHashCode")||
+			name.equals("battlecode/common/GameConstants");
+	}
+
+	static byte[] copyClass(String name) throws InstrumentationException {
+		ClassReader cr = null;
+		try {
+			cr = new ClassReader(name);
+		}catch(IOException ioe) {
+			ErrorReporter.report("Can't find the class \"" + name + "\"", "Make sure the team name is spelled correctly.\nMake sure the .class files are in the right directory (teams/teamname/*.class)");
+			throw new InstrumentationException();
+		}
+		ClassWriter cw = new ClassWriter(cr,COMPUTE_MAXS);
+		cr.accept(cw,0);
+		return cw.toByteArray();
 	}
 
 	protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
@@ -77,26 +187,18 @@ public class IndividualClassLoader extends InstrumentingClassLoader {
 				byte[] classBytes = instrumentedClasses.get(name);
 				finishedClass = defineClass(null, classBytes, 0, classBytes.length);
 			}
-			else if(name.equals("battlecode/engine/instrumenter/lang/ObjectHashCode")||
-				name.equals("battlecode/common/GameConstants")) {
+			else if(isCopiedClass(name)) {
 				// We want each robot to have its own copy of this class
 				// so that it isn't possible to send messages by calling
 				// hashCode repeatedly.  But we don't want to instrument it.
-				ClassReader cr = null;
-				try {
-					cr = new ClassReader(name);
-				}catch(IOException ioe) {
-					ErrorReporter.report("Can't find the class \"" + name + "\"", "Make sure the team name is spelled correctly.\nMake sure the .class files are in the right directory (teams/teamname/*.class)");
-					throw new InstrumentationException();
-				}
-				ClassWriter cw = new ClassWriter(cr,COMPUTE_MAXS);
-				cr.accept(cw,0);
-				finishedClass = saveAndDefineClass(name,cw.toByteArray());
+				finishedClass = saveAndDefineClass(name,copyClass(name));
 			}
 			else if(name.startsWith(teamPackageName)) {
 				byte [] classBytes;
 				try {
-					classBytes = instrument(name,true,teamPackageName);
+					classBytes = cache.eagerClass(name);
+					if(classBytes == null)
+						classBytes = instrument(name,true,teamPackageName);
 				} catch(InstrumentationException ie) {
 					teamsWithErrors.add(teamPackageName);
 					throw ie;
@@ -115,9 +217,8 @@ public class IndividualClassLoader extends InstrumentingClassLoader {
 				finishedClass = saveAndDefineClass(name,classBytes);
 			}
 			// Each robot has its own version of java.util classes.
-			// If permgen space becomes a problem, we could make it so
-			// that only one copy of these classes is loaded, but
-			// we would need to modify ObjectHashCode.
+			// If permgen space becomes a problem, set
+			// bc.engine.shared-classes to use a TeamClassLoader.
 			else if(name.startsWith("instrumented")) {
 				byte [] classBytes;
 				try {
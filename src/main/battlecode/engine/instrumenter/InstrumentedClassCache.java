@@ -0,0 +1,179 @@
+package battlecode.engine.instrumenter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import battlecode.engine.ErrorReporter;
+import battlecode.server.Config;
+
+/**
+ * A content-addressed cache of instrumented class files, kept in the
+ * directory named by bc.engine.class-cache.  The cache is shared by all
+ * matches and survives server restarts.
+ * <p>
+ * An entry is keyed by the SHA-1 of the original class file together with
+ * everything else that the instrumenter's output depends on: the class and
+ * team names, the debug method and silenced flags, the lazy-instrumenter,
+ * fast-hash and fast-metering settings, and the contents of idata.  The
+ * output also depends on the superclasses and interfaces of the classes a
+ * player refers to, so the key includes a digest of every class file in
+ * the team's package (see {@link #teamDigest}) and the version and
+ * location of the JVM, whose classes the rest are.
+ * Classes that fail instrumentation are never cached, so their errors are
+ * reported every time.
+ * <p>
+ * Bump VERSION whenever a change to the instrumenter changes its output.
+ */
+class InstrumentedClassCache {
+
+	private static final int VERSION = 2;
+
+	private static boolean checkedSettings;
+	private static File directory;
+	private static byte[] idataDigest;
+
+	private InstrumentedClassCache() {
+	}
+
+	/**
+	 * Returns whether bc.engine.class-cache names a usable directory.
+	 */
+	static synchronized boolean enabled() {
+		if (!checkedSettings) {
+			checkedSettings = true;
+			String path = Config.getGlobalConfig().get("bc.engine.class-cache");
+			if (path != null && path.length() > 0) {
+				File dir = new File(path);
+				if (!dir.isDirectory() && !dir.mkdirs())
+					System.out.println("[Engine] Can't create class cache directory " + path + ", not caching instrumented classes");
+				else {
+					try {
+						idataDigest = newDigest().digest(readFully(new FileInputStream("idata")));
+						directory = dir;
+					} catch (IOException e) {
+						System.out.println("[Engine] Can't read idata, not caching instrumented classes");
+					}
+				}
+			}
+		}
+		return directory != null;
+	}
+
+	/**
+	 * Computes the key for the class file <tt>classBytes</tt> instrumented with
+	 * the given parameters.
+	 */
+	static String key(byte[] classBytes, String className, String teamPackageName, byte[] teamDigest, boolean checkDisallowed, boolean debugMethodsEnabled, boolean silenced) {
+		MessageDigest md = newDigest();
+		md.update(classBytes);
+		md.update(idataDigest);
+		md.update(teamDigest);
+		md.update(String.format("%d %s %s %b %b %b %b %b %b %s %s", VERSION, className, teamPackageName, checkDisallowed, debugMethodsEnabled, silenced, InstrumentingClassLoader.lazy(), InstrumentingClassLoader.fastHash(), InstrumentingClassLoader.fastMetering(), System.getProperty("java.version"), System.getProperty("java.home")).getBytes());
+		byte[] digest = md.digest();
+		StringBuilder sb = new StringBuilder(2 * digest.length);
+		for (byte b : digest)
+			sb.append(String.format("%02x", b));
+		return sb.toString();
+	}
+
+	/**
+	 * Computes the digest of the names and contents of the class files in the
+	 * given team's package, for {@link #key}.
+	 */
+	static byte[] teamDigest(String teamPackageName) {
+		List<String> classes = new ArrayList<String>(EagerInstrumenter.findClasses(teamPackageName));
+		Collections.sort(classes);
+		MessageDigest md = newDigest();
+		for (String name : classes) {
+			InputStream in = ClassLoader.getSystemResourceAsStream(name + ".class");
+			if (in == null)
+				continue;
+			try {
+				md.update(name.getBytes());
+				md.update(newDigest().digest(readFully(in)));
+			} catch (IOException e) {
+				// the class loader will report it if the class is used
+			}
+		}
+		return md.digest();
+	}
+
+	/**
+	 * Returns the instrumented class with the given key, or null if it is not
+	 * in the cache.
+	 */
+	static byte[] get(String key) {
+		File file = fileFor(key);
+		if (!file.isFile())
+			return null;
+		try {
+			return readFully(new FileInputStream(file));
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Stores an instrumented class.  The class is written to a temporary file
+	 * first and then renamed, so that other servers using the same directory
+	 * never see a partially written class.
+	 */
+	static void put(String key, byte[] instrumentedBytes) {
+		File file = fileFor(key);
+		File dir = file.getParentFile();
+		File tmp = null;
+		try {
+			if (!dir.isDirectory() && !dir.mkdirs())
+				return;
+			tmp = File.createTempFile(key, ".tmp", dir);
+			OutputStream out = new FileOutputStream(tmp);
+			try {
+				out.write(instrumentedBytes);
+			} finally {
+				out.close();
+			}
+			if (tmp.renameTo(file) || file.isFile())
+				tmp = null;
+		} catch (IOException e) {
+			ErrorReporter.report(e, false);
+		} finally {
+			if (tmp != null)
+				tmp.delete();
+		}
+	}
+
+	private static File fileFor(String key) {
+		return new File(new File(directory, key.substring(0, 2)), key + ".class");
+	}
+
+	static byte[] readFully(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[8192];
+			int n;
+			while ((n = in.read(buf)) >= 0)
+				out.write(buf, 0, n);
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package battlecode.engine.instrumenter;
 
 import java.io.BufferedReader;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.IOException;
 import java.util.HashMap;
@@ -10,6 +11,7 @@ import java.util.Set;
 import java.util.Stack;
 import java.util.zip.ZipFile;
 
+import battlecode.engine.EngineContext;
 import battlecode.engine.ErrorReporter;
 
 import org.objectweb.asm.*;
@@ -25,6 +27,7 @@ public abstract class InstrumentingClassLoader extends ClassLoader {
 
 	private static boolean lazy;
 	private static boolean fastHash;
+	private static boolean fastMetering;
 	private static boolean checkedSettings;
 
 	/**
@@ -55,12 +58,24 @@ public abstract class InstrumentingClassLoader extends ClassLoader {
 	 */
 	public static boolean fastHash() { return fastHash; }
 
+	/**
+	 * Returns the value of the property bc.engine.fast-metering.
+	 * If fast-metering is set, then most basic blocks add their bytecode
+	 * cost to a local variable instead of calling RobotMonitor, which is
+	 * only called before method calls, returns and backward jumps.  Robots
+	 * are charged the same number of bytecodes either way.
+	 *
+	 * {@see MeteringOptimizer}
+	 */
+	public static boolean fastMetering() { return fastMetering; }
+
 	protected static void checkSettings() {
 		if(!checkedSettings) {
 			checkedSettings = true;
 			Config config = Config.getGlobalConfig();
 			lazy = config.getBoolean("bc.engine.lazy-instrumenter");
 			fastHash = config.getBoolean("bc.engine.fast-hash");
+			fastMetering = config.getBoolean("bc.engine.fast-metering");
 		}
 	}
 
@@ -78,21 +93,52 @@ public abstract class InstrumentingClassLoader extends ClassLoader {
 
 	public byte[] instrument(String className, boolean checkDisallowed, String teamPackageName) throws InstrumentationException {
 		//System.out.println("instrumenting "+className+", checkDisallowed "+checkDisallowed);
-		ClassReader cr;
+		// classes that use RobotStatics are instrumented differently, which
+		// the cache key doesn't cover
+		if(!InstrumentedClassCache.enabled() || robotStatics() != null)
+			return instrument(readClass(className),checkDisallowed,teamPackageName);
+		byte[] classBytes = readClass(className);
+		byte[] teamDigest = EngineContext.current().getClassCache().teamDigest(teamPackageName);
+		String key = InstrumentedClassCache.key(classBytes,className,teamPackageName,teamDigest,checkDisallowed,debugMethodsEnabled,silenced);
+		byte[] bytes = InstrumentedClassCache.get(key);
+		if(bytes == null) {
+			bytes = instrument(classBytes,checkDisallowed,teamPackageName);
+			InstrumentedClassCache.put(key,bytes);
+		}
+		return bytes;
+	}
+
+	private byte[] instrument(byte[] classBytes, boolean checkDisallowed, String teamPackageName) throws InstrumentationException {
+		ClassReader cr = new ClassReader(classBytes);
+		ClassWriter cw = new ClassWriter(COMPUTE_MAXS); // passing true sets maxLocals and maxStack, so we don't have to
+		ClassVisitor cv = new RoboAdapter(cw, teamPackageName, debugMethodsEnabled, silenced, checkDisallowed, robotStatics());
+		// MeteringOptimizer needs the frames expanded
+		cr.accept(cv, fastMetering ? ClassReader.EXPAND_FRAMES : 0);		//passing false lets debug info be included in the transformation, so players get line numbers in stack traces
+		byte[] bytes = cw.toByteArray();
+		return bytes;
+	}
+
+	// reads the original class file of className, the same way ClassReader(String) would
+	private static byte[] readClass(String className) throws InstrumentationException {
+		if(className.startsWith("instrumented/"))
+			className = className.substring(13);
 		try{
-			if(className.startsWith("instrumented/"))
-				cr = new ClassReader(className.substring(13));
-			else
-				cr = new ClassReader(className);
+			InputStream in = ClassLoader.getSystemResourceAsStream(className + ".class");
+			if(in == null)
+				throw new IOException("Class not found");
+			return InstrumentedClassCache.readFully(in);
 		}catch(IOException ioe) {
 			ErrorReporter.report("Can't find the class \"" + className + "\"", "Make sure the team name is spelled correctly.\nMake sure the .class files are in the right directory (teams/teamname/*.class)");
 			throw new InstrumentationException();
 		}
-		ClassWriter cw = new ClassWriter(COMPUTE_MAXS); // passing true sets maxLocals and maxStack, so we don't have to
-		ClassVisitor cv = new RoboAdapter(cw, teamPackageName, debugMethodsEnabled, silenced, checkDisallowed);
-		cr.accept(cv, 0);		//passing false lets debug info be included in the transformation, so players get line numbers in stack traces
-		byte[] bytes = cw.toByteArray();
-		return bytes;
+	}
+
+	/**
+	 * Returns the RobotStatics that keeps the static fields of the classes
+	 * this loader instruments, or null if the classes keep their own.
+	 */
+	protected RobotStatics robotStatics() {
+		return null;
 	}
 
 	public abstract Class<?> saveAndDefineClass(String name, byte [] classBytes);
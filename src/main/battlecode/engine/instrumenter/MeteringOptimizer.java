@@ -0,0 +1,293 @@
+package battlecode.engine.instrumenter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import org.objectweb.asm.tree.*;
+import static org.objectweb.asm.tree.AbstractInsnNode.*;
+
+/**
+ * Rewrites the bytecode charges that RoboMethodAdapter puts at the end of
+ * every basic block, so that most of them don't call RobotMonitor.
+ * <p>
+ * A charge only has to reach the RobotMonitor before something that can
+ * see the robot's bytecode count or end its turn (a method call or a
+ * return), and before a jump backwards, so that every loop iteration is
+ * charged.  A charge before a label or a forward jump just adds the cost
+ * of its block to a local variable, and the next charge that calls the
+ * RobotMonitor adds the variable.  This merges the charges of a chain of
+ * blocks, such as the branches of an if statement, into one call.  If an
+ * exception leaves the method, a handler around the whole method charges
+ * what is in the variable, so every path through the method is charged the
+ * same number of bytecodes as before.
+ * <p>
+ * Constructors and debug methods are left as they are.  The class must be
+ * read with ClassReader.EXPAND_FRAMES, since the local variable is added
+ * to the stack map frames.
+ */
+class MeteringOptimizer extends MethodNode implements Opcodes {
+
+	private static final String MONITOR = "battlecode/engine/instrumenter/RobotMonitor";
+
+	private final MethodVisitor methodWriter;
+
+	// the class of the method, as it is written
+	private final String owner;
+
+	public MeteringOptimizer(final MethodVisitor mv, final String owner, final int access, final String name, final String desc, final String signature, final String[] exceptions) {
+		super(access, name, desc, signature, exceptions);
+		methodWriter = mv;
+		this.owner = owner;
+	}
+
+	public void visitEnd() {
+		if(!name.equals("<init>") && !(name.startsWith("debug_") && desc.endsWith("V")))
+			optimize();
+		accept(methodWriter);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void optimize() {
+		List<AbstractInsnNode> deferred = new ArrayList<AbstractInsnNode>();
+		List<AbstractInsnNode> charged = new ArrayList<AbstractInsnNode>();
+		for(AbstractInsnNode n = instructions.getFirst(); n != null; n = n.getNext()) {
+			if(isCharge(n)) {
+				if(chargeAmount(n) > 0 && canDefer(n))
+					deferred.add(n);
+				else
+					charged.add(n);
+			}
+		}
+		if(deferred.isEmpty())
+			return;
+
+		int pending = firstFreeLocal();
+
+		for(AbstractInsnNode n : deferred) {
+			int amount = chargeAmount(n);
+			AbstractInsnNode amountNode = n.getPrevious();
+			if(amount <= Short.MAX_VALUE)
+				instructions.insert(n, new IincInsnNode(pending, amount));
+			else {
+				InsnList add = new InsnList();
+				add.add(new VarInsnNode(ILOAD, pending));
+				add.add(new LdcInsnNode(Integer.valueOf(amount)));
+				add.add(new InsnNode(IADD));
+				add.add(new VarInsnNode(ISTORE, pending));
+				instructions.insert(n, add);
+			}
+			instructions.remove(amountNode);
+			instructions.remove(n);
+		}
+
+		for(AbstractInsnNode n : charged) {
+			InsnList add = new InsnList();
+			add.add(new VarInsnNode(ILOAD, pending));
+			add.add(new InsnNode(IADD));
+			instructions.insertBefore(n, add);
+			InsnList reset = new InsnList();
+			reset.add(new InsnNode(ICONST_0));
+			reset.add(new VarInsnNode(ISTORE, pending));
+			instructions.insert(n, reset);
+		}
+
+		// the first frame of a method with frames is the implicit frame at
+		// the start of the method, which the variable isn't part of yet.
+		// Every other frame is, even one at the first instruction, since the
+		// variable is set before it.  ClassReader leaves out the implicit
+		// frame of a method without frames, but the writer still takes the
+		// first frame to be the implicit one, so the frames added below need
+		// one in front of them.
+		boolean implicit = true;
+		if(!hasFrames())
+			instructions.insert(implicitFrame());
+		for(AbstractInsnNode n = instructions.getFirst(); n != null; n = n.getNext()) {
+			if(n.getType() != FRAME)
+				continue;
+			if(implicit) {
+				implicit = false;
+				continue;
+			}
+			FrameNode f = (FrameNode)n;
+			f.local = new ArrayList<Object>(f.local);
+			setLocal(f.local, pending, INTEGER);
+		}
+
+		LabelNode startLabel = new LabelNode(new Label());
+		LabelNode endLabel = new LabelNode(new Label());
+		LabelNode robotDeathLabel = new LabelNode(new Label());
+		LabelNode chargeLabel = new LabelNode(new Label());
+
+		InsnList start = new InsnList();
+		start.add(new InsnNode(ICONST_0));
+		start.add(new VarInsnNode(ISTORE, pending));
+		start.add(startLabel);
+		instructions.insert(start);
+
+		instructions.add(endLabel);
+		// don't charge a robot that is being killed
+		instructions.add(robotDeathLabel);
+		instructions.add(new FrameNode(F_NEW, 0, new Object[0], 1, new Object[] { "java/lang/VirtualMachineError" }));
+		instructions.add(new InsnNode(ATHROW));
+		instructions.add(chargeLabel);
+		List<Object> locals = new ArrayList<Object>();
+		setLocal(locals, pending, INTEGER);
+		instructions.add(new FrameNode(F_NEW, locals.size(), locals.toArray(), 1, new Object[] { "java/lang/Throwable" }));
+		instructions.add(new VarInsnNode(ILOAD, pending));
+		instructions.add(new MethodInsnNode(INVOKESTATIC, MONITOR, "incrementBytecodes", "(I)V"));
+		instructions.add(new InsnNode(ATHROW));
+
+		// these come after the method's own handlers, so they only see
+		// exceptions that leave the method
+		tryCatchBlocks.add(new TryCatchBlockNode(startLabel, endLabel, robotDeathLabel, "java/lang/VirtualMachineError"));
+		tryCatchBlocks.add(new TryCatchBlockNode(startLabel, endLabel, chargeLabel, null));
+	}
+
+	private boolean hasFrames() {
+		for(AbstractInsnNode n = instructions.getFirst(); n != null; n = n.getNext()) {
+			if(n.getType() == FRAME)
+				return true;
+		}
+		return false;
+	}
+
+	// the frame at the start of the method, which its arguments give
+	private FrameNode implicitFrame() {
+		List<Object> locals = new ArrayList<Object>();
+		if((access & ACC_STATIC) == 0)
+			locals.add(owner);
+		for(Type t : Type.getArgumentTypes(desc)) {
+			switch(t.getSort()) {
+			case Type.BOOLEAN:
+			case Type.CHAR:
+			case Type.BYTE:
+			case Type.SHORT:
+			case Type.INT:
+				locals.add(INTEGER);
+				break;
+			case Type.FLOAT:
+				locals.add(FLOAT);
+				break;
+			case Type.LONG:
+				locals.add(LONG);
+				break;
+			case Type.DOUBLE:
+				locals.add(DOUBLE);
+				break;
+			case Type.ARRAY:
+				locals.add(t.getDescriptor());
+				break;
+			default:
+				locals.add(t.getInternalName());
+			}
+		}
+		return new FrameNode(F_NEW, locals.size(), locals.toArray(), 0, new Object[0]);
+	}
+
+	private static boolean isCharge(AbstractInsnNode n) {
+		if(n.getOpcode() != INVOKESTATIC)
+			return false;
+		MethodInsnNode m = (MethodInsnNode)n;
+		return m.owner.equals(MONITOR) && m.name.equals("incrementBytecodes");
+	}
+
+	// the constant that RoboMethodAdapter pushes for a charge, or 0 if it is
+	// something else
+	private static int chargeAmount(AbstractInsnNode n) {
+		AbstractInsnNode prev = n.getPrevious();
+		if(prev == null)
+			return 0;
+		int op = prev.getOpcode();
+		if(op >= ICONST_1 && op <= ICONST_5)
+			return op - ICONST_0;
+		if(op == LDC && ((LdcInsnNode)prev).cst instanceof Integer)
+			return ((Integer)((LdcInsnNode)prev).cst).intValue();
+		return 0;
+	}
+
+	// whether the charge n is followed by a label or a forward jump
+	private boolean canDefer(AbstractInsnNode n) {
+		AbstractInsnNode next = n.getNext();
+		while(next != null && (next.getType() == LINE || next.getType() == FRAME))
+			next = next.getNext();
+		if(next == null)
+			return false;
+		switch(next.getType()) {
+		case LABEL:
+			return true;
+		case JUMP_INSN:
+			return next.getOpcode() != JSR && isForward(next, ((JumpInsnNode)next).label);
+		case TABLESWITCH_INSN:
+			TableSwitchInsnNode ts = (TableSwitchInsnNode)next;
+			return isForward(next, ts.dflt) && allForward(next, ts.labels);
+		case LOOKUPSWITCH_INSN:
+			LookupSwitchInsnNode ls = (LookupSwitchInsnNode)next;
+			return isForward(next, ls.dflt) && allForward(next, ls.labels);
+		default:
+			return false;
+		}
+	}
+
+	private boolean isForward(AbstractInsnNode jump, LabelNode target) {
+		return instructions.indexOf(target) > instructions.indexOf(jump);
+	}
+
+	private boolean allForward(AbstractInsnNode jump, List<?> targets) {
+		for(Object o : targets) {
+			if(!isForward(jump, (LabelNode)o))
+				return false;
+		}
+		return true;
+	}
+
+	// the first local variable that the method doesn't use
+	private int firstFreeLocal() {
+		int max = (Type.getArgumentsAndReturnSizes(desc) >> 2) - ((access & ACC_STATIC) != 0 ? 1 : 0);
+		for(AbstractInsnNode n = instructions.getFirst(); n != null; n = n.getNext()) {
+			switch(n.getType()) {
+			case VAR_INSN:
+				int op = n.getOpcode();
+				int size = (op == LLOAD || op == DLOAD || op == LSTORE || op == DSTORE) ? 2 : 1;
+				max = Math.max(max, ((VarInsnNode)n).var + size);
+				break;
+			case IINC_INSN:
+				max = Math.max(max, ((IincInsnNode)n).var + 1);
+				break;
+			case FRAME:
+				List<?> local = ((FrameNode)n).local;
+				if(local != null)
+					max = Math.max(max, slots(local, local.size()));
+				break;
+			}
+		}
+		for(Object o : localVariables) {
+			LocalVariableNode v = (LocalVariableNode)o;
+			max = Math.max(max, v.index + Type.getType(v.desc).getSize());
+		}
+		return max;
+	}
+
+	// the number of local variable slots that the first n types of a frame take
+	private static int slots(List<?> local, int n) {
+		int slots = 0;
+		for(int i = 0; i < n; i++) {
+			Object t = local.get(i);
+			slots += (t == LONG || t == DOUBLE) ? 2 : 1;
+		}
+		return slots;
+	}
+
+	// sets the type of local variable var in a frame, which doesn't have
+	// any variables from var on
+	@SuppressWarnings("unchecked")
+	private static void setLocal(List local, int var, Object type) {
+		for(int slots = slots(local, local.size()); slots < var; slots++)
+			local.add(TOP);
+		local.add(type);
+	}
+}
@@ -0,0 +1,330 @@
+package battlecode.engine.instrumenter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.zip.ZipFile;
+
+import battlecode.engine.ErrorReporter;
+
+import org.objectweb.asm.ClassReader;
+import static org.objectweb.asm.ClassReader.*;
+
+/**
+ * Reads and writes the method costs that MethodCostUtil looks up.
+ * <p>
+ * The costs come from MethodCosts.txt in idata, one method per line.  A
+ * call is charged the cost of the method in its class or, failing that, in
+ * one of the class's supertypes.  Finding the supertypes of a class means
+ * reading its class file and the class files of all its supertypes, so
+ * MethodCostUtil resolves each class once, into a map from method name to
+ * cost.
+ * <p>
+ * The costs can also be compiled to idata.mct, a binary file that holds
+ * the resolved costs of the library classes that players can use, so that
+ * those classes are never read.  The file is memory-mapped to load it.  Its
+ * header records the JVM it was compiled on, whose class files give the
+ * supertypes, and a digest of MethodCosts.txt; it is only used in place of
+ * MethodCosts.txt when both still match.  Running this class compiles idata
+ * in the current directory; see the compile-method-costs target in
+ * build.xml.
+ */
+class MethodCostTable {
+
+	/** The compiled costs of idata. */
+	static final String FILE = "idata.mct";
+	private static final int MAGIC = 0x424d4354;
+	private static final int VERSION = 2;
+
+	private static final int ENDS_BLOCK = 1;
+	// set if the cost is in MethodCosts.txt, rather than inherited
+	private static final int DECLARED = 2;
+
+	private MethodCostTable() {}
+
+	/**
+	 * Parses MethodCosts.txt into a map from class to method name to cost.
+	 */
+	static Map<String, Map<String, MethodCostUtil.MethodData>> parse(InputStream in) throws IOException {
+		Map<String, Map<String, MethodCostUtil.MethodData>> costs = new HashMap<String, Map<String, MethodCostUtil.MethodData>>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+		String line;
+		while((line = reader.readLine()) != null) {
+			StringTokenizer st = new StringTokenizer(line);
+			if(st.countTokens() != 3)
+				throw new IOException("Malformed MethodCosts.txt file");
+			String fullName = st.nextToken();
+			int slash = fullName.lastIndexOf('/');
+			if(slash < 0)
+				throw new IOException("Malformed MethodCosts.txt file");
+			methods(costs, fullName.substring(0, slash)).put(fullName.substring(slash + 1),
+				new MethodCostUtil.MethodData(Integer.parseInt(st.nextToken()), Boolean.parseBoolean(st.nextToken())));
+		}
+		return costs;
+	}
+
+	/**
+	 * Returns the costs of the methods of a class, including the ones it
+	 * inherits, given the costs in MethodCosts.txt.
+	 */
+	static Map<String, MethodCostUtil.MethodData> resolve(String className, Map<String, Map<String, MethodCostUtil.MethodData>> costs) {
+		Map<String, MethodCostUtil.MethodData> resolved = new HashMap<String, MethodCostUtil.MethodData>();
+		Map<String, MethodCostUtil.MethodData> declared = costs.get(className);
+		ClassReader cr = null;
+		try {
+			cr = new ClassReader(className);
+		} catch(IOException ioe) {
+			if(declared == null)
+				ErrorReporter.report("Can't find the class \"" + className + "\", and this wasn't caught until the MethodData stage.", true);
+		}
+		if(cr != null) {
+			InterfaceReader ir = new InterfaceReader();
+			cr.accept(ir, SKIP_DEBUG);
+			String[] supertypes = ir.getInterfaces();
+			// the first supertype with a cost for a method wins
+			for(int i = supertypes.length - 1; i >= 0; i--) {
+				Map<String, MethodCostUtil.MethodData> inherited = costs.get(supertypes[i]);
+				if(inherited != null)
+					resolved.putAll(inherited);
+			}
+		}
+		if(declared != null)
+			resolved.putAll(declared);
+		return resolved;
+	}
+
+	/**
+	 * Returns the contents of MethodCosts.txt in idata.
+	 */
+	static byte[] readSource() throws IOException {
+		ZipFile zfile = new ZipFile("idata");
+		try {
+			InputStream in = zfile.getInputStream(zfile.getEntry("MethodCosts.txt"));
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buf = new byte[8192];
+			int n;
+			while((n = in.read(buf)) > 0)
+				bytes.write(buf, 0, n);
+			return bytes.toByteArray();
+		} finally {
+			zfile.close();
+		}
+	}
+
+	static byte[] digest(byte[] source) {
+		try {
+			return MessageDigest.getInstance("SHA-1").digest(source);
+		} catch(NoSuchAlgorithmException e) {
+			// every JVM has SHA-1
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Returns whether the compiled costs should be used instead of idata:
+	 * whether they were compiled on this JVM from the MethodCosts.txt that
+	 * is in idata now.
+	 */
+	static boolean isCurrent() {
+		File table = new File(FILE);
+		if(!table.isFile())
+			return false;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(table)));
+			try {
+				if(in.readInt() != MAGIC || in.readInt() != VERSION)
+					return false;
+				String javaVersion = readString(in), javaHome = readString(in);
+				byte[] sourceDigest = new byte[in.readShort()];
+				in.readFully(sourceDigest);
+				if(!javaVersion.equals(System.getProperty("java.version")) || !javaHome.equals(System.getProperty("java.home"))) {
+					System.out.println("[Engine] " + FILE + " was compiled on another JVM, using idata");
+					return false;
+				}
+				if(!Arrays.equals(sourceDigest, digest(readSource()))) {
+					System.out.println("[Engine] " + FILE + " was compiled from other method costs, using idata");
+					return false;
+				}
+				return true;
+			} finally {
+				in.close();
+			}
+		} catch(IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Reads the compiled costs into <tt>costs</tt>, the costs that
+	 * MethodCosts.txt gives, and <tt>resolved</tt>, the costs of each class
+	 * including the ones it inherits.
+	 */
+	static void read(Map<String, Map<String, MethodCostUtil.MethodData>> costs, Map<String, Map<String, MethodCostUtil.MethodData>> resolved) throws IOException {
+		FileInputStream in = new FileInputStream(FILE);
+		try {
+			FileChannel channel = in.getChannel();
+			ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if(buf.getInt() != MAGIC || buf.getInt() != VERSION)
+				throw new IOException(FILE + " is not a method cost table of this version");
+			// the header was checked by isCurrent
+			readString(buf);
+			readString(buf);
+			buf.get(new byte[buf.getShort()]);
+			String[] names = new String[buf.getInt()];
+			for(int i = 0; i < names.length; i++)
+				names[i] = readString(buf);
+			for(int n = buf.getInt(); n > 0; n--) {
+				String className = readString(buf);
+				Map<String, MethodCostUtil.MethodData> methods = new HashMap<String, MethodCostUtil.MethodData>();
+				for(int m = buf.getShort(); m > 0; m--) {
+					String name = names[buf.getInt()];
+					int cost = buf.getInt();
+					int flags = buf.get();
+					MethodCostUtil.MethodData data = new MethodCostUtil.MethodData(cost, (flags & ENDS_BLOCK) != 0);
+					methods.put(name, data);
+					if((flags & DECLARED) != 0)
+						methods(costs, className).put(name, data);
+				}
+				resolved.put(className, methods);
+			}
+		} catch(RuntimeException e) {
+			// a truncated file
+			IOException ioe = new IOException(FILE + " is corrupt: " + e);
+			ioe.initCause(e);
+			throw ioe;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes the costs of the given classes to the compiled cost table,
+	 * which was resolved on this JVM from the MethodCosts.txt with the
+	 * given digest.
+	 */
+	static void write(File file, byte[] sourceDigest, Map<String, Map<String, MethodCostUtil.MethodData>> costs, Map<String, Map<String, MethodCostUtil.MethodData>> resolved) throws IOException {
+		List<String> names = new ArrayList<String>();
+		Map<String, Integer> nameIndex = new HashMap<String, Integer>();
+		for(Map<String, MethodCostUtil.MethodData> methods : resolved.values()) {
+			for(String name : methods.keySet()) {
+				if(!nameIndex.containsKey(name)) {
+					nameIndex.put(name, names.size());
+					names.add(name);
+				}
+			}
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			writeString(out, System.getProperty("java.version"));
+			writeString(out, System.getProperty("java.home"));
+			out.writeShort(sourceDigest.length);
+			out.write(sourceDigest);
+			out.writeInt(names.size());
+			for(String name : names)
+				writeString(out, name);
+			out.writeInt(resolved.size());
+			for(Map.Entry<String, Map<String, MethodCostUtil.MethodData>> c : resolved.entrySet()) {
+				writeString(out, c.getKey());
+				Map<String, MethodCostUtil.MethodData> declared = costs.get(c.getKey());
+				out.writeShort(c.getValue().size());
+				for(Map.Entry<String, MethodCostUtil.MethodData> m : c.getValue().entrySet()) {
+					MethodCostUtil.MethodData data = m.getValue();
+					out.writeInt(nameIndex.get(m.getKey()));
+					out.writeInt(data.cost);
+					int flags = data.shouldEndRound ? ENDS_BLOCK : 0;
+					if(declared != null && declared.get(m.getKey()) == data)
+						flags |= DECLARED;
+					out.writeByte(flags);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static Map<String, MethodCostUtil.MethodData> methods(Map<String, Map<String, MethodCostUtil.MethodData>> costs, String className) {
+		Map<String, MethodCostUtil.MethodData> methods = costs.get(className);
+		if(methods == null) {
+			methods = new HashMap<String, MethodCostUtil.MethodData>();
+			costs.put(className, methods);
+		}
+		return methods;
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes("UTF-8");
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readShort()];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	private static String readString(ByteBuffer buf) throws IOException {
+		byte[] bytes = new byte[buf.getShort()];
+		buf.get(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	/**
+	 * Compiles the costs in idata, resolved for the classes in MethodCosts.txt
+	 * and the library classes that players may use.
+	 */
+	public static void main(String[] args) throws IOException {
+		byte[] source = readSource();
+		Map<String, Map<String, MethodCostUtil.MethodData>> costs = parse(new ByteArrayInputStream(source));
+
+		TreeSet<String> classes = new TreeSet<String>(costs.keySet());
+		URL url = ClassLoader.getSystemResource("java/lang/Object.class");
+		if(url != null && url.getProtocol().equals("jar")) {
+			Enumeration<JarEntry> entries = ((JarURLConnection)url.openConnection()).getJarFile().entries();
+			while(entries.hasMoreElements()) {
+				String name = entries.nextElement().getName();
+				if(!name.endsWith(".class"))
+					continue;
+				name = name.substring(0, name.length() - 6);
+				if(ClassReferenceUtil.isAllowed(name))
+					classes.add(name);
+			}
+		}
+		else
+			System.err.println("can't list the library classes, so only the classes in MethodCosts.txt are compiled");
+
+		Map<String, Map<String, MethodCostUtil.MethodData>> resolved = new HashMap<String, Map<String, MethodCostUtil.MethodData>>();
+		for(String c : classes)
+			resolved.put(c, resolve(c, costs));
+		write(new File(FILE), digest(source), costs, resolved);
+		System.out.println("compiled the costs of " + resolved.size() + " classes to " + FILE);
+	}
+
+}
@@ -2,19 +2,14 @@ package battlecode.engine.instrumenter;
 
 import java.util.Map;
 import java.util.HashMap;
-import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipEntry;
 
-import java.io.InputStreamReader;
-import java.io.BufferedReader;
 import java.io.IOException;
 
 import battlecode.engine.ErrorReporter;
 
-import org.objectweb.asm.*;
-import static org.objectweb.asm.ClassReader.*;
-
 /**
  * MethodCostUtil is a singleton used for looking up MethodData associated with some methods.
  * <p>
@@ -25,11 +20,11 @@ public class MethodCostUtil {
 	
 	private MethodCostUtil() {}
 
-	/** This is a map from method names (in the format 'ClassName/methodName'), to the MethodData associated with each method. */
-	private final static Map<String, MethodData> methodCosts;
+	/** This is a map from binary class names, to the names of the methods in MethodCosts.txt, to the MethodData associated with each method. */
+	private final static Map<String, Map<String, MethodData>> methodCosts;
 		
-	/** This is a map from binary class names, to all the classes/interfaces that the class transitively implements/extends. */
-	private final static Map<String, String[]> interfacesMap;
+	/** This is a map from binary class names, to the names of the methods of the class, including inherited ones, to their MethodData.  Filled in lazily for classes that weren't compiled to MethodCostTable.FILE, possibly by several matches at once. */
+	private final static ConcurrentMap<String, Map<String, MethodData>> resolvedCosts;
 
 	/**
 	 * A struct that stores data about a method -- what its lookup bytecode cost is, and whether it should end the basic block or not.
@@ -44,41 +39,53 @@ public class MethodCostUtil {
 		}
 	}
 	
-	// static initializer loads the MethodCosts file from idata, and stores it in the methodCosts field
-	// also initializes interfacesMap
+	// static initializer loads the compiled method costs if they are up to date,
+	// and otherwise the MethodCosts file from idata, and stores them in the methodCosts field
+	// also initializes resolvedCosts
 	static {
-		BufferedReader reader;
-		String line;
 		ZipFile zfile;
-		
-		// load our zip file
-		try{
-			zfile = new ZipFile("idata");
-		} catch(Exception e) {
-			ErrorReporter.report(e, "Check that the 'idata' file is in its proper place");
-			throw new InstrumentationException();
+
+		Map<String, Map<String, MethodData>> costs = new HashMap<String, Map<String, MethodData>>();
+		resolvedCosts = new ConcurrentHashMap<String, Map<String, MethodData>>();
+		boolean compiled = false;
+		if(MethodCostTable.isCurrent()) {
+			try {
+				MethodCostTable.read(costs, resolvedCosts);
+				compiled = true;
+			} catch(IOException e) {
+				System.out.println("[Engine] " + e.getMessage() + ", using idata");
+				costs.clear();
+				resolvedCosts.clear();
+			}
 		}
-					
-		// load method costs
-		try{
-			methodCosts = new HashMap<String, MethodData>();
-			reader = new BufferedReader(new InputStreamReader(zfile.getInputStream(zfile.getEntry("MethodCosts.txt"))));
-			while((line = reader.readLine()) != null) {
-				StringTokenizer st = new StringTokenizer(line);
-				if(st.countTokens() != 3)
-					throw new RuntimeException("Malformed MethodCosts.txt file");
-				methodCosts.put(st.nextToken(), new MethodData(Integer.parseInt(st.nextToken()), Boolean.parseBoolean(st.nextToken())));
+
+		if(!compiled) {
+			// load our zip file
+			try{
+				zfile = new ZipFile("idata");
+			} catch(Exception e) {
+				ErrorReporter.report(e, "Check that the 'idata' file is in its proper place");
+				throw new InstrumentationException();
+			}
+
+			// load method costs
+			try{
+				costs = MethodCostTable.parse(zfile.getInputStream(zfile.getEntry("MethodCosts.txt")));
+			} catch (Exception e) {
+				ErrorReporter.report("Error loading idata", "Check that the 'idata' file is not corrupted");
+				throw new InstrumentationException();
 			}
-		} catch (Exception e) {
-			ErrorReporter.report("Error loading idata", "Check that the 'idata' file is not corrupted");
-			throw new InstrumentationException();
 		}
-		
-		interfacesMap = new HashMap<String, String[]>();
+
+		methodCosts = costs;
 	}
 
 	public static MethodData getMethodDataRaw(String fullName) {
-		return methodCosts.get(fullName);
+		int slash = fullName.lastIndexOf('/');
+		if(slash < 0)
+			return null;
+		Map<String, MethodData> methods = methodCosts.get(fullName.substring(0, slash));
+		return methods == null ? null : methods.get(fullName.substring(slash + 1));
 	}
 	
 	/**
@@ -89,38 +96,13 @@ public class MethodCostUtil {
 	public static MethodData getMethodData(String className, String methodName) {
 		if(className.charAt(0) == '[')
 			return null;
-		String key = className + "/" + methodName;
 
-		if(methodCosts.containsKey(key))
-			return methodCosts.get(key);
-		
-		String[] interfaces = null;
-		if(interfacesMap.containsKey(className))
-			interfaces = interfacesMap.get(className);
-		else {
-			ClassReader cr;
-			try{
-				cr = new ClassReader(className);
-			}catch(IOException ioe) {
-				ErrorReporter.report("Can't find the class \"" + className + "\", and this wasn't caught until the MethodData stage.", true);
-				// this isn't all that bad an error, so don't throw an InstrumentationException
-				return null;
-			}
-			InterfaceReader ir = new InterfaceReader();
-			cr.accept(ir, SKIP_DEBUG);
-			interfaces = ir.getInterfaces();
-			interfacesMap.put(className, interfaces);
+		Map<String, MethodData> methods = resolvedCosts.get(className);
+		if(methods == null) {
+			methods = MethodCostTable.resolve(className, methodCosts);
+			resolvedCosts.putIfAbsent(className, methods);
 		}
-		
-		for(int i = 0; i < interfaces.length; i++) {
-			key = interfaces[i] + "/" + methodName;
-			if(methodCosts.containsKey(key))
-				return methodCosts.get(key);
-		}
-				
-		return null;
+		return methods.get(methodName);
 	}
 
-
-
 }
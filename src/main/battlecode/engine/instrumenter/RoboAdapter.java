@@ -18,6 +18,12 @@ public class RoboAdapter extends ClassAdapter implements Opcodes {
 	// don't check those.
 	private final boolean checkDisallowed;
 
+	// where the class's static fields go, or null if it keeps them
+	private final RobotStatics statics;
+	private boolean isolatesStatics;
+	private boolean hasIsolatedStatics;
+	private boolean isInterface;
+
 	/**
 	 * Creates a RoboAdapter to instrument a given class.
 	 * @param cv the ClassVisitor that should be used to read the class
@@ -26,11 +32,21 @@ public class RoboAdapter extends ClassAdapter implements Opcodes {
 	 * @param silenced whether System.out should be silenced for this class
 	 */
 	public RoboAdapter(final ClassVisitor cv, final String teamPackageName, final boolean debugMethodsEnabled, boolean silenced, boolean checkDisallowed) {
+		this(cv, teamPackageName, debugMethodsEnabled, silenced, checkDisallowed, null);
+	}
+
+	/**
+	 * Creates a RoboAdapter that also moves the class's static fields to a
+	 * holder with one instance per robot.
+	 * @param statics the RobotStatics of the team, or null to leave static fields alone
+	 */
+	RoboAdapter(final ClassVisitor cv, final String teamPackageName, final boolean debugMethodsEnabled, boolean silenced, boolean checkDisallowed, RobotStatics statics) {
         super(cv);
 		this.teamPackageName = teamPackageName;
 		this.debugMethodsEnabled = debugMethodsEnabled;
 		this.silenced = silenced;
 		this.checkDisallowed = checkDisallowed;
+		this.statics = statics;
     }
 
     /**
@@ -46,6 +62,8 @@ public class RoboAdapter extends ClassAdapter implements Opcodes {
         final String[] interfaces)
     {
         className =  ClassReferenceUtil.classReference(name,teamPackageName, silenced, checkDisallowed);
+		isolatesStatics = statics != null && statics.isolates(className, access);
+		isInterface = (access & ACC_INTERFACE) != 0;
 	    for(int i = 0; i < interfaces.length; i++) {
 		    interfaces[i] = ClassReferenceUtil.classReference(interfaces[i], teamPackageName, silenced, checkDisallowed);
 	    }
@@ -74,19 +92,34 @@ public class RoboAdapter extends ClassAdapter implements Opcodes {
 		// for performance reasons.
 		access&=~Opcodes.ACC_SYNCHRONIZED;
 
+		// The static initializer sets the robot's static fields, so the
+		// holder runs it for each robot.  An interface's is moved to the holder.
+		String newName = name;
+		if(hasIsolatedStatics && name.equals("<clinit>")) {
+			if(isInterface)
+				return null;
+			newName = RobotStatics.CLINIT;
+			access = ACC_STATIC | ACC_SYNTHETIC;
+		}
+
 		//System.out.println("sigm "+signature);
 	    if(exceptions != null) {
 		    for(int i = 0; i < exceptions.length; i++) {
 			    exceptions[i] = ClassReferenceUtil.classReference(exceptions[i], teamPackageName, silenced, checkDisallowed);
 		    }
 	    }
+		String newDesc = ClassReferenceUtil.methodDescReference(desc, teamPackageName, silenced, checkDisallowed);
         MethodVisitor mv = cv.visitMethod(access,
-                name,
-				ClassReferenceUtil.methodDescReference(desc, teamPackageName, silenced, checkDisallowed),
+                newName,
+				newDesc,
                 ClassReferenceUtil.methodSignatureReference(signature, teamPackageName, silenced, checkDisallowed),
                 exceptions);
+		if(mv == null)
+			return null;
+		if(InstrumentingClassLoader.fastMetering())
+			mv = new MeteringOptimizer(mv, className, access, name, newDesc, signature, exceptions);
 	    // create a new RoboMethodAdapter, and let it loose on this method
-        return mv == null ? null : new RoboMethodAdapter(mv, className, name, desc, teamPackageName, debugMethodsEnabled, silenced, checkDisallowed);
+        return new RoboMethodAdapter(mv, className, name, desc, teamPackageName, debugMethodsEnabled, silenced, checkDisallowed, statics);
 		//return mv == null ? null : new RoboMethodTree(mv, className, access, name, desc, signature, exceptions, teamPackageName, debugMethodsEnabled, silenced, checkDisallowed);
     }
     
@@ -99,6 +132,10 @@ public class RoboAdapter extends ClassAdapter implements Opcodes {
 	   // should never be accessed by more than one thread.
 	   if(checkDisallowed||(access&Opcodes.ACC_STATIC)==0)
 		   access&=~Opcodes.ACC_VOLATILE;
+	   if(isolatesStatics && RobotStatics.isolates(access, value)) {
+		   hasIsolatedStatics = true;
+		   return null;
+	   }
 	   FieldVisitor fv = cv.visitField(	access,
 										name,
 										ClassReferenceUtil.classDescReference(desc, teamPackageName, silenced, checkDisallowed),
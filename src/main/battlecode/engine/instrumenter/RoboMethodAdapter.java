@@ -33,6 +33,7 @@ public class RoboMethodAdapter extends MethodAdapter implements Opcodes {
 	private final boolean debugMethodsEnabled;
 	private final boolean silenced;
 	private final boolean checkDisallowed;
+	private final RobotStatics statics;	// where static fields go, or null if the class keeps them
 	private final String methodDesc;	// the description of this method, e.g., "()V"
 	private Label debugStartLabel;	// a Label that marks the top of the method, if the given method is a debug method
 	private boolean codeVisited = false;	// tells whether visitCode() has been called
@@ -87,6 +88,15 @@ public class RoboMethodAdapter extends MethodAdapter implements Opcodes {
 	 * @param silenced whether System.out should be silenced
 	 */
     public RoboMethodAdapter(final MethodVisitor mv, final String className, final String methodName, final String methodDesc, final String teamPackageName, final boolean debugMethodsEnabled, boolean silenced, boolean checkDisallowed) {
+		this(mv, className, methodName, methodDesc, teamPackageName, debugMethodsEnabled, silenced, checkDisallowed, null);
+	}
+
+	/**
+	 * Creates a new RoboMethodAdapter that also moves accesses to static
+	 * fields to the fields' holders.
+	 * @param statics the RobotStatics of the team, or null to leave static fields alone
+	 */
+    RoboMethodAdapter(final MethodVisitor mv, final String className, final String methodName, final String methodDesc, final String teamPackageName, final boolean debugMethodsEnabled, boolean silenced, boolean checkDisallowed, RobotStatics statics) {
         super(mv);
         this.methodName = methodName;
 		this.teamPackageName = teamPackageName;
@@ -94,6 +104,7 @@ public class RoboMethodAdapter extends MethodAdapter implements Opcodes {
 		this.debugMethodsEnabled = debugMethodsEnabled;
 		this.silenced = silenced;
 		this.checkDisallowed = checkDisallowed;
+		this.statics = statics;
 		this.methodDesc = methodDesc;
 		exceptionHandlers = new HashSet<Label>();
     }
@@ -109,6 +120,26 @@ public class RoboMethodAdapter extends MethodAdapter implements Opcodes {
 	
 	public void visitFieldInsn(int opcode, String owner, String name, String desc) {
 		incrementBytecodeCtr();
+		if(statics != null && (opcode == GETSTATIC || opcode == PUTSTATIC)) {
+			String holder = statics.holderFor(owner, name);
+			if(holder != null) {
+				desc = ClassReferenceUtil.classDescReference(desc, teamPackageName, silenced, checkDisallowed);
+				super.visitMethodInsn(INVOKESTATIC, holder, "get", "()L" + holder + ";");
+				if(opcode == GETSTATIC)
+					super.visitFieldInsn(GETFIELD, holder, name, desc);
+				else {
+					// put the holder under the value
+					if(Type.getType(desc).getSize() == 2) {
+						super.visitInsn(DUP_X2);
+						super.visitInsn(POP);
+					}
+					else
+						super.visitInsn(SWAP);
+					super.visitFieldInsn(PUTFIELD, holder, name, desc);
+				}
+				return;
+			}
+		}
 		super.visitFieldInsn(opcode, ClassReferenceUtil.classReference(owner, teamPackageName, silenced, checkDisallowed), name, ClassReferenceUtil.classDescReference(desc, teamPackageName, silenced, checkDisallowed));
 	}
 	
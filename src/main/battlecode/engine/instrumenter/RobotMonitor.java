@@ -1,8 +1,10 @@
 package battlecode.engine.instrumenter;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
 
+import battlecode.engine.EngineContext;
 import battlecode.engine.ErrorReporter;
 import battlecode.engine.scheduler.Scheduler;
 import battlecode.engine.GenericRobot;
@@ -13,47 +15,65 @@ import battlecode.engine.scheduler.Scheduler;
 import battlecode.server.Config;
 
 /**
- * RobotMonitor is a singleton class for monitoring robots' bytecode execution and stack size, and killing robots' threads.  Player's classes should
+ * RobotMonitor is a class for monitoring robots' bytecode execution and stack size, and killing robots' threads.  Player's classes should
  * be instrumented so that they make calls to RobotMonitor as appropriate.
+ * <p>
+ * The static methods act on the RobotMonitor of the EngineContext of the calling thread, so several matches can be monitored at once.
  * 
  * @author adamd
  */
 public class RobotMonitor {
 
-	private static int DEBUG_BYTECODES;
+	private int DEBUG_BYTECODES;
 		
-	private static final Set<Integer> robotsToKill = new HashSet<Integer>();
+	// the RobotData of each robot thread that hasn't been killed yet, so that killRobot can find it
+	private final Map<Integer, RobotData> robotsByID = new HashMap<Integer, RobotData>();
 		
 	// the RobotData for the currently running robot
-	public volatile static RobotData currentRobotData;
+	private volatile RobotData currentRobotData;
 	
-	private static boolean [] silenced = new boolean [2];
+	private boolean [] silenced = new boolean [2];
+
+	// the stream of the robots that aren't silenced; it keeps track of the
+	// current robot, so each match has its own
+	private final RoboPrintStream printStream = new RoboPrintStream();
 	
-	private static int debugLevel;
-	private static int bytecodeLimit;
-	private static int bytecodesLeft;
+	private int debugLevel;
+	private int bytecodeLimit;
+	private int bytecodesLeft;
 
-	private static GenericWorld myGameWorld = null;
+	private GenericWorld myGameWorld = null;
 
 
-	/** A "struct" that holds data about a robot's execution, e.g., bytecodes, stack size, etc. */
+	/**
+	 * A "struct" that holds data about a robot's execution, e.g., bytecodes, stack size, etc.
+	 * It also keeps the robot itself and its print stream once the robot has run, so that
+	 * switching to the robot doesn't have to look anything up.
+	 */
 	public static class RobotData {
 		public int bytecodesLeft;
 		public int debugLevel = 0;
 		public final int ID;
 		public boolean thrownRobotDeathException = false;
+		// set by killRobot; the robot's thread throws a RobotDeathException when it next runs
+		volatile boolean killed = false;
+		GenericRobot robot;
+		PrintStream out;
 		
 		public RobotData(int ID) {
 			this.ID = ID;
 		}
 	}
 	
-	// private constructor enforces the singleton pattern
-	private RobotMonitor() {
+	public RobotMonitor() {
 	}
 
-	private static void init() {
-		robotsToKill.clear();
+	private static RobotMonitor monitor() {
+		return EngineContext.current().getRobotMonitor();
+	}
+
+	private void init() {
+		robotsByID.clear();
 		Config options = Config.getGlobalConfig();
 		silenced[0] = options.getBoolean("bc.engine.silence-a");
 		silenced[1] = options.getBoolean("bc.engine.silence-b");
@@ -62,69 +82,109 @@ public class RobotMonitor {
 	
 	/** Resets the internal state of the RobotMonitor.  Should be called between games. */
 	public static void reset() {
-		init();
+		monitor().init();
 	}
 	
+	/**
+	 * Creates the RobotData for a new robot thread.
+	 */
+	public static RobotData newRobotData(int ID) {
+		RobotData data = new RobotData(ID);
+		if(ID>=0) {
+			RobotMonitor m = monitor();
+			synchronized(m.robotsByID) {
+				m.robotsByID.put(ID,data);
+			}
+		}
+		return data;
+	}
+
 	/**
 	 * Switches the currently active robot to the one referred to by the given RobotData.
+	 * This happens for every robot on every round, so it only uses the references kept in
+	 * the RobotData.
 	 */
 	public static void switchRunner(RobotData newData) {
+		RobotMonitor m = monitor();
 		
 		// switch RobotData to the new robot
-		currentRobotData = newData;
+		m.currentRobotData = newData;
 
-		if(robotsToKill.contains(newData.ID)) {
+		if(newData.killed) {
 			//System.out.println("Killing "+newData.ID);
 			throw new RobotDeathException();
 		}
 
 		if(newData.ID>=0) {
-			myGameWorld.beginningOfExecution(newData.ID);
-			GenericRobot robot = myGameWorld.getRobotByID(newData.ID);
-			bytecodeLimit = robot.getBytecodeLimit();
-			debugLevel = currentRobotData.debugLevel;
-			currentRobotData.bytecodesLeft += bytecodeLimit;
-			if(debugLevel == 0)
-				bytecodesLeft = currentRobotData.bytecodesLeft;
+			GenericRobot robot = newData.robot;
+			if(robot==null) {
+				// first turn of this robot
+				robot = newData.robot = m.myGameWorld.getRobotByID(newData.ID);
+				if(m.silenced[robot.getTeam().ordinal()])
+					newData.out = SilencedPrintStream.theInstance();
+				else
+					newData.out = m.printStream;
+			}
+			m.myGameWorld.beginningOfExecution(robot);
+			m.bytecodeLimit = robot.getBytecodeLimit();
+			m.debugLevel = newData.debugLevel;
+			newData.bytecodesLeft += m.bytecodeLimit;
+			if(m.debugLevel == 0)
+				m.bytecodesLeft = newData.bytecodesLeft;
 			else
-				bytecodesLeft = DEBUG_BYTECODES;
+				m.bytecodesLeft = m.DEBUG_BYTECODES;
 			
-			if(silenced[robot.getTeam().ordinal()]) {
-				SilencedPrintStream stream = SilencedPrintStream.theInstance();
-				battlecode.engine.instrumenter.lang.System.out = stream;
-				battlecode.engine.instrumenter.lang.System.err = stream;
-			}
-			else {
-				RoboPrintStream stream = RoboPrintStream.theInstance();
-				stream.changeRobot();
-				battlecode.engine.instrumenter.lang.System.out = stream;
-				battlecode.engine.instrumenter.lang.System.err = stream;
-			}
+			if(newData.out == m.printStream)
+				m.printStream.changeRobot();
 		}
 	}		
 	
 	public static GenericRobot getCurrentRobot() {
-		return myGameWorld.getRobotByID(currentRobotData.ID);
+		RobotMonitor m = monitor();
+		RobotData data = m.currentRobotData;
+		if(data.robot!=null)
+			return data.robot;
+		return m.myGameWorld.getRobotByID(data.ID);
+	}
+
+	/**
+	 * Returns the stream that System.out and System.err print to for the
+	 * currently active robot.
+	 */
+	public static PrintStream getCurrentPrintStream() {
+		RobotData data = monitor().currentRobotData;
+		if(data == null || data.out == null)
+			return SilencedPrintStream.theInstance();
+		return data.out;
+	}
+
+	/**
+	 * Returns the RobotData of the currently active robot.
+	 */
+	public static RobotData getCurrentRobotData() {
+		return monitor().currentRobotData;
 	}
 
 	/**
 	 * Increments the active robot's debug level.  Should be called at the beginning of any debug method.
 	 */
 	public static void incrementDebugLevel() {
-		if(debugLevel == 0) {
-			currentRobotData.bytecodesLeft = bytecodesLeft;
-			bytecodesLeft = DEBUG_BYTECODES;
+		RobotMonitor m = monitor();
+		if(m.debugLevel == 0) {
+			m.currentRobotData.bytecodesLeft = m.bytecodesLeft;
+			m.bytecodesLeft = m.DEBUG_BYTECODES;
 		}
-		debugLevel++;
+		m.debugLevel++;
 	}
 	
 	/**
 	 * Decrements the active robot's debug level.  Should be called at the end of any debug method.
 	 */
 	public static void decrementDebugLevel() {
-		debugLevel--;
-		if(debugLevel == 0) {
-			bytecodesLeft = currentRobotData.bytecodesLeft;
+		RobotMonitor m = monitor();
+		m.debugLevel--;
+		if(m.debugLevel == 0) {
+			m.bytecodesLeft = m.currentRobotData.bytecodesLeft;
 		}
 	}
 	
@@ -135,9 +195,10 @@ public class RobotMonitor {
 	 * @param numBytecodes the number of bytecodes the robot just executed
 	 */
 	public static void incrementBytecodes(int numBytecodes) {
-		bytecodesLeft -= numBytecodes;
+		RobotMonitor m = monitor();
+		m.bytecodesLeft -= numBytecodes;
 
-		while(bytecodesLeft <= 0) {
+		while(m.bytecodesLeft <= 0) {
 			endRunner();
 		}
 	}
@@ -146,12 +207,15 @@ public class RobotMonitor {
 	 * Ends the run of the currently active robot.
 	 */
 	public static void endRunner() {
-		myGameWorld.endOfExecution(currentRobotData.ID);
-		currentRobotData.debugLevel = debugLevel;
-		if(debugLevel==0)
-			currentRobotData.bytecodesLeft = bytecodesLeft;
-		if(currentRobotData.bytecodesLeft>0)
-			currentRobotData.bytecodesLeft=0;
+		RobotMonitor m = monitor();
+		RobotData data = m.currentRobotData;
+		if(data.robot!=null)
+			m.myGameWorld.endOfExecution(data.robot);
+		data.debugLevel = m.debugLevel;
+		if(m.debugLevel==0)
+			data.bytecodesLeft = m.bytecodesLeft;
+		if(data.bytecodesLeft>0)
+			data.bytecodesLeft=0;
 		Scheduler.passToNextThread();
 	}
 
@@ -161,25 +225,44 @@ public class RobotMonitor {
 	 * @param robotID the integer ID of the robot to kill
 	 */
 	public static void killRobot(int robotID) {
-		robotsToKill.add(robotID);
+		RobotMonitor m = monitor();
+		RobotData data;
+		synchronized(m.robotsByID) {
+			data = m.robotsByID.remove(robotID);
+		}
+		if(data!=null)
+			data.killed = true;
 	}
 	
+	/**
+	 * Kills every robot, as killRobot does.  Used to stop a match before it is over.
+	 */
+	public static void killAllRobots() {
+		RobotMonitor m = monitor();
+		synchronized(m.robotsByID) {
+			for(RobotData data : m.robotsByID.values())
+				data.killed = true;
+			m.robotsByID.clear();
+		}
+	}
+
 	/**
 	 * Returns the bytecode number that the active robot is currently on.  Note that this can be above bytecodeLimit in some cases.
 	 */
 	public static int getBytecodeNum() {
-		return bytecodeLimit - getBytecodesLeft();
+		return getBytecodeLimit() - getBytecodesLeft();
 	}
 
 	public static int getBytecodeLimit() {
-		return bytecodeLimit;
+		return monitor().bytecodeLimit;
 	}
 
 	public static int getBytecodesLeft() {
-		if(debugLevel == 0)
-			return bytecodesLeft;
+		RobotMonitor m = monitor();
+		if(m.debugLevel == 0)
+			return m.bytecodesLeft;
 		else
-			return currentRobotData.bytecodesLeft;
+			return m.currentRobotData.bytecodesLeft;
 	}
 
 	/**
@@ -188,29 +271,30 @@ public class RobotMonitor {
 	 */
 	public static int getBytecodesUsed() {
 		int num = getBytecodeNum();
-		return (num<=bytecodeLimit) ? num : bytecodeLimit;
+		int limit = getBytecodeLimit();
+		return (num<=limit) ? num : limit;
 	}
 
 	/**
 	 * Returns the percentage of this robot's maximum bytecodes that were used this round.
 	 */
 	public static double getBytecodesUsedPercent() {
-		return (double)getBytecodesUsed()/bytecodeLimit;
+		return (double)getBytecodesUsed()/getBytecodeLimit();
 	}
 	
 	/**
 	 * Notifies the RobotMonitor of what the current GameWorld is.  Should be called before the start of each game.
 	 */
 	public static void setGameWorld(GenericWorld gw) {
-		myGameWorld = gw;
+		monitor().myGameWorld = gw;
 	}
 	
 	public static boolean thrownRobotDeathException() {
-		return currentRobotData.thrownRobotDeathException;
+		return monitor().currentRobotData.thrownRobotDeathException;
 	}
 
 	public static void checkForRobotDeath() {
-		if(currentRobotData.thrownRobotDeathException)
+		if(monitor().currentRobotData.thrownRobotDeathException)
 			throw new RobotDeathException();
 	}
 }
@@ -0,0 +1,312 @@
+package battlecode.engine.instrumenter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import battlecode.engine.ErrorReporter;
+
+import org.objectweb.asm.*;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+import static org.objectweb.asm.ClassWriter.*;
+
+/**
+ * Gives each robot its own static fields when the robots of a team share
+ * their classes (see bc.engine.shared-classes).
+ * <p>
+ * The static fields of a class C that aren't compile-time constants are
+ * moved to instance fields of a generated class C$$Statics, which has one
+ * instance for each robot thread.  RoboMethodAdapter turns getstatic and
+ * putstatic of those fields into getfield and putfield on C$$Statics.get().
+ * C's static initializer is renamed $clinit$, and get() runs it the first
+ * time a robot uses one of C's static fields.  An interface can't have a
+ * $clinit$ method, so the static initializer of an interface is moved into
+ * C$$Statics instead.
+ * <p>
+ * Enums keep their static fields, because the JVM caches the constants of an
+ * enum in its Class, and valueOf and EnumMap would mix up the constants of
+ * different robots.  So the robots of a team can only share its classes if
+ * its enums have no state that a robot could change, which
+ * {@link #sharedEnumState} checks.
+ * <p>
+ * Rewriting a field access depends on the class that declares the field,
+ * so each team's loader has its own RobotStatics, which reads the class
+ * files that it needs once.
+ */
+final class RobotStatics implements Opcodes {
+
+	static final String SUFFIX = "$$Statics";
+
+	static final String CLINIT = "$clinit$";
+
+	private static final String[] NO_INTERFACES = new String[0];
+
+	private static class ClassInfo {
+		String superName;
+		String[] interfaces;
+		int access;
+		boolean hasClinit;
+		// the fields that are moved to the holder
+		final Map<String, FieldNode> isolated = new LinkedHashMap<String, FieldNode>();
+		// every field the class declares
+		final Set<String> declared = new HashSet<String>();
+	}
+
+	private final String teamPackageName;
+	private final boolean silenced;
+
+	// class name -> ClassInfo, or null if the class can't be read
+	private final Map<String, ClassInfo> classes = new HashMap<String, ClassInfo>();
+
+	public RobotStatics(String teamPackageName, boolean silenced) {
+		this.teamPackageName = teamPackageName;
+		this.silenced = silenced;
+	}
+
+	/**
+	 * Returns whether the static fields of a class with the given name and
+	 * access flags go in a holder.
+	 */
+	public boolean isolates(String className, int access) {
+		return (access & ACC_ENUM) == 0 &&
+			(className.startsWith(teamPackageName + "/") || className.startsWith("instrumented/"));
+	}
+
+	/**
+	 * Returns whether a field with the given access flags and constant value
+	 * goes in the holder of its class, if the class has one.
+	 */
+	public static boolean isolates(int access, Object value) {
+		if((access & ACC_STATIC) == 0)
+			return false;
+		// the JVM sets constants when it loads the class
+		return !((access & ACC_FINAL) != 0 && value != null);
+	}
+
+	/**
+	 * Returns the holder of the static field <tt>name</tt> referenced through
+	 * the class <tt>owner</tt>, or null if the field isn't moved to a holder.
+	 *
+	 * @param owner the class in a getstatic or putstatic, as it appears in the original class file
+	 */
+	public synchronized String holderFor(String owner, String name) {
+		String declaring = declaringClass(rename(owner), name);
+		if(declaring == null || !classInfo(declaring).isolated.containsKey(name))
+			return null;
+		return declaring + SUFFIX;
+	}
+
+	/**
+	 * Returns whether the given class is a holder made by RobotStatics.
+	 */
+	public static boolean isHolder(String className) {
+		return className.endsWith(SUFFIX);
+	}
+
+	/**
+	 * Generates the holder class with the given name.
+	 */
+	public synchronized byte[] holderClass(String holderName, final boolean debugMethodsEnabled) throws InstrumentationException {
+		final String className = holderName.substring(0, holderName.length() - SUFFIX.length());
+		ClassInfo info = classInfo(className);
+		if(info == null) {
+			ErrorReporter.report("Can't find the class \"" + className + "\"", "Make sure the .class files are in the right directory (teams/teamname/*.class)");
+			throw new InstrumentationException();
+		}
+		final boolean checkDisallowed = className.startsWith(teamPackageName + "/");
+		final boolean isInterface = (info.access & ACC_INTERFACE) != 0;
+
+		// version 49 so that the methods don't need stack map frames
+		final ClassWriter cw = new ClassWriter(COMPUTE_MAXS);
+		cw.visit(V1_5, ACC_PUBLIC | ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC, holderName, null, "java/lang/Object", null);
+		for(FieldNode f : info.isolated.values()) {
+			cw.visitField(ACC_PUBLIC, f.name,
+				ClassReferenceUtil.classDescReference(f.desc, teamPackageName, silenced, checkDisallowed),
+				ClassReferenceUtil.fieldSignatureReference(f.signature, teamPackageName, silenced, checkDisallowed),
+				null).visitEnd();
+		}
+		cw.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, "instances", "Ljava/lang/ThreadLocal;", null, null).visitEnd();
+
+		MethodVisitor mv = cw.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
+		mv.visitCode();
+		mv.visitTypeInsn(NEW, "java/lang/ThreadLocal");
+		mv.visitInsn(DUP);
+		mv.visitMethodInsn(INVOKESPECIAL, "java/lang/ThreadLocal", "<init>", "()V");
+		mv.visitFieldInsn(PUTSTATIC, holderName, "instances", "Ljava/lang/ThreadLocal;");
+		mv.visitInsn(RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		mv = cw.visitMethod(ACC_PRIVATE, "<init>", "()V", null, null);
+		mv.visitCode();
+		mv.visitVarInsn(ALOAD, 0);
+		mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+		mv.visitInsn(RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		// the holder is set before the static initializer runs, so that the
+		// initializer sees the fields it sets
+		mv = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, "get", "()L" + holderName + ";", null, null);
+		mv.visitCode();
+		Label create = new Label();
+		mv.visitFieldInsn(GETSTATIC, holderName, "instances", "Ljava/lang/ThreadLocal;");
+		mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/ThreadLocal", "get", "()Ljava/lang/Object;");
+		mv.visitInsn(DUP);
+		mv.visitJumpInsn(IFNULL, create);
+		mv.visitTypeInsn(CHECKCAST, holderName);
+		mv.visitInsn(ARETURN);
+		mv.visitLabel(create);
+		mv.visitInsn(POP);
+		mv.visitTypeInsn(NEW, holderName);
+		mv.visitInsn(DUP);
+		mv.visitMethodInsn(INVOKESPECIAL, holderName, "<init>", "()V");
+		mv.visitVarInsn(ASTORE, 0);
+		mv.visitFieldInsn(GETSTATIC, holderName, "instances", "Ljava/lang/ThreadLocal;");
+		mv.visitVarInsn(ALOAD, 0);
+		mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/ThreadLocal", "set", "(Ljava/lang/Object;)V");
+		if(info.hasClinit)
+			mv.visitMethodInsn(INVOKESTATIC, isInterface ? holderName : className, CLINIT, "()V");
+		mv.visitVarInsn(ALOAD, 0);
+		mv.visitInsn(ARETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		if(isInterface && info.hasClinit) {
+			// instrument the interface's static initializer into the holder
+			ClassReader cr = new ClassReader(readClass(className));
+			cr.accept(new ClassAdapter(new ClassWriter(0)) {
+				public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+					if(!name.equals("<clinit>"))
+						return null;
+					MethodVisitor mv = cw.visitMethod(ACC_STATIC | ACC_SYNTHETIC, CLINIT, desc, null, null);
+					return new RoboMethodAdapter(mv, className, name, desc, teamPackageName, debugMethodsEnabled, silenced, checkDisallowed, RobotStatics.this);
+				}
+			}, ClassReader.SKIP_FRAMES);
+		}
+
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	// the class that declares the field name, following the JVM's field
+	// resolution, or null if it isn't a class that we read
+	private String declaringClass(String className, String name) {
+		ClassInfo info = classInfo(className);
+		if(info == null)
+			return null;
+		if(info.declared.contains(name))
+			return className;
+		for(String i : info.interfaces) {
+			String declaring = declaringClass(i, name);
+			if(declaring != null)
+				return declaring;
+		}
+		if(info.superName != null)
+			return declaringClass(info.superName, name);
+		return null;
+	}
+
+	// reads the fields of a class that may have a holder
+	@SuppressWarnings("unchecked")
+	private ClassInfo classInfo(String className) {
+		if(classes.containsKey(className))
+			return classes.get(className);
+		ClassInfo info = null;
+		if(className.startsWith(teamPackageName + "/") || className.startsWith("instrumented/")) {
+			byte[] classBytes = readClass(className);
+			if(classBytes != null) {
+				ClassNode cn = new ClassNode();
+				new ClassReader(classBytes).accept(cn, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+				info = new ClassInfo();
+				info.access = cn.access;
+				info.superName = rename(cn.superName);
+				info.interfaces = NO_INTERFACES;
+				if(cn.interfaces != null) {
+					info.interfaces = new String[cn.interfaces.size()];
+					for(int i = 0; i < info.interfaces.length; i++)
+						info.interfaces[i] = rename((String)cn.interfaces.get(i));
+				}
+				boolean isolates = isolates(className, cn.access);
+				for(FieldNode f : (Iterable<FieldNode>)cn.fields) {
+					info.declared.add(f.name);
+					if(isolates && isolates(f.access, f.value))
+						info.isolated.put(f.name, f);
+				}
+				for(MethodNode m : (Iterable<MethodNode>)cn.methods) {
+					if(m.name.equals("<clinit>"))
+						info.hasClinit = true;
+				}
+			}
+		}
+		classes.put(className, info);
+		return info;
+	}
+
+	private String rename(String className) {
+		if(className == null)
+			return null;
+		return ClassReferenceUtil.classReference(className, teamPackageName, silenced, false);
+	}
+
+	// the original class file of a class, or null if there isn't one
+	/**
+	 * Returns the name of an enum of the given team that robots sharing its
+	 * classes could use to talk to each other, or null if there isn't one.
+	 * That is an enum with a static field other than its constants, $VALUES
+	 * and compile-time constants, or with an instance field that isn't final
+	 * or whose type is not a primitive, String or one of the team's enums.
+	 */
+	@SuppressWarnings("unchecked")
+	public static String sharedEnumState(String teamPackageName) {
+		Map<String, ClassNode> enums = new LinkedHashMap<String, ClassNode>();
+		for(String name : EagerInstrumenter.findClasses(teamPackageName)) {
+			byte[] classBytes = readClass(name);
+			if(classBytes == null)
+				continue;
+			ClassNode cn = new ClassNode();
+			new ClassReader(classBytes).accept(cn, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+			if((cn.access & ACC_ENUM) != 0)
+				enums.put(cn.name, cn);
+		}
+		for(ClassNode cn : enums.values()) {
+			for(FieldNode f : (Iterable<FieldNode>)cn.fields) {
+				if((f.access & ACC_STATIC) != 0) {
+					if((f.access & ACC_ENUM) != 0 || !isolates(f.access, f.value))
+						continue;
+					if((f.access & (ACC_SYNTHETIC | ACC_FINAL)) == (ACC_SYNTHETIC | ACC_FINAL) && f.name.equals("$VALUES"))
+						continue;
+				}
+				else if((f.access & ACC_FINAL) != 0) {
+					Type t = Type.getType(f.desc);
+					if(t.getSort() != Type.OBJECT && t.getSort() != Type.ARRAY)
+						continue;
+					if(t.getSort() == Type.OBJECT && (t.getInternalName().equals("java/lang/String") || enums.containsKey(t.getInternalName())))
+						continue;
+				}
+				return cn.name;
+			}
+		}
+		return null;
+	}
+
+	private static byte[] readClass(String className) {
+		if(className.startsWith("instrumented/"))
+			className = className.substring(13);
+		try {
+			InputStream in = ClassLoader.getSystemResourceAsStream(className + ".class");
+			if(in == null)
+				return null;
+			return InstrumentedClassCache.readFully(in);
+		} catch(IOException ioe) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,119 @@
+package battlecode.engine.instrumenter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import battlecode.engine.EngineContext;
+import battlecode.engine.ErrorReporter;
+
+/**
+ * Loads the classes of a team for all of its robots in a match.  This is
+ * used instead of an IndividualClassLoader for each robot when
+ * bc.engine.shared-classes is set, so that each class is instrumented and
+ * defined once per team instead of once per robot.
+ * <p>
+ * Robots can't use static fields to talk to each other, because the
+ * classes are instrumented to keep each robot's static fields in a
+ * separate holder (see RobotStatics).  Enums are shared, so a team whose
+ * enums have state that robots could change gets an IndividualClassLoader
+ * for each robot instead (see {@link #canShare}).  ObjectHashCode keeps
+ * separate hash codes for each robot too.
+ */
+public class TeamClassLoader extends InstrumentingClassLoader {
+
+	// the name of the team this TeamClassLoader is loading
+	private final String teamPackageName;
+
+	private final SingletonClassLoader singletonLoader;
+
+	private final IndividualClassLoader.Cache cache;
+
+	private final RobotStatics statics;
+
+	private final Map<String, Class<?>> loadedClasses = new HashMap<String, Class<?>>();
+
+	// set when a class fails to load, so that the team's other robots fail right away
+	private boolean hasErrors;
+
+	/**
+	 * Returns the TeamClassLoader of the given team in the current match.
+	 */
+	public static TeamClassLoader forTeam(String teamPackageName, boolean debugMethodsEnabled) throws InstrumentationException {
+		return EngineContext.current().getClassCache().teamLoader(teamPackageName, debugMethodsEnabled);
+	}
+
+	/**
+	 * Returns whether the robots of the given team can share a
+	 * TeamClassLoader, which they can't if one of the team's enums has a
+	 * field that robots could use to talk to each other.
+	 */
+	public static boolean canShare(String teamPackageName) {
+		return EngineContext.current().getClassCache().canShareClasses(teamPackageName);
+	}
+
+	TeamClassLoader(String teamPackageName, boolean debugMethodsEnabled, IndividualClassLoader.Cache cache) throws InstrumentationException {
+		super(false, debugMethodsEnabled, cache.singletonLoader());
+		this.singletonLoader = cache.singletonLoader();
+		this.cache = cache;
+
+		checkSettings();
+
+		IndividualClassLoader.checkTeamPackage(teamPackageName);
+
+		this.teamPackageName = teamPackageName;
+		statics = new RobotStatics(teamPackageName, silenced);
+	}
+
+	protected RobotStatics robotStatics() {
+		return statics;
+	}
+
+	protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+
+		if(hasErrors)
+			throw new InstrumentationException();
+
+		name = name.replace('.','/');
+
+		Class<?> finishedClass = loadedClasses.get(name);
+
+		if(finishedClass == null) {
+			try {
+				if(IndividualClassLoader.isCopiedClass(name))
+					// one copy for the team, which keeps each robot's hash codes apart
+					finishedClass = saveAndDefineClass(name,IndividualClassLoader.copyClass(name));
+				else if(RobotStatics.isHolder(name) && (name.startsWith(teamPackageName + "/") || name.startsWith("instrumented/")))
+					finishedClass = saveAndDefineClass(name,statics.holderClass(name,debugMethodsEnabled));
+				else if(name.startsWith(teamPackageName + "/")) {
+					byte[] classBytes = cache.eagerClass(name);
+					if(classBytes == null)
+						classBytes = instrument(name,true,teamPackageName);
+					finishedClass = saveAndDefineClass(name,classBytes);
+				}
+				else if(name.startsWith("instrumented/"))
+					finishedClass = saveAndDefineClass(name,instrument(name,false,teamPackageName));
+				else if(name.startsWith("forbidden/")) {
+					ErrorReporter.report("Illegal class: " + name.substring(10) + "\nThis class cannot be referenced by player " + teamPackageName, false);
+					throw new InstrumentationException();
+				}
+				else
+					return singletonLoader.loadClass(name,resolve);
+			} catch(InstrumentationException ie) {
+				hasErrors = true;
+				throw ie;
+			}
+		}
+
+		if(resolve)
+			resolveClass(finishedClass);
+
+		return finishedClass;
+	}
+
+	public Class<?> saveAndDefineClass(String name, byte [] classBytes) {
+		Class<?> theClass = defineClass(null, classBytes, 0, classBytes.length);
+		loadedClasses.put(name, theClass);
+		return theClass;
+	}
+
+}
@@ -0,0 +1,69 @@
+package battlecode.engine.instrumenter.lang;
+
+import java.io.PrintStream;
+import java.util.Locale;
+
+import battlecode.engine.instrumenter.RobotMonitor;
+
+/**
+ * The PrintStream behind battlecode.engine.instrumenter.lang.System.out and
+ * System.err.  It passes everything on to the stream of the robot that is
+ * running in the match of the calling thread (see
+ * RobotMonitor.getCurrentPrintStream), since System is shared by all the
+ * matches that are running at once.
+ */
+public final class CurrentRobotPrintStream extends PrintStream {
+
+	private static final CurrentRobotPrintStream theInstance = new CurrentRobotPrintStream();
+
+	private CurrentRobotPrintStream() {
+		super(java.lang.System.out);
+	}
+
+	public static CurrentRobotPrintStream theInstance() {
+		return theInstance;
+	}
+
+	private static PrintStream stream() {
+		return RobotMonitor.getCurrentPrintStream();
+	}
+
+	public void print(boolean b) { stream().print(b); }
+	public void print(char c) { stream().print(c); }
+	public void print(char[] s) { stream().print(s); }
+	public void print(double d) { stream().print(d); }
+	public void print(float f) { stream().print(f); }
+	public void print(int i) { stream().print(i); }
+	public void print(long l) { stream().print(l); }
+	public void print(Object obj) { stream().print(obj); }
+	public void print(String s) { stream().print(s); }
+
+	public void println() { stream().println(); }
+	public void println(boolean b) { stream().println(b); }
+	public void println(char c) { stream().println(c); }
+	public void println(char[] s) { stream().println(s); }
+	public void println(double d) { stream().println(d); }
+	public void println(float f) { stream().println(f); }
+	public void println(int i) { stream().println(i); }
+	public void println(long l) { stream().println(l); }
+	public void println(Object obj) { stream().println(obj); }
+	public void println(String s) { stream().println(s); }
+
+	public PrintStream append(char c) { stream().append(c); return this; }
+	public PrintStream append(CharSequence csq) { stream().append(csq); return this; }
+	public PrintStream append(CharSequence csq, int start, int end) { stream().append(csq, start, end); return this; }
+
+	public PrintStream format(String format, Object... args) { stream().format(format, args); return this; }
+	public PrintStream format(Locale l, String format, Object... args) { stream().format(l, format, args); return this; }
+	public PrintStream printf(String format, Object... args) { stream().printf(format, args); return this; }
+	public PrintStream printf(Locale l, String format, Object... args) { stream().printf(l, format, args); return this; }
+
+	public void write(byte[] buf) throws java.io.IOException { stream().write(buf); }
+	public void write(byte[] buf, int off, int len) { stream().write(buf, off, len); }
+	public void write(int b) { stream().write(b); }
+
+	public void flush() { stream().flush(); }
+	public void close() { stream().close(); }
+	public boolean checkError() { return stream().checkError(); }
+
+}
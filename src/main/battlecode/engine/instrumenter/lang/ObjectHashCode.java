@@ -25,9 +25,14 @@ public class ObjectHashCode {
 		characterHashCode = tmpc;
 	}
 
-	static int lastHashCode=-1;
+	// The codes handed out to one robot.  Each robot normally has its own
+	// copy of this class, but with bc.engine.shared-classes the robots of a
+	// team share one, so the codes are kept per thread.  This class is
+	// copied into each robot's class loader, so it can't have nested
+	// classes, which would be loaded by another loader.
+	static final ThreadLocal<int[]> lastHashCode = new ThreadLocal<int[]>();
+	static final ThreadLocal<WeakIdentityHashMap<Object,Integer>> codes = new ThreadLocal<WeakIdentityHashMap<Object,Integer>>();
 
-	static WeakIdentityHashMap<Object,Integer> codes = new WeakIdentityHashMap<Object,Integer>();
 	// reflection is slow so cache the results
 	static HashMap<Class,Boolean> usesOHC = new HashMap<Class,Boolean>();
 
@@ -54,10 +59,18 @@ public class ObjectHashCode {
 	}
 
 	static public int identityHashCode(Object o) {
-		Integer code = codes.get(o);
+		WeakIdentityHashMap<Object,Integer> robotCodes = codes.get();
+		int[] last = lastHashCode.get();
+		if(robotCodes==null) {
+			robotCodes = new WeakIdentityHashMap<Object,Integer>();
+			codes.set(robotCodes);
+			last = new int[] { -1 };
+			lastHashCode.set(last);
+		}
+		Integer code = robotCodes.get(o);
 		if(code==null) {
-			codes.put(o,++lastHashCode);
-			return lastHashCode;
+			robotCodes.put(o,++last[0]);
+			return last[0];
 		}
 		else
 			return code;
@@ -21,16 +21,13 @@ public class RoboPrintStream extends PrintStream {
 	
 	private String header;
 
-	private static RoboPrintStream theInstance = new RoboPrintStream();
-		
-	private RoboPrintStream() {
+	/**
+	 * Creates a RoboPrintStream for the robots of one match.
+	 */
+	public RoboPrintStream() {
 		super(java.lang.System.out);
 	}
 	
-	static public RoboPrintStream theInstance() {
-		return theInstance;
-	}
-	
 	//************************
 	//*** PRINT METHODS ***
 	//************************
@@ -2,6 +2,8 @@ package battlecode.engine.instrumenter.lang;
 
 import java.util.Random;
 
+import battlecode.engine.EngineContext;
+
 /**
  * A wrapper for java.util.Random, that uses the map seed in place of system time for the default Random constructor
  *
@@ -11,10 +13,8 @@ public class RoboRandom extends Random {
 
     private static final long serialVersionUID = 0; // don't serialize
 	
-	private static long mapSeed = 0;
-	
 	public RoboRandom() {
-		super(mapSeed);
+		super(getMapSeed());
 	}
 	
 	public RoboRandom(long seed) {
@@ -22,13 +22,9 @@ public class RoboRandom extends Random {
 	}
 	
 	/**
-	 * Sets the seed used for the default Random cosntructor.  Should be called at the beginning of each game.
+	 * Returns the seed used for the default Random constructor, which is the seed of the current match's map.
 	 */
-	public static void setMapSeed(long seed) {
-		mapSeed = seed;
-	}
-
 	public static long getMapSeed() {
-		return mapSeed;
+		return EngineContext.current().getMapSeed();
 	}
 }
@@ -41,9 +41,9 @@ public final class System {
 		return (s==null)?def:s;
 	}
 
-	// set by RobotMonitor
-	public static PrintStream out;
-	public static PrintStream err;
+	// shared by all matches, so they print to the current robot's stream
+	public static final PrintStream out = CurrentRobotPrintStream.theInstance();
+	public static final PrintStream err = out;
 	public static InputStream in = new InputStream() {
 		public int read() throws java.io.IOException { throw new java.io.EOFException(); }
 	};
@@ -15,6 +15,7 @@ public class ScheduledRunnable implements Runnable {
 		
 	/**
 	 * Creates and runs a new thread that is locked into the Scheduler and runs the given Runnable.
+	 * The kind of thread is chosen by the Scheduler (see the bc.engine.scheduler option).
 	 * 
 	 * @param r the Runnable to be run in the Scheduler
 	 * @param ID the integer ID that the Scheduler will associate with the given Runnable's thread
@@ -22,8 +23,7 @@ public class ScheduledRunnable implements Runnable {
 	public ScheduledRunnable(Runnable r, int ID) {
 		myID = ID;
 		myRunnable = r;
-		Thread t = new Thread(this, "robot " + ID);
-		t.setDaemon(true);
+		Thread t = Scheduler.newThread(this, "robot " + ID);
 		Scheduler.add(t,ID);
 		t.start();
 	}
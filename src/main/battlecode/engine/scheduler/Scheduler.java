@@ -1,12 +1,19 @@
 package battlecode.engine.scheduler;
 
+import battlecode.engine.EngineContext;
 import battlecode.engine.ErrorReporter;
 import battlecode.engine.instrumenter.RobotDeathException;
 import battlecode.engine.instrumenter.RobotMonitor;
+import battlecode.server.Config;
 
+import java.lang.reflect.Method;
 import java.util.concurrent.locks.LockSupport;
 
-
+/**
+ * Hands control between robot threads, one at a time, in a fixed ring.
+ * Each running match has its own Scheduler, reached through the
+ * EngineContext of the calling thread.
+ */
 public class Scheduler {
 
 	public static class ScheduledThread {
@@ -23,35 +30,112 @@ public class Scheduler {
 		}
 	}
 
-	private volatile static ScheduledThread head, current;
+	private volatile ScheduledThread head, current;
+
+	/**
+	 * Robot bodies run either on ordinary platform threads ("threads") or,
+	 * when bc.engine.scheduler is "virtual" and the JVM supports them, on
+	 * virtual threads.  Handoff is the same park/unpark in both modes,
+	 * but for virtual threads it only yields the continuation instead of
+	 * switching kernel threads.
+	 */
+	private static boolean useVirtualThreads;
+
+	// Thread.ofVirtual() and Thread.Builder.unstarted(Runnable), looked up
+	// reflectively so that we still build and run on older JVMs
+	private static Object virtualThreadBuilder;
+	private static Method unstartedVirtualThread;
+	// set once we know that the JVM doesn't have virtual threads, so that
+	// we only look them up and report it once
+	private static boolean virtualThreadsUnsupported;
 
-	static {
+	public Scheduler() {
 		head = new ScheduledThread(null, new RobotMonitor.RobotData(-1));
 		head.next = head;
 		head.prev = head;
 		current = head;
 	}
 
+	private static Scheduler scheduler() {
+		return EngineContext.current().getScheduler();
+	}
+
 	public static void start() {
-		head.thread = Thread.currentThread();	
+		scheduler().head.thread = Thread.currentThread();
 	}
 
+	/**
+	 * Reads the scheduler options.  Should be called before each game.
+	 */
 	public static void reset() {
+		checkOptions();
+	}
+
+	/**
+	 * Reports an error if any robot threads are still in the ring.
+	 * Should be called once a game is over.
+	 */
+	public void checkFinished() {
 		if(head.next!=head) {
 			ErrorReporter.report("Failed to clean up all threads");
 		}
 	}
 
+	private static void checkOptions() {
+		String mode = Config.getGlobalConfig().get("bc.engine.scheduler");
+		useVirtualThreads = false;
+		if("virtual".equals(mode)) {
+			if(virtualThreadsUnsupported)
+				return;
+			if(virtualThreadBuilder==null) {
+				try {
+					virtualThreadBuilder = Thread.class.getMethod("ofVirtual").invoke(null);
+					unstartedVirtualThread = Class.forName("java.lang.Thread$Builder").getMethod("unstarted",Runnable.class);
+				} catch(Exception e) {
+					virtualThreadBuilder = null;
+					unstartedVirtualThread = null;
+					virtualThreadsUnsupported = true;
+					ErrorReporter.report("Virtual threads are not supported by this JVM, so robots will run on platform threads.", "Run the server on Java 21 or later, or set bc.engine.scheduler to threads.");
+					return;
+				}
+			}
+			useVirtualThreads = true;
+		}
+		else if(mode!=null&&!"threads".equals(mode))
+			ErrorReporter.report("Unknown scheduler mode '"+mode+"', using platform threads");
+	}
+
+	/**
+	 * Creates an unstarted thread for a robot, of the kind selected
+	 * by the bc.engine.scheduler option.
+	 */
+	static Thread newThread(Runnable r, String name) {
+		if(useVirtualThreads) {
+			try {
+				Thread t = (Thread)unstartedVirtualThread.invoke(virtualThreadBuilder,r);
+				t.setName(name);
+				return t;
+			} catch(Exception e) {
+				ErrorReporter.report(e);
+				useVirtualThreads = false;
+			}
+		}
+		Thread t = new Thread(r, name);
+		t.setDaemon(true);
+		return t;
+	}
+
 	/**
 	 * Adds a new thread to the scheduler.
 	 */
 	public static void add(Thread t, int ID) {
-		ScheduledThread st = new ScheduledThread(t, new RobotMonitor.RobotData(ID));
-		ScheduledThread last = head.prev;
+		Scheduler s = scheduler();
+		ScheduledThread st = new ScheduledThread(t, RobotMonitor.newRobotData(ID));
+		ScheduledThread last = s.head.prev;
 		last.next = st;
 		st.prev = last;
-		head.prev = st;
-		st.next = head;
+		s.head.prev = st;
+		st.next = s.head;
 	}
 
 	/**
@@ -59,18 +143,19 @@ public class Scheduler {
 	 * Should be called right before the thread exits.
 	n */
 	public static void die() {
-		ScheduledThread last = current.prev;
-		current = current.next;
-		current.prev = last;
-		last.next = current;
-		wakeupNext();
+		Scheduler s = scheduler();
+		ScheduledThread last = s.current.prev;
+		s.current = s.current.next;
+		s.current.prev = last;
+		last.next = s.current;
+		s.wakeupNext();
 	}
 
 	/**
 	 * Wakes up the next thread.  Should be followed by a
 	 * call to endTurn().
 	 */
-	private static void wakeupNext() {
+	private void wakeupNext() {
 		LockSupport.unpark(current.thread);
 	}
 
@@ -79,12 +164,13 @@ public class Scheduler {
 	 * New robot threads should call this immediately after starting.
 	 */
 	public static void endTurn() {
+		Scheduler s = scheduler();
 		// we need do-while rather than while in case the current thread
 		// is also the next thread
 		do {
 			LockSupport.park();
-		} while(current.thread!=Thread.currentThread());
-		RobotMonitor.switchRunner(current.data);
+		} while(s.current.thread!=Thread.currentThread());
+		RobotMonitor.switchRunner(s.current.data);
 	}
 
 	//static private volatile long enterTime;
@@ -106,8 +192,9 @@ public class Scheduler {
 	 * robots are running.
 	 */
 	public static void startNextThread() {
-		current = current.next;
-		wakeupNext();
+		Scheduler s = scheduler();
+		s.current = s.current.next;
+		s.wakeupNext();
 	}
 
 }
@@ -1,10 +1,16 @@
 package battlecode.engine.signal;
 
-import java.lang.annotation.Annotation;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
 
 /**
  * A signal handler that delegates to other signal handling methods, which it discovers
@@ -13,12 +19,57 @@ import java.util.HashMap;
  * - If the method has a {@link DiscoverSignal} annotation, that is respected.
  * - Otherwise, a method is discovered if it is public, its name starts with "visit", and it takes a single
  * parameter that is a subclass of {@link Signal} (but not Signal itself).
- * Currently it uses reflection, which is kind of inelegant and slow (but probably not slow enough to matter).  I guess we could avoid reflection and instead create classes on the fly.
+ *
+ * The methods are found once per handler class.  For each of them we generate a small class that
+ * calls the method directly, so dispatching a signal costs a map lookup and an interface call rather
+ * than a reflective invocation.  Handlers that the generated classes can't call (because the handler,
+ * the method or its parameter type isn't public) fall back to reflection.
  */
 public class AutoSignalHandler<T> implements SignalHandler<T> {
 
-	static HashMap<Class, HashMap<Class, Method>> metaMap = new HashMap<Class, HashMap<Class,Method>>();
-	HashMap<Class, Method> methodMap; 
+	/**
+	 * Calls one signal handling method.  This is only public so that the generated
+	 * classes, which live in their own class loader, can implement it.
+	 */
+	public interface Invoker {
+		public Object invoke(Object handler, Signal signal) throws Exception;
+	}
+
+	/**
+	 * The handling methods of one handler class, by the signal class they are called for.
+	 */
+	private static class Dispatcher {
+		// the discovered methods, by parameter type
+		final Map<Class<?>, Invoker> declared = new HashMap<Class<?>, Invoker>();
+		// the method to call for each concrete signal class seen so far, or NONE;
+		// filled in lazily since signal classes are not known in advance
+		final ConcurrentHashMap<Class<?>, Invoker> resolved = new ConcurrentHashMap<Class<?>, Invoker>();
+
+		Invoker forSignal(Class<?> signalClass) {
+			Invoker invoker = resolved.get(signalClass);
+			if (invoker == null) {
+				Class<?> cls = signalClass;
+				do {
+					invoker = declared.get(cls);
+					cls = cls.getSuperclass();
+				}
+				while (invoker == null && cls != null && Signal.class.isAssignableFrom(cls));
+				if (invoker == null)
+					invoker = NONE;
+				resolved.put(signalClass, invoker);
+			}
+			return invoker;
+		}
+	}
+
+	private static final Invoker NONE = new Invoker() {
+		public Object invoke(Object handler, Signal signal) {
+			throw new UnsupportedOperationException();
+		}
+	};
+
+	static HashMap<Class, Dispatcher> metaMap = new HashMap<Class, Dispatcher>();
+	Dispatcher dispatcher;
 	Object myObject;
 
 	public AutoSignalHandler() {
@@ -33,10 +84,11 @@ public class AutoSignalHandler<T> implements SignalHandler<T> {
 
 	protected void discoverMethods(Class cls) {
 		synchronized(metaMap) {
-			methodMap = metaMap.get(cls);
-			if(methodMap!=null) return;
+			dispatcher = metaMap.get(cls);
+			if(dispatcher!=null) return;
 			assert Modifier.isPublic(cls.getModifiers());
-			methodMap = new HashMap<Class, Method>();
+			dispatcher = new Dispatcher();
+			InvokerLoader loader = null;
 			for(Method method: cls.getMethods()) {
 				boolean shouldAdd;
 				Class<?> [] parameters = method.getParameterTypes();
@@ -50,11 +102,19 @@ public class AutoSignalHandler<T> implements SignalHandler<T> {
 						!parameters[0].equals(Signal.class);
 				if(shouldAdd) {
 					//System.out.println("Adding signal handler "+method);
-					Method old = methodMap.put(parameters[0],method);
+					Invoker invoker;
+					if(canGenerateInvoker(cls,method)) {
+						if(loader==null)
+							loader = new InvokerLoader(cls.getClassLoader());
+						invoker = loader.generate(method);
+					}
+					else
+						invoker = new ReflectiveInvoker(method);
+					Invoker old = dispatcher.declared.put(parameters[0],invoker);
 					assert old == null;
 				}
 			}
-			metaMap.put(cls,methodMap);
+			metaMap.put(cls,dispatcher);
 		}
 	}
 
@@ -69,21 +129,122 @@ public class AutoSignalHandler<T> implements SignalHandler<T> {
 
     @SuppressWarnings("unchecked")
 	public T visitSignal(Signal signal) {
-		Class<?> cls = signal.getClass();
-		do {
-			Method method = methodMap.get(cls);
-			if(method!=null)
-				try {
-					return (T)method.invoke(myObject,signal);
-				} catch(InvocationTargetException ite) {
-					return exceptionResponse((Exception)ite.getCause());
-				} catch(Exception e) {
-					return exceptionResponse(e);
-				}
-			cls = cls.getSuperclass();
+		Invoker invoker = dispatcher.forSignal(signal.getClass());
+		if(invoker==NONE)
+			return defaultResponse();
+		try {
+			return (T)invoker.invoke(myObject,signal);
+		} catch(Exception e) {
+			return exceptionResponse(e);
+		}
+	}
+
+	// The generated classes are defined in a class loader of their own, so they can only call
+	// public methods of public classes.
+	private static boolean canGenerateInvoker(Class<?> cls, Method method) {
+		Class<?> owner = method.getDeclaringClass();
+		return Modifier.isPublic(cls.getModifiers())&&
+			Modifier.isPublic(owner.getModifiers())&&
+			!owner.isInterface()&&
+			Modifier.isPublic(method.getParameterTypes()[0].getModifiers())&&
+			!Modifier.isStatic(method.getModifiers());
+	}
+
+	private static class ReflectiveInvoker implements Invoker {
+		private final Method method;
+
+		ReflectiveInvoker(Method method) {
+			this.method = method;
+		}
+
+		public Object invoke(Object handler, Signal signal) throws Exception {
+			try {
+				return method.invoke(handler,signal);
+			} catch(InvocationTargetException ite) {
+				if(ite.getCause() instanceof Exception)
+					throw (Exception)ite.getCause();
+				throw ite;
+			}
+		}
+	}
+
+	/**
+	 * Defines the generated invokers for the methods of one handler class.
+	 */
+	private static class InvokerLoader extends ClassLoader implements Opcodes {
+
+		private static int classCount = 0;
+
+		InvokerLoader(ClassLoader parent) {
+			super(parent);
+		}
+
+		Invoker generate(Method method) {
+			String className;
+			synchronized(InvokerLoader.class) {
+				className = "battlecode/engine/signal/GeneratedInvoker"+(classCount++);
+			}
+			String owner = Type.getInternalName(method.getDeclaringClass());
+			Class<?> parameter = method.getParameterTypes()[0];
+
+			ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+			cw.visit(V1_5,ACC_PUBLIC|ACC_FINAL|ACC_SUPER,className,null,"java/lang/Object",
+				new String [] { Type.getInternalName(Invoker.class) });
+
+			MethodVisitor mv = cw.visitMethod(ACC_PUBLIC,"<init>","()V",null,null);
+			mv.visitCode();
+			mv.visitVarInsn(ALOAD,0);
+			mv.visitMethodInsn(INVOKESPECIAL,"java/lang/Object","<init>","()V");
+			mv.visitInsn(RETURN);
+			mv.visitMaxs(0,0);
+			mv.visitEnd();
+
+			// return ((Owner)handler).visitXxx((XxxSignal)signal);
+			mv = cw.visitMethod(ACC_PUBLIC,"invoke",
+				Type.getMethodDescriptor(Type.getType(Object.class),
+					new Type [] { Type.getType(Object.class), Type.getType(Signal.class) }),
+				null,new String [] { "java/lang/Exception" });
+			mv.visitCode();
+			mv.visitVarInsn(ALOAD,1);
+			mv.visitTypeInsn(CHECKCAST,owner);
+			mv.visitVarInsn(ALOAD,2);
+			mv.visitTypeInsn(CHECKCAST,Type.getInternalName(parameter));
+			mv.visitMethodInsn(INVOKEVIRTUAL,owner,method.getName(),Type.getMethodDescriptor(method));
+			boxReturnValue(mv,Type.getReturnType(method));
+			mv.visitInsn(ARETURN);
+			mv.visitMaxs(0,0);
+			mv.visitEnd();
+
+			cw.visitEnd();
+			byte [] bytes = cw.toByteArray();
+			Class<?> cls = defineClass(null,bytes,0,bytes.length);
+			try {
+				return (Invoker)cls.newInstance();
+			} catch(Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		private static void boxReturnValue(MethodVisitor mv, Type type) {
+			String box;
+			switch(type.getSort()) {
+			case Type.VOID:
+				mv.visitInsn(ACONST_NULL);
+				return;
+			case Type.OBJECT:
+			case Type.ARRAY:
+				return;
+			case Type.BOOLEAN: box = "java/lang/Boolean"; break;
+			case Type.CHAR: box = "java/lang/Character"; break;
+			case Type.BYTE: box = "java/lang/Byte"; break;
+			case Type.SHORT: box = "java/lang/Short"; break;
+			case Type.INT: box = "java/lang/Integer"; break;
+			case Type.FLOAT: box = "java/lang/Float"; break;
+			case Type.LONG: box = "java/lang/Long"; break;
+			default: box = "java/lang/Double"; break;
+			}
+			mv.visitMethodInsn(INVOKESTATIC,box,"valueOf","("+type.getDescriptor()+")L"+box+";");
 		}
-		while(Signal.class.isAssignableFrom(cls));
-		return defaultResponse();
 	}
 
 }
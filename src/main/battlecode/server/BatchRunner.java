@@ -0,0 +1,280 @@
+package battlecode.server;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import battlecode.common.Team;
+import battlecode.serial.MatchInfo;
+
+/**
+ * Runs every pairing listed in a manifest file, several at a time, each in
+ * its own engine context within this JVM.
+ * <p>
+ * Each line of the manifest names two teams and a comma-separated list of
+ * maps, separated by whitespace:
+ *
+ * <pre>
+ * # team-a  team-b   maps
+ * team001   team002  glass,arena,bridges
+ * </pre>
+ *
+ * Blank lines and lines starting with '#' are ignored. A pairing is run like
+ * a scrimmage: its maps are played in order, and play stops once a team has
+ * won two of them.
+ * <p>
+ * The output directory (bc.server.batch-output) gets one match file per
+ * pairing, and a results file with one tab-separated line per pairing: its
+ * id, the two teams, the maps, the winner of each match that was played, and
+ * the winning team. The results file also serves as a checkpoint. Its lines
+ * are written and synced as pairings finish, and when the batch is run again,
+ * pairings that already have a line are skipped. To run a pairing again,
+ * delete its line.
+ * <p>
+ * Set bc.engine.class-cache to instrument each team only once per batch
+ * rather than once per match.
+ */
+public class BatchRunner {
+
+	private static final String RESULTS_FILE = "results.txt";
+
+	private final Config options;
+
+	private final File outputDir;
+
+	private final File resultsFile;
+
+	/** The results file, opened for appending. */
+	private FileOutputStream results;
+
+	/**
+	 * One line of the manifest.
+	 */
+	private static class Pairing {
+		public final String id;
+		public final MatchInfo info;
+
+		public Pairing(String id, MatchInfo info) {
+			this.id = id;
+			this.info = info;
+		}
+	}
+
+	public BatchRunner(Config options) {
+		this.options = options;
+		this.outputDir = new File(options.get("bc.server.batch-output"));
+		this.resultsFile = new File(outputDir, RESULTS_FILE);
+	}
+
+	/**
+	 * Runs the pairings in the manifest that have no results yet, and blocks
+	 * until they are done.
+	 *
+	 * @throws IOException
+	 *             if the manifest can't be read or the results can't be
+	 *             written
+	 */
+	public void run() throws IOException {
+		List<Pairing> pairings = readManifest(new File(options
+				.get("bc.server.batch-manifest")));
+
+		if (!outputDir.isDirectory() && !outputDir.mkdirs())
+			throw new IOException("can't create " + outputDir);
+
+		Set<String> done = readFinishedPairings();
+		List<Pairing> pending = new ArrayList<Pairing>();
+		for (Pairing p : pairings)
+			if (!done.contains(p.id))
+				pending.add(p);
+
+		Server.say(String.format("batch: %d pairings, %d already finished",
+				pairings.size(), pairings.size() - pending.size()));
+		if (pending.isEmpty())
+			return;
+
+		int threads = options.getInt("bc.server.batch-threads");
+		if (threads <= 0)
+			threads = Runtime.getRuntime().availableProcessors();
+
+		boolean newFile = !resultsFile.exists();
+		boolean cutShort = !newFile && !endsWithNewline(resultsFile);
+		results = new FileOutputStream(resultsFile, true);
+		try {
+			if (newFile)
+				writeResult("# id\tteam-a\tteam-b\tmaps\twinners\twinner");
+			else if (cutShort)
+				writeResult("");
+
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (final Pairing p : pending) {
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() throws IOException {
+						runPairing(p);
+						return null;
+					}
+				}));
+			}
+			executor.shutdown();
+
+			for (Future<?> f : futures) {
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					// only a failure to write the results gets here
+					executor.shutdownNow();
+					if (e.getCause() instanceof IOException)
+						throw (IOException) e.getCause();
+					throw new RuntimeException(e.getCause());
+				} catch (InterruptedException e) {
+					executor.shutdownNow();
+					throw new InterruptedIOException();
+				}
+			}
+		} finally {
+			results.close();
+		}
+
+		Server.say("batch: finished, results are in " + resultsFile);
+	}
+
+	private void runPairing(Pairing p) throws IOException {
+		MatchInfo info = p.info;
+		String maps = join(info.getMaps(), ",");
+		String saveFile = new File(outputDir, p.id + ".rms").getPath();
+
+		Server.say(String.format("batch: starting %s (%s vs. %s on %s)", p.id,
+				info.getTeamA(), info.getTeamB(), maps));
+
+		List<Team> winners;
+		try {
+			Server server = ServerFactory.createBatchServer(options, info,
+					saveFile);
+			server.run();
+			if (server.getState() == State.ERROR)
+				winners = null;
+			else
+				winners = server.getWinners();
+		} catch (Exception e) {
+			e.printStackTrace();
+			winners = null;
+		}
+
+		String line;
+		if (winners == null) {
+			Server.warn("batch: " + p.id + " failed");
+			line = String.format("%s\t%s\t%s\t%s\t-\terror", p.id, info
+					.getTeamA(), info.getTeamB(), maps);
+		} else {
+			int aWins = 0, bWins = 0;
+			String[] letters = new String[winners.size()];
+			for (int i = 0; i < letters.length; i++) {
+				Team t = winners.get(i);
+				letters[i] = String.valueOf(t);
+				if (t == Team.A)
+					aWins++;
+				else if (t == Team.B)
+					bWins++;
+			}
+			String winner;
+			if (aWins > bWins)
+				winner = info.getTeamA();
+			else if (bWins > aWins)
+				winner = info.getTeamB();
+			else
+				winner = "tie";
+			line = String.format("%s\t%s\t%s\t%s\t%s\t%s", p.id, info
+					.getTeamA(), info.getTeamB(), maps, join(letters, ","),
+					winner);
+			Server.say(String.format("batch: finished %s, winner %s", p.id,
+					winner));
+		}
+		writeResult(line);
+	}
+
+	/**
+	 * Appends a line to the results file and makes sure it reaches the disk,
+	 * so that a crash afterwards doesn't run the pairing again.
+	 */
+	private synchronized void writeResult(String line) throws IOException {
+		results.write((line + "\n").getBytes("UTF-8"));
+		results.flush();
+		results.getFD().sync();
+	}
+
+	private Set<String> readFinishedPairings() throws IOException {
+		Set<String> done = new HashSet<String>();
+		if (!resultsFile.exists())
+			return done;
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(resultsFile), "UTF-8"));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				// skips the header, and a line cut short by a crash
+				String[] fields = line.split("\t");
+				if (line.startsWith("#") || fields.length != 6)
+					continue;
+				done.add(fields[0]);
+			}
+		} finally {
+			in.close();
+		}
+		return done;
+	}
+
+	private static boolean endsWithNewline(File f) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(f, "r");
+		try {
+			if (file.length() == 0)
+				return true;
+			file.seek(file.length() - 1);
+			return file.read() == '\n';
+		} finally {
+			file.close();
+		}
+	}
+
+	private static List<Pairing> readManifest(File manifest) throws IOException {
+		List<Pairing> pairings = new ArrayList<Pairing>();
+		BufferedReader in = new BufferedReader(new FileReader(manifest));
+		try {
+			String line;
+			int lineNumber = 0;
+			while ((line = in.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#"))
+					continue;
+				String[] fields = line.split("\\s+");
+				if (fields.length != 3)
+					throw new IOException(String.format(
+							"%s:%d: expected \"team-a team-b maps\"",
+							manifest, lineNumber));
+				String[] maps = fields[2].split(",");
+				for (int i = 0; i < maps.length; i++)
+					if (maps[i].endsWith(".xml"))
+						maps[i] = maps[i].substring(0, maps[i].length() - 4);
+				// ids follow manifest order, so that they stay the same as
+				// long as pairings are only added to the end
+				String id = String.format("%05d-%s-%s", pairings.size(),
+						fields[0], fields[1]);
+				pairings.add(new Pairing(id, new MatchInfo(fields[0],
+						fields[1], maps)));
+			}
+		} finally {
+			in.close();
+		}
+		return pairings;
+	}
+
+	private static String join(String[] parts, String separator) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < parts.length; i++) {
+			if (i > 0)
+				sb.append(separator);
+			sb.append(parts[i]);
+		}
+		return sb.toString();
+	}
+}
@@ -32,6 +32,15 @@ public class Config {
         defaults.setProperty("bc.server.throttle", "yield");
         defaults.setProperty("bc.server.throttle-count", "15");
 		defaults.setProperty("bc.server.output-xml", "true");
+		defaults.setProperty("bc.server.output-binary", "false");
+		defaults.setProperty("bc.server.keyframe-interval", "0");
+		defaults.setProperty("bc.server.parallel-matches", "1");
+		defaults.setProperty("bc.server.write-queue", "256");
+		defaults.setProperty("bc.server.spectator-port", "0");
+		defaults.setProperty("bc.server.spectator-queue", "4194304");
+		defaults.setProperty("bc.server.batch-manifest", "");
+		defaults.setProperty("bc.server.batch-output", "batch");
+		defaults.setProperty("bc.server.batch-threads", "0");
 
         defaults.setProperty("bc.engine.debug-methods", "true");
 		defaults.setProperty("bc.engine.debug-max-bytecodes", "64000");
@@ -44,6 +53,12 @@ public class Config {
         defaults.setProperty("bc.engine.bytecodes-used", "true");
 		defaults.setProperty("bc.engine.lazy-instrumenter", "false");
 		defaults.setProperty("bc.engine.fast-hash","false");
+		defaults.setProperty("bc.engine.fast-metering", "false");
+		defaults.setProperty("bc.engine.shared-classes", "false");
+		defaults.setProperty("bc.engine.eager-instrumentation", "false");
+		defaults.setProperty("bc.engine.scheduler", "threads");
+		defaults.setProperty("bc.engine.class-cache", "");
+		defaults.setProperty("bc.engine.results-only", "false");
 
         defaults.setProperty("bc.client.opengl", "true");
         defaults.setProperty("bc.client.use-models", "true");
@@ -72,6 +87,7 @@ public class Config {
         options.addOption("h", "headless", false, "headless mode");
         options.addOption("s", "server", false, "server mode");
         options.addOption("n", "no-dialog", false, "skip the match dialog");
+        options.addOption("b", "batch", true, "run the pairings in a manifest file");
     }
 
     private static Config globalConfig = new Config(new String [0]);
@@ -162,6 +178,11 @@ public class Config {
 
         if (cmd.hasOption("n"))
             properties.setProperty("bc.dialog.skip", "true");
+
+        if (cmd.hasOption("b")) {
+            properties.setProperty("bc.server.mode", "batch");
+            properties.setProperty("bc.server.batch-manifest", cmd.getOptionValue("b"));
+        }
     }
 
     /**
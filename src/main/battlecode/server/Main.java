@@ -46,6 +46,14 @@ public class Main {
 		}
 	}
 
+	private static void runBatch(Config options) {
+		try {
+			new BatchRunner(options).run();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
 	public static Config setupConfig(String [] args) {
 		try {
 			Config options = new Config(args);
@@ -73,6 +81,9 @@ public class Main {
 		case PIPE:
 			runPipe(options, saveFile);
 			break;
+		case BATCH:
+			runBatch(options);
+			break;
 		default:
 			return false;
 		}
@@ -42,8 +42,12 @@ public class Match extends Observable {
     
     private boolean bytecodesUsedEnabled = true;
 
+    private boolean resultsOnly = false;
+
 	private long[][] computedArchonMemory = null;
 
+	private Team winner = null;
+
     /**
      * Creates a new match with the given parameters and options.
      * 
@@ -66,16 +70,27 @@ public class Match extends Observable {
         this.gameWorldViewer = null;
     }
 
+    /**
+     * Creates a new, uninitialized match with the same teams, map, options
+     * and initial team memory as this one.
+     */
+    public Match copy() {
+        Match match = new Match(info, map, options, number, count);
+        match.state = this.state;
+        return match;
+    }
+
     /**
      * Sets up the engine for this match. Because Engine's constructor
-     * manipulates static state, engine object creation should not be done at
-     * match creation time!
+     * opens the per-match engine state, engine object creation should not be
+     * done at match creation time!
      */
     public void initialize() {
     	
 		boolean breakpointsEnabled = options.getBoolean("bc.engine.breakpoints");
         this.bytecodesUsedEnabled = 
             options.getBoolean("bc.engine.bytecodes-used"); 
+        this.resultsOnly = options.getBoolean("bc.engine.results-only");
         
 		String mapPath = options.get("bc.game.map-path");
 
@@ -123,6 +138,22 @@ public class Match extends Observable {
      */
     public RoundDelta getRound() {
 
+        if (!runRound())
+            return null;
+
+        // Serialize the newly modified GameWorld.
+        return new RoundDelta(
+                gameWorldViewer.getAllSignals(this.bytecodesUsedEnabled));
+    }
+
+    /**
+     * Runs the next round without collecting its signals. Notifies observers
+     * of anything other than a successful run.
+     * 
+     * @return false if the engine's result was completion
+     */
+    public boolean runRound() {
+
         // Run the next round.
         GameState result = engine.runRound();
 
@@ -133,12 +164,15 @@ public class Match extends Observable {
             clearChanged();
         }
 
-        if (result == GameState.DONE)
-            return null;
+        return result != GameState.DONE;
+    }
 
-        // Serialize the newly modified GameWorld.
-        return new RoundDelta(
-                gameWorldViewer.getAllSignals(this.bytecodesUsedEnabled));
+    /**
+     * Whether this match only computes the result of the game, without
+     * the signals that describe each round (see bc.engine.results-only).
+     */
+    public boolean isResultsOnly() {
+        return resultsOnly;
     }
 
     /**
@@ -159,6 +193,16 @@ public class Match extends Observable {
         return gameWorldViewer.getGameStats();
     }
     
+    /**
+     * Computes a keyframe: a delta that recreates the state of the world
+     * after the most recently computed round, starting from an empty map.
+     *
+     * @return the keyframe for the current round
+     */
+    public RoundDelta getKeyframe() {
+        return new RoundDelta(gameWorldViewer.getStateSignals());
+    }
+
     /**
      * Gets the header data for this match.
      * 
@@ -197,9 +241,11 @@ public class Match extends Observable {
      * Gets the winner of this match.
      * 
      * @return the Team that has won the match, or null if the match has not yet
-     *         finished
+     *         finished; still available after {@link #finish}
      */
     public Team getWinner() {
+        if (engine == null)
+            return winner;
         if (hasMoreRounds())
             return null;
         return gameWorldViewer.getWinner();
@@ -281,14 +327,27 @@ public class Match extends Observable {
      *         round is 1 (0 if no rounds have been run yet)
      */
     public int getRoundNumber() {
-        return Engine.getRoundNum() + 1;
+        return gameWorldViewer.getCurrentRound() + 1;
     }
     
+    /**
+     * Stops the match before it is over and cleans it up.  Used when its
+     * result is no longer needed.
+     */
+    public void abort() {
+    	this.engine.abort();
+    	this.engine.close();
+    	this.gameWorldViewer = null;
+    	this.engine = null;
+    }
+
     /**
      * Cleans up the match so that its resources can be garbage collected.
      */
     public void finish() {
     	this.computedArchonMemory = this.engine.getArchonMemory();
+    	this.winner = getWinner();
+    	this.engine.close();
     	this.gameWorldViewer = null;
     	this.engine = null;
     }
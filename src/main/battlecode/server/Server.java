@@ -2,6 +2,7 @@ package battlecode.server;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
 
 import battlecode.common.Team;
 import battlecode.engine.ErrorReporter;
@@ -9,7 +10,11 @@ import battlecode.engine.GameState;
 import battlecode.serial.*;
 import battlecode.serial.notification.*;
 import battlecode.server.controller.Controller;
+import battlecode.server.proxy.AsyncProxy;
 import battlecode.server.proxy.Proxy;
+import battlecode.server.proxy.RecordingProxy;
+import battlecode.server.proxy.SharedEncoder;
+import battlecode.server.proxy.SpectatorProxy;
 
 import battlecode.engine.signal.Signal;
 
@@ -53,7 +58,7 @@ public class Server implements Observer, Runnable {
 	 * operation.
 	 */
 	public static enum Mode {
-		HEADLESS, LOCAL, TCP, SCRIMMAGE, TOURNAMENT, TESTS, AUTOTEST, MATCH, PIPE
+		HEADLESS, LOCAL, TCP, SCRIMMAGE, TOURNAMENT, TESTS, AUTOTEST, MATCH, PIPE, BATCH
 	}
 
 	/**
@@ -72,12 +77,29 @@ public class Server implements Observer, Runnable {
 		this.mode = mode;
 		this.controller = controller;
 		this.proxies = new LinkedList<Proxy>();
-		for (Proxy proxy : proxies)
-			this.proxies.add(proxy);
+		// Give each proxy its own writer thread, so that the engine doesn't
+		// wait on serialization or I/O.
+		int writeQueue = options.getInt("bc.server.write-queue");
+		// When the same match data goes to several proxies, serialize it once.
+		SharedEncoder encoder = proxies.length > 1 ? new SharedEncoder() : null;
+		for (Proxy proxy : proxies) {
+			if (encoder != null)
+				proxy.setEncoder(encoder);
+			if (writeQueue > 0)
+				this.proxies.add(new AsyncProxy(proxy, writeQueue));
+			else
+				this.proxies.add(proxy);
+		}
 
 		this.options = options;
 		this.state = State.NOT_READY;
 		this.nHandler = new ServerNotificationHandler();
+
+		// a viewer needs the rounds, so only headless runs can skip them
+		if (options.getBoolean("bc.engine.results-only") && !isHeadlessMode()) {
+			warn("bc.engine.results-only only applies to headless modes; ignoring it");
+			options.setBoolean("bc.engine.results-only", false);
+		}
 	}
 
 	/**
@@ -201,6 +223,33 @@ public class Server implements Observer, Runnable {
 			return;
 		}
 
+		int threads = options.getInt("bc.server.parallel-matches");
+		if (threads > 1 && isHeadlessMode())
+			runParallelMatches(threads);
+		else
+			runSerialMatches();
+
+		for (Proxy p : proxies) {
+			try {
+				p.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		// Let the controller clean up.
+		try {
+			controller.finish();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Runs the queued matches one after another.
+	 */
+	private void runSerialMatches() {
+
 		int aWins = 0, bWins = 0;
 
 		while (!matches.isEmpty()) {
@@ -225,10 +274,8 @@ public class Server implements Observer, Runnable {
 				
 				// Allow best of three scrimmages -- single game scrims should still work fine
 				//TODO:This "win mode" should probably be something from the database
-				if (mode == Mode.TOURNAMENT || mode == Mode.SCRIMMAGE || mode == Mode.AUTOTEST || mode == Mode.MATCH) {
-					if (aWins == 2 || bWins == 2)
-						break;
-				}
+				if (isBestOfThree() && (aWins == 2 || bWins == 2))
+					break;
 
 			} catch (Exception e) {
 				this.state = State.ERROR;
@@ -236,23 +283,199 @@ public class Server implements Observer, Runnable {
 				error("couldn't run match: " + e.getMessage());
 			}
 		}
+	}
+
+	/**
+	 * Runs the queued matches on a pool of threads, each match with its own
+	 * engine. The matches are recorded in memory and written to the proxies
+	 * in queue order, so the proxies receive the same data as they would if
+	 * the matches were run one after another.
+	 * <p>
+	 * A match normally starts with the team memory computed by the match
+	 * before it, which is not known until that match is over. Each match is
+	 * therefore started with its initial memory, and is run again when its
+	 * turn comes if the previous match left a different memory behind.
+	 */
+	private void runParallelMatches(int threads) {
+
+		List<Match> queued;
+		synchronized (matches) {
+			queued = new ArrayList<Match>(matches);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<MatchRecorder> recorders = new ArrayList<MatchRecorder>();
+		List<Future<RecordedMatch>> results = new ArrayList<Future<RecordedMatch>>();
+		for (Match match : queued) {
+			MatchRecorder recorder = new MatchRecorder(match);
+			recorders.add(recorder);
+			results.add(executor.submit(recorder));
+		}
+		executor.shutdown();
+
+		int aWins = 0, bWins = 0;
+
+		for (int i = 0; i < queued.size(); i++) {
+			Match match = queued.get(i);
+			matches.remove(match);
 
-		for (Proxy p : proxies) {
 			try {
-				p.close();
-			} catch (IOException e) {
+				RecordedMatch result = results.get(i).get();
+
+				if (!finished.isEmpty()) {
+					long[][] memory = finished.getLast().getComputedArchonMemory();
+					if (!Arrays.deepEquals(memory, match.getInitialArchonMemory())) {
+						debug("team memory changed, running match " + match + " again");
+						match = match.copy();
+						match.setInitialArchonMemory(memory);
+						result = new MatchRecorder(match).call();
+					}
+				}
+
+				say("-------------------- Match Starting --------------------");
+				say(match.toString());
+				for (Proxy p : proxies)
+					result.recording.replay(p);
+				say(result.winnerString);
+				say("-------------------- Match Finished --------------------");
+
+				finished.add(match);
+
+				if (result.winner == Team.A)
+					aWins++;
+				else if (result.winner == Team.B)
+					bWins++;
+
+				if (isBestOfThree() && (aWins == 2 || bWins == 2))
+					break;
+
+			} catch (ExecutionException e) {
+				this.state = State.ERROR;
+				e.getCause().printStackTrace();
+				error("couldn't run match: " + e.getCause().getMessage());
+			} catch (Exception e) {
+				this.state = State.ERROR;
 				e.printStackTrace();
+				error("couldn't run match: " + e.getMessage());
 			}
 		}
 
-		// Let the controller clean up.
-		try {
-			controller.finish();
-		} catch (IOException e) {
-			e.printStackTrace();
+		// Don't start matches whose results are no longer needed, and stop
+		// the ones that are running.
+		for (int i = 0; i < results.size(); i++) {
+			results.get(i).cancel(false);
+			recorders.get(i).stop();
 		}
 	}
 
+	/**
+	 * The output of a match that has been run ahead of time.
+	 */
+	private static class RecordedMatch {
+		public final RecordingProxy recording = new RecordingProxy();
+		public Team winner;
+		public String winnerString;
+	}
+
+	/**
+	 * Runs a match to completion, recording its output.
+	 */
+	private class MatchRecorder implements Callable<RecordedMatch> {
+		private final Match match;
+
+		// set when the result is no longer needed; checked between rounds
+		private volatile boolean stopped;
+
+		public MatchRecorder(Match match) {
+			this.match = match;
+		}
+
+		/**
+		 * Stops the match at the end of the current round, if it is
+		 * running.
+		 */
+		public void stop() {
+			stopped = true;
+		}
+
+		public RecordedMatch call() throws Exception {
+			RecordedMatch result = new RecordedMatch();
+			RecordingProxy recording = result.recording;
+			int keyframeInterval = keyframeInterval();
+
+			debug("running match " + match);
+			match.initialize();
+
+			recording.writeHeader(match.getHeader());
+			recording.writeObject(match.getHeaderMetadata());
+
+			IOCallback callback = new IOCallback(Collections.<Proxy>singletonList(recording));
+			match.setIOCallback(callback);
+
+			while (match.hasMoreRounds()) {
+				if (stopped) {
+					debug("stopping match " + match);
+					match.abort();
+					return null;
+				}
+				if (match.isResultsOnly()) {
+					if (!match.runRound())
+						break;
+					continue;
+				}
+				callback.round = match.getRound();
+				if (callback.round == null)
+					break;
+				callback.stats = match.getStats();
+				if (keyframeInterval > 0 && match.getRoundNumber() % keyframeInterval == 0)
+					callback.keyframe = match.getKeyframe();
+			}
+
+			callback.run();
+
+			recording.writeObject(match.getGameStats());
+			recording.writeFooter(match.getFooter());
+
+			result.winner = match.getWinner();
+			result.winnerString = match.getWinnerString();
+
+			match.finish();
+			return result;
+		}
+	}
+
+	/**
+	 * Whether the server runs matches without waiting for a client to start
+	 * them.
+	 */
+	private boolean isHeadlessMode() {
+		return Mode.HEADLESS.equals(mode) || Mode.SCRIMMAGE.equals(mode)
+				|| Mode.TOURNAMENT.equals(mode) || Mode.TESTS.equals(mode)
+				|| Mode.AUTOTEST.equals(mode) || Mode.MATCH.equals(mode)
+				|| Mode.BATCH.equals(mode);
+	}
+
+	/**
+	 * Whether the server stops once a team has won two matches.
+	 */
+	private boolean isBestOfThree() {
+		return mode == Mode.TOURNAMENT || mode == Mode.SCRIMMAGE
+				|| mode == Mode.AUTOTEST || mode == Mode.MATCH
+				|| mode == Mode.BATCH;
+	}
+
+	/**
+	 * How many rounds apart keyframes are taken, or 0 for none.  Viewers that
+	 * join on the spectator port mid-match start from the latest keyframe, so
+	 * there are always keyframes when the port is set.
+	 */
+	private int keyframeInterval() {
+		int interval = options.getInt("bc.server.keyframe-interval");
+		if (interval <= 0 && options.getInt("bc.server.spectator-port") > 0)
+			return SpectatorProxy.DEFAULT_KEYFRAME_INTERVAL;
+		return interval;
+	}
+
 	/**
 	 * Sets up a new series of matches. Blocks until the matches have been set
 	 * up.
@@ -274,19 +497,29 @@ public class Server implements Observer, Runnable {
 	private class IOCallback implements Runnable {
 		public RoundDelta round;
 		public RoundStats stats;
+		public RoundDelta keyframe;
+
+		private final List<Proxy> sinks;
+
+		public IOCallback(List<Proxy> sinks) {
+			this.sinks = sinks;
+		}
 
 		public void run() {
 			if(round!=null) {
 				try {
-					for (Proxy p : proxies) {
+					for (Proxy p : sinks) {
 						p.writeRound(round);
 						p.writeStats(stats);
+						if (keyframe != null)
+							p.writeKeyframe(keyframe);
 					}
 				} catch(IOException e) {
 					ErrorReporter.report(e,false); 
 				}
 				round = null;
 				stats = null;
+				keyframe = null;
 			}
 		}
 	}
@@ -297,9 +530,7 @@ public class Server implements Observer, Runnable {
 	 */
 	private void runMatch(Match match) throws Exception {
 
-		if (Mode.HEADLESS.equals(mode) || Mode.SCRIMMAGE.equals(mode)
-				|| Mode.TOURNAMENT.equals(mode) || Mode.TESTS.equals(mode)
-				|| Mode.AUTOTEST.equals(mode) || Mode.MATCH.equals(mode)) {
+		if (isHeadlessMode()) {
 			this.state = State.RUNNING;
 			this.runUntil = Integer.MAX_VALUE;
 		}
@@ -325,7 +556,7 @@ public class Server implements Observer, Runnable {
             p.writeObject(exHeader);
         }
 		
-		IOCallback callback = new IOCallback();
+		IOCallback callback = new IOCallback(proxies);
 		match.setIOCallback(callback);
 
 		this.state = State.RUNNING;
@@ -336,6 +567,7 @@ public class Server implements Observer, Runnable {
 		final int throttleCount = options.getInt("bc.server.throttle-count");
 		final boolean doYield = "yield".equals(throttle);
 		final boolean doSleep = "sleep".equals(throttle);
+		final int keyframeInterval = keyframeInterval();
 
 		// If there are more rounds to be run, run them and
 		// and send the round (and optionally stats) bytes to
@@ -352,9 +584,14 @@ public class Server implements Observer, Runnable {
 					break;
 				}
 
-				callback.round = match.getRound();
-				if (callback.round == null)
-					break;
+				if (match.isResultsOnly()) {
+					if (!match.runRound())
+						break;
+				} else {
+					callback.round = match.getRound();
+					if (callback.round == null)
+						break;
+				}
 
 				if (count++ == throttleCount) {
 					if (doYield)
@@ -364,9 +601,15 @@ public class Server implements Observer, Runnable {
 					count = 0;
 				}
 
+				if (match.isResultsOnly())
+					break;
+
 				// Compute stats bytes.
 				callback.stats = match.getStats();
 
+				if (keyframeInterval > 0 && match.getRoundNumber() % keyframeInterval == 0)
+					callback.keyframe = match.getKeyframe();
+
 				break;
 
 			case PAUSED:
@@ -400,6 +643,16 @@ public class Server implements Observer, Runnable {
 		return this.state;
 	}
 
+	/**
+	 * Returns the winners of the matches that have been run, in order.
+	 */
+	public List<Team> getWinners() {
+		List<Team> winners = new ArrayList<Team>();
+		for (Match match : finished)
+			winners.add(match.getWinner());
+		return winners;
+	}
+
 	/**
 	 * This method is used to display error messages. Invoking it terminates the
 	 * program.
@@ -6,10 +6,12 @@ import java.net.Socket;
 import java.util.LinkedList;
 import java.util.List;
 
+import battlecode.serial.MatchInfo;
 import battlecode.server.controller.Controller;
 import battlecode.server.controller.ControllerFactory;
 import battlecode.server.proxy.Proxy;
 import battlecode.server.proxy.ProxyFactory;
+import battlecode.server.proxy.SpectatorProxy;
 
 public class ServerFactory {
 
@@ -23,6 +25,7 @@ public class ServerFactory {
 			proxies.add(ProxyFactory.createProxyFromFile(saveFile));
 
 		proxies.add(proxy);
+		addSpectatorProxy(options, proxies);
 
 		Server server = new Server(options, Server.Mode.LOCAL, controller,
 				proxies.toArray(new Proxy[0]));
@@ -38,10 +41,31 @@ public class ServerFactory {
 		Controller controller = ControllerFactory
 				.createHeadlessController(options);
 
+		List<Proxy> proxies = new LinkedList<Proxy>();
+		proxies.add(ProxyFactory.createProxyFromFile(saveFile));
+		addSpectatorProxy(options, proxies);
+
+		Server server = new Server(options, Server.Mode.HEADLESS, controller,
+				proxies.toArray(new Proxy[proxies.size()]));
+		controller.addObserver(server);
+
+		return server;
+	}
+
+	/**
+	 * Creates a server that runs one pairing of a batch, saving its matches
+	 * to the given file.
+	 */
+	public static Server createBatchServer(Config options, MatchInfo info,
+			String saveFile) throws IOException {
+
+		Controller controller = ControllerFactory
+				.createHeadlessController(info);
+
 		Proxy[] proxies = new Proxy[] { ProxyFactory
 				.createProxyFromFile(saveFile) };
 
-		Server server = new Server(options, Server.Mode.HEADLESS, controller,
+		Server server = new Server(options, Server.Mode.BATCH, controller,
 				proxies);
 		controller.addObserver(server);
 
@@ -84,6 +108,7 @@ public class ServerFactory {
 			proxies.add(ProxyFactory.createProxyFromFile(saveFile));
 
 		proxies.add(ProxyFactory.createProxy(clientSocket.getOutputStream()));
+		addSpectatorProxy(options, proxies);
 
 		Server server = new Server(options, Server.Mode.TCP, controller,
 				proxies.toArray(new Proxy[proxies.size()]));
@@ -103,6 +128,7 @@ public class ServerFactory {
 			proxies.add(ProxyFactory.createProxyFromFile(saveFile));
 
 		proxies.add(ProxyFactory.createProxy(System.out));
+		addSpectatorProxy(options, proxies);
 
 		// since we're sending the match file to System.out, don't send log
 		// messages there
@@ -114,4 +140,15 @@ public class ServerFactory {
 		return server;
 	}
 
+	/**
+	 * Adds a proxy that streams the matches to viewers connecting to
+	 * bc.server.spectator-port, if it is set.
+	 */
+	private static void addSpectatorProxy(Config options, List<Proxy> proxies) {
+		int port = options.getInt("bc.server.spectator-port");
+		if (port > 0)
+			proxies.add(new SpectatorProxy(port,
+					options.getInt("bc.server.spectator-queue")));
+	}
+
 }
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 
+import battlecode.serial.MatchInfo;
 import battlecode.server.Config;
 import battlecode.server.proxy.Proxy;
 import battlecode.server.proxy.XStreamProxy;
@@ -39,6 +40,19 @@ public class ControllerFactory {
 		return new HeadlessController(options);
 	}
 
+	/**
+	 * Creates a controller that feeds the given match parameters, as used
+	 * to run the pairings of a batch.
+	 *
+	 * @param info
+	 *     the teams and maps to run
+	 * @return
+	 *     a Controller instance that starts the given matches
+	 */
+	public static Controller createHeadlessController(MatchInfo info) {
+		return new HeadlessController(info);
+	}
+
 	public static Controller createLocalController(Config options, Proxy proxy) {
 		return new LocalController(options, proxy);
 	}
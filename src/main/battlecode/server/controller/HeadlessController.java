@@ -27,6 +27,16 @@ class HeadlessController extends Controller {
 				options.get("bc.game.maps").split(",")
 			);
 	}
+
+	/**
+	 * Creates a headless controller for the given teams and maps.
+	 *
+	 * @param info
+	 *     the teams and maps to run
+	 */
+	HeadlessController(MatchInfo info) {
+		configInfo = info;
+	}
 	
 	/**
 	 * Passes the parameters back to the server and sends the start
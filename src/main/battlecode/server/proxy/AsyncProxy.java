@@ -0,0 +1,204 @@
+package battlecode.server.proxy;
+
+import java.io.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import battlecode.serial.*;
+
+/**
+ * A proxy that hands match data to another proxy on a thread of its own, so
+ * that the engine doesn't wait for serialization, compression or the disk
+ * while it runs the next round.
+ * <p>
+ * Writes are queued in order and return immediately unless the queue is
+ * full, in which case they wait for the writer thread to catch up.  An
+ * IOException thrown by the underlying proxy is reported by the next call to
+ * this proxy, and anything written after it is discarded.
+ * <p>
+ * The objects written must not be changed afterwards, since they may be
+ * serialized at any later time.  Match data is never changed once it has
+ * been computed, so this is normally not a concern.
+ */
+public class AsyncProxy extends Proxy {
+
+	private static final int HEADER = 0, ROUND = 1, STATS = 2, FOOTER = 3,
+			KEYFRAME = 4, OBJECT = 5, CLOSE = 6;
+
+	private static class Write {
+		final int kind;
+		final Object data;
+
+		Write(int kind, Object data) {
+			this.kind = kind;
+			this.data = data;
+		}
+	}
+
+	private final Proxy proxy;
+
+	private final BlockingQueue<Write> queue;
+
+	private final Thread writer;
+
+	/** The first exception thrown by the underlying proxy, if any. */
+	private volatile IOException failure;
+
+	/**
+	 * Creates a new AsyncProxy.
+	 *
+	 * @param proxy the proxy to write to
+	 * @param capacity the number of writes that may be waiting at once
+	 */
+	public AsyncProxy(Proxy proxy, int capacity) {
+		this.proxy = proxy;
+		this.queue = new ArrayBlockingQueue<Write>(capacity);
+		this.writer = new Thread(new Runnable() {
+			public void run() {
+				drain();
+			}
+		}, "proxy writer (" + proxy.getClass().getSimpleName() + ")");
+		this.writer.setDaemon(true);
+	}
+
+	/**
+	 * Returns the proxy that this proxy writes to.
+	 */
+	public Proxy getProxy() {
+		return proxy;
+	}
+
+	protected OutputStream getOutputStream() throws IOException {
+		return null;
+	}
+
+	/**
+	 * Opens the underlying proxy on the calling thread, so that a proxy that
+	 * can't be opened is reported right away, then starts the writer thread.
+	 */
+	public void open() throws IOException {
+		proxy.open();
+		writer.start();
+	}
+
+	/**
+	 * Waits for everything that has been written to reach the underlying
+	 * proxy, then closes it.
+	 */
+	public void close() throws IOException {
+		// the underlying proxy is closed even if a write failed
+		put(new Write(CLOSE, null));
+		boolean interrupted = false;
+		while (writer.isAlive()) {
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		checkFailure();
+	}
+
+	public void writeHeader(MatchHeader header) throws IOException {
+		enqueue(HEADER, header);
+	}
+
+	public void writeRound(RoundDelta round) throws IOException {
+		enqueue(ROUND, round);
+	}
+
+	public void writeStats(RoundStats stats) throws IOException {
+		enqueue(STATS, stats);
+	}
+
+	public void writeFooter(MatchFooter footer) throws IOException {
+		enqueue(FOOTER, footer);
+	}
+
+	public void writeKeyframe(RoundDelta state) throws IOException {
+		enqueue(KEYFRAME, state);
+	}
+
+	public void writeObject(Object o) throws IOException {
+		enqueue(OBJECT, o);
+	}
+
+	public void setEncoder(SharedEncoder encoder) {
+		proxy.setEncoder(encoder);
+	}
+
+	private void checkFailure() throws IOException {
+		IOException e = failure;
+		if (e != null)
+			throw e;
+	}
+
+	private void enqueue(int kind, Object data) throws IOException {
+		checkFailure();
+		put(new Write(kind, data));
+	}
+
+	private void put(Write w) throws IOException {
+		try {
+			queue.put(w);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for proxy writer");
+		}
+	}
+
+	private void drain() {
+		while (true) {
+			Write w;
+			try {
+				w = queue.take();
+			} catch (InterruptedException e) {
+				continue;
+			}
+			// keep draining after a failure so that writers don't block
+			if (failure != null && w.kind != CLOSE)
+				continue;
+			try {
+				if (w.kind == CLOSE)
+					proxy.close();
+				else
+					write(w);
+			} catch (IOException e) {
+				if (failure == null)
+					failure = e;
+			} catch (RuntimeException e) {
+				IOException ioe = new IOException("proxy writer failed: " + e);
+				ioe.initCause(e);
+				if (failure == null)
+					failure = ioe;
+			}
+			if (w.kind == CLOSE)
+				return;
+		}
+	}
+
+	private void write(Write w) throws IOException {
+		switch (w.kind) {
+		case HEADER:
+			proxy.writeHeader((MatchHeader) w.data);
+			break;
+		case ROUND:
+			proxy.writeRound((RoundDelta) w.data);
+			break;
+		case STATS:
+			proxy.writeStats((RoundStats) w.data);
+			break;
+		case FOOTER:
+			proxy.writeFooter((MatchFooter) w.data);
+			break;
+		case KEYFRAME:
+			proxy.writeKeyframe((RoundDelta) w.data);
+			break;
+		default:
+			proxy.writeObject(w.data);
+			break;
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package battlecode.server.proxy;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import battlecode.serial.*;
+import battlecode.serial.notification.*;
+import battlecode.server.Server;
+
+import static battlecode.server.proxy.BinaryMatchFormat.*;
+
+/**
+ * Saves match data to a file in the compact binary format described in
+ * BinaryMatchFormat.  Like FileProxy, it writes to a temporary file and
+ * moves it into place when the proxy is closed.
+ */
+public class BinaryFileProxy extends Proxy {
+
+	/** The original file. */
+	protected final File file;
+
+	/** The temp file. */
+	protected final File temp;
+
+	private final FileOutputStream fileWriter;
+
+	private final FileChannel channel;
+
+	private final BinaryMatchFormat.Encoder encoder = new BinaryMatchFormat.Encoder();
+
+	private final ByteBuffer frameHeader = ByteBuffer.allocate(6);
+
+	private final ByteBuffer[] frame = new ByteBuffer[2];
+
+	/** The number of bytes written so far. */
+	private long position;
+
+	private final List<Long> headerOffsets = new ArrayList<Long>();
+
+	private final List<List<Long>> roundOffsets = new ArrayList<List<Long>>();
+
+	/**
+	 * Creates a new BinaryFileProxy that writes to the given file.
+	 *
+	 * @param fileName
+	 *            The name of the file to write to.
+	 * @throws IOException
+	 *             if the file cannot be opened or written to.
+	 */
+	public BinaryFileProxy(String fileName) throws IOException {
+		super();
+
+		// Create directories if necessary.
+		file = new File(fileName);
+		if (!file.exists() && file.getParentFile() != null)
+			file.getParentFile().mkdirs();
+
+		temp = File.createTempFile("battlecode", ".tmp", new File(System
+				.getProperty("user.dir")));
+		temp.deleteOnExit();
+
+		fileWriter = new FileOutputStream(temp);
+		channel = fileWriter.getChannel();
+
+		ByteBuffer start = ByteBuffer.allocate(MAGIC.length + 5);
+		start.put(MAGIC);
+		putVarint(start, VERSION);
+		start.flip();
+		write(start);
+	}
+
+	protected OutputStream getOutputStream() throws IOException {
+		return null;
+	}
+
+	public void close() throws IOException {
+		long indexOffset = position;
+		writeFrame(FRAME_INDEX, encoder.encodeIndex(headerOffsets, roundOffsets));
+
+		ByteBuffer end = ByteBuffer.allocate(8 + INDEX_MAGIC.length);
+		end.putLong(indexOffset);
+		end.put(INDEX_MAGIC);
+		end.flip();
+		write(end);
+
+		channel.close();
+		fileWriter.close();
+
+		// Move the file to its desired location.
+		if (file.exists())
+			file.delete();
+		if (!temp.renameTo(file))
+			Server.warn("unable to rename match file");
+	}
+
+	public void writeHeader(MatchHeader header) throws IOException {
+		headerOffsets.add(position);
+		roundOffsets.add(new ArrayList<Long>());
+		writeFrame(FRAME_HEADER, encoder.encodeSerialized(header));
+	}
+
+	public void writeRound(RoundDelta round) throws IOException {
+		if (!roundOffsets.isEmpty())
+			roundOffsets.get(roundOffsets.size() - 1).add(position);
+		writeFrame(FRAME_ROUND, encoder.encode(round));
+	}
+
+	public void writeStats(RoundStats stats) throws IOException {
+		writeFrame(FRAME_STATS, encoder.encode(stats));
+	}
+
+	public void writeFooter(MatchFooter footer) throws IOException {
+		writeFrame(FRAME_FOOTER, encoder.encodeSerialized(footer));
+	}
+
+	public void writeObject(Object o) throws IOException {
+		if (o instanceof Notification)
+			return;
+		if (o instanceof MatchHeader)
+			writeHeader((MatchHeader) o);
+		else if (o instanceof RoundDelta)
+			writeRound((RoundDelta) o);
+		else if (o instanceof RoundStats)
+			writeStats((RoundStats) o);
+		else if (o instanceof MatchFooter)
+			writeFooter((MatchFooter) o);
+		else
+			writeFrame(FRAME_OBJECT, encoder.encodeSerialized(o));
+	}
+
+	private void writeFrame(byte kind, ByteBuffer payload) throws IOException {
+		frameHeader.clear();
+		frameHeader.put(kind);
+		putVarint(frameHeader, payload.remaining());
+		frameHeader.flip();
+		frame[0] = frameHeader;
+		frame[1] = payload;
+		long n = frameHeader.remaining() + payload.remaining();
+		while (frameHeader.hasRemaining() || payload.hasRemaining())
+			channel.write(frame);
+		position += n;
+	}
+
+	private void write(ByteBuffer b) throws IOException {
+		position += b.remaining();
+		while (b.hasRemaining())
+			channel.write(b);
+	}
+}
@@ -0,0 +1,713 @@
+package battlecode.server.proxy;
+
+import java.io.*;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.thoughtworks.xstream.converters.reflection.ReflectionProvider;
+import com.thoughtworks.xstream.core.JVM;
+
+/**
+ * The compact binary match file format written by BinaryFileProxy and read
+ * by BinaryMatchReader.
+ * <p>
+ * A file starts with MAGIC and VERSION, followed by a sequence of frames.
+ * Each frame is a kind byte, a varint payload length, and the payload.
+ * Rounds and round stats are encoded field by field: integers are zigzag
+ * varints, and each class and string is described in full the first time
+ * it is used and referred to by number afterwards.  Headers, footers and
+ * anything else that is written once per match are stored with ordinary
+ * Java serialization.
+ * <p>
+ * When the file is closed, an INDEX frame is appended with the offsets of
+ * every header and round, plus the complete class and string tables, so
+ * that a reader can start decoding at any round.  The last twelve bytes of
+ * the file are the offset of the index frame and INDEX_MAGIC.
+ */
+final class BinaryMatchFormat {
+
+	static final byte[] MAGIC = { 'B', 'C', 'M', 'F' };
+	static final byte[] INDEX_MAGIC = { 'B', 'C', 'M', 'I' };
+	static final int VERSION = 1;
+
+	static final byte FRAME_HEADER = 1;
+	static final byte FRAME_ROUND = 2;
+	static final byte FRAME_STATS = 3;
+	static final byte FRAME_FOOTER = 4;
+	static final byte FRAME_OBJECT = 5;
+	static final byte FRAME_INDEX = 6;
+
+	static final byte KIND_OBJECT = 0;
+	static final byte KIND_ENUM = 1;
+	static final byte KIND_ARRAY = 2;
+	static final byte KIND_STRING = 3;
+	static final byte KIND_SERIALIZED = 4;
+
+	// references to classes and strings: 0 is null, 1 introduces a new
+	// table entry, 2 is a string that is not added to the table, and
+	// anything else is a table entry
+	private static final int REF_NULL = 0;
+	private static final int REF_NEW = 1;
+	private static final int REF_INLINE = 2;
+	private static final int REF_TABLE = 3;
+
+	/** The string table stops growing at this size, in case a player prints a new indicator string every round. */
+	private static final int MAX_STRINGS = 1 << 16;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private BinaryMatchFormat() {
+	}
+
+	static void putVarint(ByteBuffer buf, int v) {
+		while ((v & ~0x7F) != 0) {
+			buf.put((byte) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		buf.put((byte) v);
+	}
+
+	static int getVarint(ByteBuffer buf) {
+		int v = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte b = buf.get();
+			v |= (b & 0x7F) << shift;
+			if (b >= 0)
+				return v;
+		}
+	}
+
+	/**
+	 * Describes how instances of one class are encoded.
+	 */
+	static final class TypeInfo {
+		final int id;
+		final String name;
+		final Class<?> type;
+		final byte kind;
+		// for objects
+		final String[] fieldNames;
+		final char[] fieldCodes;
+		final Field[] fields;
+		// for arrays
+		final char componentCode;
+
+		private TypeInfo(int id, String name, Class<?> type, byte kind, String[] fieldNames, char[] fieldCodes, Field[] fields, char componentCode) {
+			this.id = id;
+			this.name = name;
+			this.type = type;
+			this.kind = kind;
+			this.fieldNames = fieldNames;
+			this.fieldCodes = fieldCodes;
+			this.fields = fields;
+			this.componentCode = componentCode;
+		}
+
+		/**
+		 * Describes a class that is about to be written.
+		 */
+		static TypeInfo forClass(int id, Class<?> type) {
+			if (type == String.class)
+				return new TypeInfo(id, type.getName(), type, KIND_STRING, null, null, null, '\0');
+			if (type.isEnum())
+				return new TypeInfo(id, type.getName(), type, KIND_ENUM, null, null, null, '\0');
+			if (type.getSuperclass() != null && type.getSuperclass().isEnum())
+				// constant-specific class body
+				return new TypeInfo(id, type.getSuperclass().getName(), type.getSuperclass(), KIND_ENUM, null, null, null, '\0');
+			if (type.isArray())
+				return new TypeInfo(id, type.getName(), type, KIND_ARRAY, null, null, null, codeFor(type.getComponentType()));
+			if (!type.getName().startsWith("battlecode.") || hasWriteObject(type))
+				return new TypeInfo(id, type.getName(), type, KIND_SERIALIZED, null, null, null, '\0');
+			List<Field> fieldList = serializedFields(type);
+			Field[] fields = fieldList.toArray(new Field[fieldList.size()]);
+			String[] names = new String[fields.length];
+			char[] codes = new char[fields.length];
+			for (int i = 0; i < fields.length; i++) {
+				names[i] = fields[i].getName();
+				codes[i] = codeFor(fields[i].getType());
+			}
+			return new TypeInfo(id, type.getName(), type, KIND_OBJECT, names, codes, fields, '\0');
+		}
+
+		/**
+		 * Describes a class that was defined in a file.  Fields that no
+		 * longer exist are read and then discarded.
+		 */
+		static TypeInfo forDefinition(int id, String name, byte kind, String[] fieldNames, char[] fieldCodes, char componentCode) throws IOException {
+			Class<?> type;
+			try {
+				type = Class.forName(name);
+			} catch (ClassNotFoundException e) {
+				throw new InvalidClassException(name, "class not found");
+			}
+			Field[] fields = null;
+			if (kind == KIND_OBJECT) {
+				Map<String, Field> byName = new HashMap<String, Field>();
+				for (Field f : serializedFields(type))
+					byName.put(f.getName(), f);
+				fields = new Field[fieldNames.length];
+				for (int i = 0; i < fieldNames.length; i++) {
+					Field f = byName.get(fieldNames[i]);
+					if (f != null && codeFor(f.getType()) == fieldCodes[i])
+						fields[i] = f;
+				}
+			}
+			return new TypeInfo(id, name, type, kind, fieldNames, fieldCodes, fields, componentCode);
+		}
+
+		private static boolean hasWriteObject(Class<?> type) {
+			for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+				try {
+					c.getDeclaredMethod("writeObject", ObjectOutputStream.class);
+					return true;
+				} catch (NoSuchMethodException e) {
+				}
+			}
+			return false;
+		}
+
+		private static List<Field> serializedFields(Class<?> type) {
+			List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+			for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass())
+				hierarchy.add(0, c);
+			List<Field> result = new ArrayList<Field>();
+			for (Class<?> c : hierarchy) {
+				for (Field f : c.getDeclaredFields()) {
+					int mod = f.getModifiers();
+					if (Modifier.isStatic(mod) || Modifier.isTransient(mod))
+						continue;
+					f.setAccessible(true);
+					result.add(f);
+				}
+			}
+			return result;
+		}
+
+		private static char codeFor(Class<?> type) {
+			if (type == int.class) return 'I';
+			if (type == boolean.class) return 'Z';
+			if (type == double.class) return 'D';
+			if (type == long.class) return 'J';
+			if (type == float.class) return 'F';
+			if (type == byte.class) return 'B';
+			if (type == short.class) return 'S';
+			if (type == char.class) return 'C';
+			return 'L';
+		}
+	}
+
+	/**
+	 * Encodes objects into a reusable buffer.  The class and string tables
+	 * grow as new classes and strings are written, and are never cleared.
+	 */
+	static final class Encoder {
+
+		private ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+
+		private final Map<Class<?>, TypeInfo> types = new HashMap<Class<?>, TypeInfo>();
+		private final List<TypeInfo> typeList = new ArrayList<TypeInfo>();
+		private final Map<String, Integer> strings = new HashMap<String, Integer>();
+		private final List<String> stringList = new ArrayList<String>();
+
+		/**
+		 * Encodes <tt>o</tt> field by field.  The result is only valid until
+		 * the next call to an encode method.
+		 */
+		ByteBuffer encode(Object o) throws IOException {
+			buf.clear();
+			writeValue(o);
+			buf.flip();
+			return buf;
+		}
+
+		/**
+		 * Encodes <tt>o</tt> with Java serialization.
+		 */
+		ByteBuffer encodeSerialized(Object o) throws IOException {
+			buf.clear();
+			putSerialized(o);
+			buf.flip();
+			return buf;
+		}
+
+		/**
+		 * Encodes the index: the class and string tables, then the given
+		 * offsets of each match's header and rounds.
+		 */
+		ByteBuffer encodeIndex(List<Long> headerOffsets, List<List<Long>> roundOffsets) throws IOException {
+			buf.clear();
+			putVarint(typeList.size());
+			for (TypeInfo t : typeList)
+				putDefinition(t);
+			putVarint(stringList.size());
+			for (String s : stringList)
+				putUTF(s);
+			putVarint(headerOffsets.size());
+			for (int i = 0; i < headerOffsets.size(); i++) {
+				putVarlong(headerOffsets.get(i));
+				List<Long> rounds = roundOffsets.get(i);
+				putVarint(rounds.size());
+				long last = headerOffsets.get(i);
+				for (long offset : rounds) {
+					putVarlong(offset - last);
+					last = offset;
+				}
+			}
+			buf.flip();
+			return buf;
+		}
+
+		private void writeValue(Object o) throws IOException {
+			if (o == null) {
+				putVarint(REF_NULL);
+				return;
+			}
+			TypeInfo t = types.get(o.getClass());
+			if (t == null) {
+				t = TypeInfo.forClass(typeList.size(), o.getClass());
+				types.put(o.getClass(), t);
+				typeList.add(t);
+				putVarint(REF_NEW);
+				putVarint(t.id);
+				putDefinition(t);
+			} else
+				putVarint(REF_TABLE + t.id);
+			switch (t.kind) {
+			case KIND_STRING:
+				writeString((String) o);
+				break;
+			case KIND_ENUM:
+				putVarint(((Enum<?>) o).ordinal());
+				break;
+			case KIND_ARRAY:
+				writeArray(o, t.componentCode);
+				break;
+			case KIND_SERIALIZED:
+				putSerialized(o);
+				break;
+			default:
+				try {
+					for (int i = 0; i < t.fields.length; i++)
+						writeField(o, t.fields[i], t.fieldCodes[i]);
+				} catch (IllegalAccessException e) {
+					throw new NotSerializableException(t.name);
+				}
+			}
+		}
+
+		private void writeField(Object o, Field f, char code) throws IOException, IllegalAccessException {
+			switch (code) {
+			case 'I': putZigzag(f.getInt(o)); break;
+			case 'Z': ensure(1); buf.put((byte) (f.getBoolean(o) ? 1 : 0)); break;
+			case 'D': ensure(8); buf.putDouble(f.getDouble(o)); break;
+			case 'J': { long v = f.getLong(o); putVarlong((v << 1) ^ (v >> 63)); break; }
+			case 'F': ensure(4); buf.putFloat(f.getFloat(o)); break;
+			case 'B': ensure(1); buf.put(f.getByte(o)); break;
+			case 'S': putZigzag(f.getShort(o)); break;
+			case 'C': putVarint(f.getChar(o)); break;
+			default: writeValue(f.get(o));
+			}
+		}
+
+		private void writeArray(Object array, char code) throws IOException {
+			int n = Array.getLength(array);
+			putVarint(n);
+			switch (code) {
+			case 'I': {
+				int[] a = (int[]) array;
+				for (int i = 0; i < n; i++)
+					putZigzag(a[i]);
+				break;
+			}
+			case 'D': {
+				double[] a = (double[]) array;
+				ensure(8 * n);
+				for (int i = 0; i < n; i++)
+					buf.putDouble(a[i]);
+				break;
+			}
+			case 'J': {
+				long[] a = (long[]) array;
+				for (int i = 0; i < n; i++)
+					putVarlong((a[i] << 1) ^ (a[i] >> 63));
+				break;
+			}
+			case 'Z': {
+				boolean[] a = (boolean[]) array;
+				ensure(n);
+				for (int i = 0; i < n; i++)
+					buf.put((byte) (a[i] ? 1 : 0));
+				break;
+			}
+			case 'B':
+				ensure(n);
+				buf.put((byte[]) array);
+				break;
+			case 'F': {
+				float[] a = (float[]) array;
+				ensure(4 * n);
+				for (int i = 0; i < n; i++)
+					buf.putFloat(a[i]);
+				break;
+			}
+			case 'S': {
+				short[] a = (short[]) array;
+				for (int i = 0; i < n; i++)
+					putZigzag(a[i]);
+				break;
+			}
+			case 'C': {
+				char[] a = (char[]) array;
+				for (int i = 0; i < n; i++)
+					putVarint(a[i]);
+				break;
+			}
+			default: {
+				Object[] a = (Object[]) array;
+				for (int i = 0; i < n; i++)
+					writeValue(a[i]);
+			}
+			}
+		}
+
+		private void writeString(String s) {
+			Integer id = strings.get(s);
+			if (id != null)
+				putVarint(REF_TABLE + id);
+			else if (stringList.size() < MAX_STRINGS) {
+				id = stringList.size();
+				strings.put(s, id);
+				stringList.add(s);
+				putVarint(REF_NEW);
+				putVarint(id);
+				putUTF(s);
+			} else {
+				putVarint(REF_INLINE);
+				putUTF(s);
+			}
+		}
+
+		private void putDefinition(TypeInfo t) {
+			putUTF(t.name);
+			ensure(1);
+			buf.put(t.kind);
+			if (t.kind == KIND_OBJECT) {
+				putVarint(t.fieldNames.length);
+				for (int i = 0; i < t.fieldNames.length; i++) {
+					putUTF(t.fieldNames[i]);
+					ensure(1);
+					buf.put((byte) t.fieldCodes[i]);
+				}
+			} else if (t.kind == KIND_ARRAY) {
+				ensure(1);
+				buf.put((byte) t.componentCode);
+			}
+		}
+
+		private void putSerialized(Object o) throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(o);
+			out.close();
+			putVarint(bytes.size());
+			ensure(bytes.size());
+			buf.put(bytes.toByteArray());
+		}
+
+		private void putUTF(String s) {
+			byte[] b = s.getBytes(UTF8);
+			putVarint(b.length);
+			ensure(b.length);
+			buf.put(b);
+		}
+
+		private void putZigzag(int v) {
+			putVarint((v << 1) ^ (v >> 31));
+		}
+
+		private void putVarint(int v) {
+			ensure(5);
+			BinaryMatchFormat.putVarint(buf, v);
+		}
+
+		private void putVarlong(long v) {
+			ensure(10);
+			while ((v & ~0x7FL) != 0) {
+				buf.put((byte) ((v & 0x7F) | 0x80));
+				v >>>= 7;
+			}
+			buf.put((byte) v);
+		}
+
+		private void ensure(int n) {
+			if (buf.remaining() < n) {
+				ByteBuffer bigger = ByteBuffer.allocate(Math.max(2 * buf.capacity(), buf.position() + n));
+				buf.flip();
+				bigger.put(buf);
+				buf = bigger;
+			}
+		}
+	}
+
+	/**
+	 * Decodes objects written by an Encoder.  Tables can be loaded from the
+	 * index up front, or built up while reading the file from the start.
+	 */
+	static final class Decoder {
+
+		private static final ReflectionProvider reflection = new JVM().bestReflectionProvider();
+
+		private final List<TypeInfo> types = new ArrayList<TypeInfo>();
+		private final List<String> strings = new ArrayList<String>();
+
+		private ByteBuffer buf;
+
+		Object decode(ByteBuffer in) throws IOException {
+			buf = in;
+			try {
+				return readValue();
+			} catch (RuntimeException e) {
+				throw corrupted(e);
+			}
+		}
+
+		Object decodeSerialized(ByteBuffer in) throws IOException {
+			buf = in;
+			try {
+				return readSerialized();
+			} catch (RuntimeException e) {
+				throw corrupted(e);
+			}
+		}
+
+		/**
+		 * Reads an index frame, filling in the class and string tables and
+		 * the offsets.
+		 */
+		void decodeIndex(ByteBuffer in, List<Long> headerOffsets, List<List<Long>> roundOffsets) throws IOException {
+			buf = in;
+			try {
+				int typeCount = getVarint();
+				for (int i = 0; i < typeCount; i++)
+					setType(readDefinition(i));
+				int stringCount = getVarint();
+				for (int i = 0; i < stringCount; i++)
+					setString(i, getUTF());
+				int matchCount = getVarint();
+				for (int i = 0; i < matchCount; i++) {
+					long last = getVarlong();
+					headerOffsets.add(last);
+					int roundCount = getVarint();
+					List<Long> rounds = new ArrayList<Long>(roundCount);
+					for (int j = 0; j < roundCount; j++) {
+						last += getVarlong();
+						rounds.add(last);
+					}
+					roundOffsets.add(rounds);
+				}
+			} catch (RuntimeException e) {
+				throw corrupted(e);
+			}
+		}
+
+		private Object readValue() throws IOException {
+			int ref = getVarint();
+			if (ref == REF_NULL)
+				return null;
+			TypeInfo t;
+			if (ref == REF_NEW) {
+				t = readDefinition(getVarint());
+				setType(t);
+			} else
+				t = types.get(ref - REF_TABLE);
+			switch (t.kind) {
+			case KIND_STRING:
+				return readString();
+			case KIND_ENUM:
+				return t.type.getEnumConstants()[getVarint()];
+			case KIND_ARRAY:
+				return readArray(t);
+			case KIND_SERIALIZED:
+				return readSerialized();
+			default:
+				Object o = reflection.newInstance(t.type);
+				try {
+					for (int i = 0; i < t.fieldCodes.length; i++)
+						readField(o, t.fields[i], t.fieldCodes[i]);
+				} catch (IllegalAccessException e) {
+					throw new InvalidClassException(t.name, e.getMessage());
+				}
+				return o;
+			}
+		}
+
+		private void readField(Object o, Field f, char code) throws IOException, IllegalAccessException {
+			switch (code) {
+			case 'I': { int v = getZigzag(); if (f != null) f.setInt(o, v); break; }
+			case 'Z': { boolean v = buf.get() != 0; if (f != null) f.setBoolean(o, v); break; }
+			case 'D': { double v = buf.getDouble(); if (f != null) f.setDouble(o, v); break; }
+			case 'J': { long v = getVarlong(); v = (v >>> 1) ^ -(v & 1); if (f != null) f.setLong(o, v); break; }
+			case 'F': { float v = buf.getFloat(); if (f != null) f.setFloat(o, v); break; }
+			case 'B': { byte v = buf.get(); if (f != null) f.setByte(o, v); break; }
+			case 'S': { short v = (short) getZigzag(); if (f != null) f.setShort(o, v); break; }
+			case 'C': { char v = (char) getVarint(); if (f != null) f.setChar(o, v); break; }
+			default: { Object v = readValue(); if (f != null) f.set(o, v); }
+			}
+		}
+
+		private Object readArray(TypeInfo t) throws IOException {
+			int n = getVarint();
+			switch (t.componentCode) {
+			case 'I': {
+				int[] a = new int[n];
+				for (int i = 0; i < n; i++)
+					a[i] = getZigzag();
+				return a;
+			}
+			case 'D': {
+				double[] a = new double[n];
+				for (int i = 0; i < n; i++)
+					a[i] = buf.getDouble();
+				return a;
+			}
+			case 'J': {
+				long[] a = new long[n];
+				for (int i = 0; i < n; i++) {
+					long v = getVarlong();
+					a[i] = (v >>> 1) ^ -(v & 1);
+				}
+				return a;
+			}
+			case 'Z': {
+				boolean[] a = new boolean[n];
+				for (int i = 0; i < n; i++)
+					a[i] = buf.get() != 0;
+				return a;
+			}
+			case 'B': {
+				byte[] a = new byte[n];
+				buf.get(a);
+				return a;
+			}
+			case 'F': {
+				float[] a = new float[n];
+				for (int i = 0; i < n; i++)
+					a[i] = buf.getFloat();
+				return a;
+			}
+			case 'S': {
+				short[] a = new short[n];
+				for (int i = 0; i < n; i++)
+					a[i] = (short) getZigzag();
+				return a;
+			}
+			case 'C': {
+				char[] a = new char[n];
+				for (int i = 0; i < n; i++)
+					a[i] = (char) getVarint();
+				return a;
+			}
+			default: {
+				Object[] a = (Object[]) Array.newInstance(t.type.getComponentType(), n);
+				for (int i = 0; i < n; i++)
+					a[i] = readValue();
+				return a;
+			}
+			}
+		}
+
+		private String readString() {
+			int ref = getVarint();
+			if (ref == REF_NEW) {
+				int id = getVarint();
+				String s = getUTF();
+				setString(id, s);
+				return s;
+			} else if (ref == REF_INLINE)
+				return getUTF();
+			else
+				return strings.get(ref - REF_TABLE);
+		}
+
+		private TypeInfo readDefinition(int id) throws IOException {
+			String name = getUTF();
+			byte kind = buf.get();
+			String[] fieldNames = null;
+			char[] fieldCodes = null;
+			char componentCode = '\0';
+			if (kind == KIND_OBJECT) {
+				int n = getVarint();
+				fieldNames = new String[n];
+				fieldCodes = new char[n];
+				for (int i = 0; i < n; i++) {
+					fieldNames[i] = getUTF();
+					fieldCodes[i] = (char) buf.get();
+				}
+			} else if (kind == KIND_ARRAY)
+				componentCode = (char) buf.get();
+			return TypeInfo.forDefinition(id, name, kind, fieldNames, fieldCodes, componentCode);
+		}
+
+		private Object readSerialized() throws IOException {
+			int n = getVarint();
+			ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(buf.array(), buf.arrayOffset() + buf.position(), n));
+			buf.position(buf.position() + n);
+			try {
+				return in.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new InvalidClassException(e.getMessage(), "class not found");
+			}
+		}
+
+		private void setType(TypeInfo t) {
+			while (types.size() <= t.id)
+				types.add(null);
+			types.set(t.id, t);
+		}
+
+		private void setString(int id, String s) {
+			while (strings.size() <= id)
+				strings.add(null);
+			strings.set(id, s);
+		}
+
+		private String getUTF() {
+			int n = getVarint();
+			String s = new String(buf.array(), buf.arrayOffset() + buf.position(), n, UTF8);
+			buf.position(buf.position() + n);
+			return s;
+		}
+
+		private int getZigzag() {
+			int v = getVarint();
+			return (v >>> 1) ^ -(v & 1);
+		}
+
+		private int getVarint() {
+			return BinaryMatchFormat.getVarint(buf);
+		}
+
+		private long getVarlong() {
+			long v = 0;
+			for (int shift = 0; ; shift += 7) {
+				byte b = buf.get();
+				v |= (long) (b & 0x7F) << shift;
+				if (b >= 0)
+					return v;
+			}
+		}
+
+		private static IOException corrupted(RuntimeException e) {
+			IOException ioe = new StreamCorruptedException("corrupted match file: " + e);
+			ioe.initCause(e);
+			return ioe;
+		}
+	}
+}
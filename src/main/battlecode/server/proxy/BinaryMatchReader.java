@@ -0,0 +1,207 @@
+package battlecode.server.proxy;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static battlecode.server.proxy.BinaryMatchFormat.*;
+
+/**
+ * Reads match files written by BinaryFileProxy.  Objects are returned in
+ * the order they were written, as with an ObjectInputStream.  If the file
+ * has an index, the reader can also jump straight to any round.
+ */
+public class BinaryMatchReader implements Closeable {
+
+	private final RandomAccessFile file;
+
+	private final FileChannel channel;
+
+	private final BinaryMatchFormat.Decoder decoder = new BinaryMatchFormat.Decoder();
+
+	private final ByteBuffer frameHeader = ByteBuffer.allocate(6);
+
+	private ByteBuffer payload = ByteBuffer.allocate(1 << 16);
+
+	/** The offset of the next frame. */
+	private long position;
+
+	/** The offset of the index frame, or the file length if there is no index. */
+	private long end;
+
+	private final List<Long> headerOffsets = new ArrayList<Long>();
+
+	private final List<List<Long>> roundOffsets = new ArrayList<List<Long>>();
+
+	/**
+	 * Opens a match file.
+	 *
+	 * @param f the file to read
+	 * @throws IOException if the file can't be read or is not a binary match file
+	 */
+	public BinaryMatchReader(File f) throws IOException {
+		file = new RandomAccessFile(f, "r");
+		channel = file.getChannel();
+		try {
+			if (!isBinaryMatchFile(channel))
+				throw new StreamCorruptedException("not a binary match file");
+			ByteBuffer start = ByteBuffer.allocate(MAGIC.length + 5);
+			channel.read(start, 0);
+			start.flip();
+			start.position(MAGIC.length);
+			int version = getVarint(start);
+			if (version != VERSION)
+				throw new StreamCorruptedException("unsupported match file version " + version);
+			position = start.position();
+			end = channel.size();
+			readIndex();
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns whether the given file starts like a binary match file.
+	 */
+	public static boolean isBinaryMatchFile(File f) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(f, "r");
+		try {
+			return isBinaryMatchFile(file.getChannel());
+		} finally {
+			file.close();
+		}
+	}
+
+	private static boolean isBinaryMatchFile(FileChannel channel) throws IOException {
+		ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+		while (magic.hasRemaining() && channel.read(magic, magic.position()) > 0)
+			;
+		return Arrays.equals(magic.array(), MAGIC);
+	}
+
+	// loads the index, if the file was closed properly
+	private void readIndex() throws IOException {
+		long size = channel.size();
+		if (size < 8 + INDEX_MAGIC.length)
+			return;
+		ByteBuffer trailer = ByteBuffer.allocate(8 + INDEX_MAGIC.length);
+		readFully(trailer, size - trailer.capacity());
+		trailer.flip();
+		long indexOffset = trailer.getLong();
+		byte[] magic = new byte[INDEX_MAGIC.length];
+		trailer.get(magic);
+		if (!Arrays.equals(magic, INDEX_MAGIC) || indexOffset < position || indexOffset >= size)
+			return;
+		long saved = position;
+		position = indexOffset;
+		if (readFrame() != FRAME_INDEX)
+			throw new StreamCorruptedException("corrupted match file index");
+		decoder.decodeIndex(payload, headerOffsets, roundOffsets);
+		position = saved;
+		end = indexOffset;
+	}
+
+	/**
+	 * Returns whether the file has an index, which is needed for seeking.
+	 */
+	public boolean hasIndex() {
+		return !headerOffsets.isEmpty();
+	}
+
+	/**
+	 * Returns the number of matches in the file, or 0 if it has no index.
+	 */
+	public int getMatchCount() {
+		return headerOffsets.size();
+	}
+
+	/**
+	 * Returns the number of rounds in the given match.
+	 */
+	public int getRoundCount(int match) {
+		return roundOffsets.get(match).size();
+	}
+
+	/**
+	 * Positions the reader at the header of the given match.
+	 */
+	public void seekToMatch(int match) {
+		position = headerOffsets.get(match);
+	}
+
+	/**
+	 * Positions the reader so that the next call to readObject returns the
+	 * RoundDelta of the given round of the given match.  Rounds are numbered
+	 * from zero.
+	 */
+	public void seekToRound(int match, int round) {
+		position = roundOffsets.get(match).get(round);
+	}
+
+	/**
+	 * Reads the next object in the file.
+	 *
+	 * @return the next object, or null at the end of the file
+	 * @throws IOException if the file is corrupted or can't be read
+	 */
+	public Object readObject() throws IOException {
+		if (position >= end)
+			return null;
+		byte kind = readFrame();
+		switch (kind) {
+		case FRAME_ROUND:
+		case FRAME_STATS:
+			return decoder.decode(payload);
+		case FRAME_HEADER:
+		case FRAME_FOOTER:
+		case FRAME_OBJECT:
+			return decoder.decodeSerialized(payload);
+		case FRAME_INDEX:
+			position = end;
+			return null;
+		default:
+			throw new StreamCorruptedException("unknown frame type " + kind);
+		}
+	}
+
+	// reads the frame at position into payload, and returns its kind
+	private byte readFrame() throws IOException {
+		frameHeader.clear();
+		frameHeader.limit((int) Math.min(frameHeader.capacity(), channel.size() - position));
+		readFully(frameHeader, position);
+		frameHeader.flip();
+		byte kind = frameHeader.get();
+		int length;
+		try {
+			length = getVarint(frameHeader);
+		} catch (RuntimeException e) {
+			throw new StreamCorruptedException("corrupted frame header");
+		}
+		position += frameHeader.position();
+		if (payload.capacity() < length)
+			payload = ByteBuffer.allocate(Math.max(length, 2 * payload.capacity()));
+		payload.clear();
+		payload.limit(length);
+		readFully(payload, position);
+		payload.flip();
+		position += length;
+		return kind;
+	}
+
+	private void readFully(ByteBuffer b, long offset) throws IOException {
+		while (b.hasRemaining()) {
+			int n = channel.read(b, offset);
+			if (n < 0)
+				throw new EOFException();
+			offset += n;
+		}
+	}
+
+	public void close() throws IOException {
+		file.close();
+	}
+}
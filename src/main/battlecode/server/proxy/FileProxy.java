@@ -4,7 +4,9 @@ import java.io.*;
 import java.nio.ByteBuffer;
 import java.util.zip.GZIPOutputStream;
 
+import battlecode.serial.*;
 import battlecode.serial.notification.*;
+import battlecode.server.Config;
 import battlecode.server.Server;
 
 /**
@@ -29,6 +31,15 @@ public class FileProxy extends Proxy {
 	
 	protected ByteArrayOutputStream buffer;
 
+	/** Counts the bytes written to the file, for the index. */
+	private final CountingOutputStream counter;
+
+	/** The gzip member that is currently being written. */
+	private GZIPOutputStream member;
+
+	/** The index of the file, or null if it is not being indexed. */
+	private MatchFileIndex index;
+
 	/**
 	 * Creates a new FileProxy that utilizes the file given by the specified
 	 * filename.
@@ -69,8 +80,28 @@ public class FileProxy extends Proxy {
 			fileWriter = new FileOutputStream(temp);
 		}
 
-		stream = new GZIPOutputStream(fileWriter);
+		counter = new CountingOutputStream(fileWriter);
+		member = new GZIPOutputStream(counter);
+		stream = new MemberStream();
+
+	}
+
+	/**
+	 * Returns whether this proxy writes plain Java serialization to
+	 * <tt>stream</tt>, which is what the index relies on.
+	 */
+	protected boolean supportsIndex() {
+		return true;
+	}
 
+	public void open() throws IOException {
+		super.open();
+		if (supportsIndex() && output != null
+				&& Config.getGlobalConfig().getInt("bc.server.keyframe-interval") > 0) {
+			index = new MatchFileIndex();
+			// keep the stream header out of the chunks
+			startChunk();
+		}
 	}
 
 	public OutputStream getOutputStream() throws IOException {
@@ -98,6 +129,9 @@ public class FileProxy extends Proxy {
 			if (!result)
 				Server.warn("unable to rename match file");
 		}
+
+		if (index != null)
+			index.write(file);
 	}
 
 	public boolean renameTo(File temp, File file)
@@ -109,6 +143,70 @@ public class FileProxy extends Proxy {
 	public void writeObject(Object o) throws IOException {
 		if (o instanceof Notification)
 			return;
+		if (index != null) {
+			if (o instanceof MatchHeader)
+				index.addMatch(startChunk());
+			else if (o instanceof RoundDelta)
+				index.addRound();
+		}
 		super.writeObject(o);
 	}
+
+	public void writeKeyframe(RoundDelta state) throws IOException {
+		if (index != null)
+			index.addChunk(startChunk(), state);
+	}
+
+	/**
+	 * Ends the current gzip member and starts a new one, so that the next
+	 * object can be decoded without reading anything before it.
+	 *
+	 * @return the offset of the new member in the file
+	 */
+	private long startChunk() throws IOException {
+		output.flush();
+		member.finish();
+		long offset = counter.count;
+		member = new GZIPOutputStream(counter);
+		return offset;
+	}
+
+	/** Forwards to the current gzip member. */
+	private class MemberStream extends OutputStream {
+
+		public void write(int b) throws IOException {
+			member.write(b);
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			member.write(b, off, len);
+		}
+
+		public void flush() throws IOException {
+			member.flush();
+		}
+
+		public void close() throws IOException {
+			member.close();
+		}
+	}
+
+	private static class CountingOutputStream extends FilterOutputStream {
+
+		long count;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
 }
@@ -0,0 +1,221 @@
+package battlecode.server.proxy;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import battlecode.serial.RoundDelta;
+
+/**
+ * An index of a match file written by FileProxy, kept next to it in a file
+ * with the extension ".idx".  It lets a reader start at any round without
+ * decoding the rounds before it.
+ * <p>
+ * When keyframes are enabled, FileProxy writes the match file as a series of
+ * gzip members, each of which starts at an object boundary and can be decoded
+ * on its own.  A new member (a chunk) starts at every match header and at
+ * every keyframe.  For each chunk the index stores the offset of its member,
+ * the first round it contains, and a keyframe: a RoundDelta that recreates
+ * the state of the world before that round, starting from an empty map.
+ * To show round <i>r</i>, a reader applies the keyframe of the chunk
+ * containing <i>r</i>, then the rounds from the start of the chunk up to
+ * <i>r</i>.
+ */
+public class MatchFileIndex {
+
+	private static final int MAGIC = 0x42435258; // "BCRX"
+
+	private static final int VERSION = 1;
+
+	// the header that ObjectOutputStream writes at the start of a stream
+	private static final byte[] STREAM_HEADER = { (byte) 0xAC, (byte) 0xED, 0x00, 0x05 };
+
+	private static class Chunk {
+		final int firstRound;
+		final long offset;
+		// gzipped serialized RoundDelta, or null for the first chunk of a match
+		final byte[] keyframe;
+
+		Chunk(int firstRound, long offset, byte[] keyframe) {
+			this.firstRound = firstRound;
+			this.offset = offset;
+			this.keyframe = keyframe;
+		}
+	}
+
+	private static class MatchEntry {
+		int roundCount;
+		final List<Chunk> chunks = new ArrayList<Chunk>();
+	}
+
+	private final List<MatchEntry> matches = new ArrayList<MatchEntry>();
+
+	MatchFileIndex() {
+	}
+
+	/**
+	 * Returns the index file that belongs to the given match file.
+	 */
+	public static File indexFileFor(File matchFile) {
+		return new File(matchFile.getPath() + ".idx");
+	}
+
+	/**
+	 * Loads the index of the given match file.
+	 *
+	 * @throws FileNotFoundException if the match file has no index
+	 * @throws IOException if the index can't be read
+	 */
+	public static MatchFileIndex read(File matchFile) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFileFor(matchFile))));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new StreamCorruptedException("not a match file index");
+			MatchFileIndex index = new MatchFileIndex();
+			int matchCount = in.readInt();
+			for (int i = 0; i < matchCount; i++) {
+				MatchEntry m = new MatchEntry();
+				m.roundCount = in.readInt();
+				int chunkCount = in.readInt();
+				for (int j = 0; j < chunkCount; j++) {
+					int firstRound = in.readInt();
+					long offset = in.readLong();
+					int length = in.readInt();
+					byte[] keyframe = null;
+					if (length >= 0) {
+						keyframe = new byte[length];
+						in.readFully(keyframe);
+					}
+					m.chunks.add(new Chunk(firstRound, offset, keyframe));
+				}
+				index.matches.add(m);
+			}
+			return index;
+		} finally {
+			in.close();
+		}
+	}
+
+	void write(File matchFile) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFileFor(matchFile))));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(matches.size());
+			for (MatchEntry m : matches) {
+				out.writeInt(m.roundCount);
+				out.writeInt(m.chunks.size());
+				for (Chunk c : m.chunks) {
+					out.writeInt(c.firstRound);
+					out.writeLong(c.offset);
+					if (c.keyframe == null)
+						out.writeInt(-1);
+					else {
+						out.writeInt(c.keyframe.length);
+						out.write(c.keyframe);
+					}
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Records that a match header starts a chunk at the given offset.
+	 */
+	void addMatch(long offset) {
+		MatchEntry m = new MatchEntry();
+		m.chunks.add(new Chunk(0, offset, null));
+		matches.add(m);
+	}
+
+	void addRound() {
+		if (!matches.isEmpty())
+			matches.get(matches.size() - 1).roundCount++;
+	}
+
+	/**
+	 * Records a chunk that starts at the given offset with the next round
+	 * of the current match.
+	 */
+	void addChunk(long offset, RoundDelta keyframe) throws IOException {
+		if (matches.isEmpty())
+			return;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(bytes));
+		out.writeObject(keyframe);
+		out.close();
+		MatchEntry m = matches.get(matches.size() - 1);
+		m.chunks.add(new Chunk(m.roundCount, offset, bytes.toByteArray()));
+	}
+
+	public int getMatchCount() {
+		return matches.size();
+	}
+
+	public int getRoundCount(int match) {
+		return matches.get(match).roundCount;
+	}
+
+	private Chunk chunkFor(int match, int round) {
+		List<Chunk> chunks = matches.get(match).chunks;
+		// binary search for the last chunk starting at or before round
+		int lo = 0, hi = chunks.size() - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (chunks.get(mid).firstRound <= round)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		return chunks.get(lo);
+	}
+
+	/**
+	 * Returns the first round of the chunk that contains the given round.
+	 * Rounds are numbered from zero.
+	 */
+	public int getChunkStart(int match, int round) {
+		return chunkFor(match, round).firstRound;
+	}
+
+	/**
+	 * Returns the keyframe for the chunk that contains the given round, or
+	 * null if that chunk is the first chunk of the match.
+	 */
+	public RoundDelta getKeyframe(int match, int round) throws IOException {
+		Chunk c = chunkFor(match, round);
+		if (c.keyframe == null)
+			return null;
+		ObjectInputStream in = new ObjectInputStream(new GZIPInputStream(new ByteArrayInputStream(c.keyframe)));
+		try {
+			return (RoundDelta) in.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new InvalidClassException(e.getMessage());
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Opens the match file at the chunk that contains the given round.  If
+	 * that is the first chunk of the match, the first object read is the
+	 * match header; otherwise it is the RoundDelta of
+	 * getChunkStart(match, round).  The stream continues to the end of the
+	 * file.
+	 */
+	public ObjectInputStream openChunk(File matchFile, int match, int round) throws IOException {
+		FileInputStream file = new FileInputStream(matchFile);
+		try {
+			file.getChannel().position(chunkFor(match, round).offset);
+			InputStream data = new GZIPInputStream(new BufferedInputStream(file));
+			return new ObjectInputStream(new SequenceInputStream(new ByteArrayInputStream(STREAM_HEADER), data));
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+}
@@ -15,6 +15,15 @@ public abstract class Proxy {
 	
 	/** The output stream used for writing objects. */
 	protected ObjectOutputStream output;
+
+	/**
+	 * The stream that output writes to, or null if getOutputStream returned
+	 * an ObjectOutputStream of its own.
+	 */
+	private OutputStream rawOutput;
+
+	/** Serializes objects for this and other proxies, or null. */
+	private SharedEncoder encoder;
 	
 	/**
 	 * Gets the OutputStream used for 
@@ -42,8 +51,10 @@ public abstract class Proxy {
 		if (out != null) {
 			if(out instanceof ObjectOutputStream)
 				this.output = (ObjectOutputStream)out;
-			else
+			else {
 				this.output = new ObjectOutputStream(out);
+				this.rawOutput = out;
+			}
 			this.output.flush();
 		}
 	}
@@ -71,10 +82,29 @@ public abstract class Proxy {
 	 */
 	public void writeObject(Object o) throws IOException {
 		if (output != null) {
-			output.reset();
-			output.writeObject(o);
+			if (encoder != null && rawOutput != null) {
+				// the same bytes that output would write, see SharedEncoder
+				byte[] bytes = encoder.getBytes(o);
+				output.flush();
+				rawOutput.write(bytes);
+			} else {
+				output.reset();
+				output.writeObject(o);
+			}
 		}
 	}
+
+	/**
+	 * Shares the serialization of the objects written to this proxy with
+	 * other proxies that are given the same encoder.  This only has an
+	 * effect on proxies that write Java serialization through the default
+	 * writeObject; others write objects their own way.
+	 *
+	 * @param encoder the encoder to use
+	 */
+	public void setEncoder(SharedEncoder encoder) {
+		this.encoder = encoder;
+	}
 	
 	/**
 	 * Writes header data to the recipient.
@@ -106,6 +136,18 @@ public abstract class Proxy {
 		writeObject(footer);
 	}
 
+	/**
+	 * Writes a keyframe to the recipient: a delta that recreates the state
+	 * of the world after the most recently written round, starting from an
+	 * empty map.  Recipients that can't use keyframes ignore them, which is
+	 * the default.
+	 *
+	 * @param state the keyframe to write
+	 * @throws IOException if the recipient could not be written to
+	 */
+	public void writeKeyframe(RoundDelta state) throws IOException {
+	}
+
 	/**
 	 * Writes stats data to the recipient.
 	 * 
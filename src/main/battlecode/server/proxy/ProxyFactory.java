@@ -34,7 +34,9 @@ public class ProxyFactory {
 	 * @return a new Proxy for writing match data to binary file
 	 */
 	public static Proxy createProxyFromFile(String fileName) throws IOException {
-		if(Boolean.parseBoolean(Config.getGlobalConfig().get("bc.server.output-xml")))
+		if(Boolean.parseBoolean(Config.getGlobalConfig().get("bc.server.output-binary")))
+			return new BinaryFileProxy(fileName);
+		else if(Boolean.parseBoolean(Config.getGlobalConfig().get("bc.server.output-xml")))
 			return createXStreamProxyFromFile(fileName);
 		else
 			return new FileProxy(fileName);
@@ -62,6 +64,10 @@ public class ProxyFactory {
 				output.writeObject(o);
 			}
 
+			protected boolean supportsIndex() {
+				return false;
+			}
+
 		};
 	}
 }
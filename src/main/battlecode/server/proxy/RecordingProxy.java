@@ -0,0 +1,62 @@
+package battlecode.server.proxy;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+import battlecode.serial.*;
+
+/**
+ * A proxy that keeps the match data written to it in memory, so that it can
+ * be written to other proxies later on.  This is used to run matches ahead
+ * of the proxies that will eventually receive them.
+ */
+public class RecordingProxy extends Proxy {
+
+	/** The objects written so far, in order. */
+	private final List<Object> objects = new ArrayList<Object>();
+
+	protected OutputStream getOutputStream() throws IOException {
+		return null;
+	}
+
+	public void writeObject(Object o) throws IOException {
+		objects.add(o);
+	}
+
+	public void writeKeyframe(RoundDelta state) throws IOException {
+		objects.add(new Keyframe(state));
+	}
+
+	private static class Keyframe {
+		final RoundDelta state;
+
+		Keyframe(RoundDelta state) {
+			this.state = state;
+		}
+	}
+
+	/**
+	 * Writes everything that has been recorded to the given proxy, using
+	 * the same methods that were used to record it.
+	 *
+	 * @param p the proxy to write to
+	 * @throws IOException if the proxy could not be written to
+	 */
+	public void replay(Proxy p) throws IOException {
+		for (Object o : objects) {
+			if (o instanceof MatchHeader)
+				p.writeHeader((MatchHeader) o);
+			else if (o instanceof RoundDelta)
+				p.writeRound((RoundDelta) o);
+			else if (o instanceof RoundStats)
+				p.writeStats((RoundStats) o);
+			else if (o instanceof MatchFooter)
+				p.writeFooter((MatchFooter) o);
+			else if (o instanceof Keyframe)
+				p.writeKeyframe(((Keyframe) o).state);
+			else
+				p.writeObject(o);
+		}
+	}
+}
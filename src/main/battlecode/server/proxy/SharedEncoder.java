@@ -0,0 +1,74 @@
+package battlecode.server.proxy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import battlecode.serial.RoundDelta;
+import battlecode.serial.RoundStats;
+
+/**
+ * Serializes match data for several proxies that write it the same way, so
+ * that each round is only serialized once, however many proxies it is
+ * written to.
+ * <p>
+ * A Proxy writes each object with a reset of its ObjectOutputStream
+ * followed by the object, and what that produces doesn't depend on anything
+ * written before.  This class produces the same bytes, and proxies that
+ * share it copy them to their streams instead of serializing the object
+ * themselves.  The bytes of rounds and round stats are kept for as long as
+ * the objects are in use, which is until every proxy has written them; other
+ * objects are only written once or twice per match, and are serialized each
+ * time.
+ */
+public class SharedEncoder {
+
+	/** The encoding of one object, computed by the first proxy to ask. */
+	private static class Encoding {
+		private byte[] bytes;
+
+		synchronized byte[] get(Object o) throws IOException {
+			if (bytes == null)
+				bytes = encode(o);
+			return bytes;
+		}
+	}
+
+	// neither RoundDelta nor RoundStats overrides equals, so this is keyed by
+	// identity, and entries go away once the object is no longer used
+	private final Map<Object, Encoding> encodings = new WeakHashMap<Object, Encoding>();
+
+	/**
+	 * Returns the bytes that a Proxy's ObjectOutputStream would write for the
+	 * given object.  The array must not be modified.
+	 */
+	public byte[] getBytes(Object o) throws IOException {
+		if (!(o instanceof RoundDelta || o instanceof RoundStats))
+			return encode(o);
+		Encoding e;
+		synchronized (encodings) {
+			e = encodings.get(o);
+			if (e == null) {
+				e = new Encoding();
+				encodings.put(o, e);
+			}
+		}
+		return e.get(o);
+	}
+
+	private static byte[] encode(Object o) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.flush();
+		// leave out the stream header, which the proxy has written already
+		int start = bytes.size();
+		out.reset();
+		out.writeObject(o);
+		out.flush();
+		byte[] all = bytes.toByteArray();
+		return Arrays.copyOfRange(all, start, all.length);
+	}
+}
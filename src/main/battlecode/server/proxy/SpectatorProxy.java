@@ -0,0 +1,386 @@
+package battlecode.server.proxy;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+
+import battlecode.serial.*;
+import battlecode.server.Server;
+
+/**
+ * Streams match data to any number of viewers that connect to a TCP port,
+ * without ever making the server wait for them.
+ * <p>
+ * Each viewer gets the same Java serialization stream that a Proxy writes to
+ * a socket.  A viewer that connects in the middle of a match first gets the
+ * match header, then the most recent keyframe as an ordinary round (see
+ * bc.server.keyframe-interval), then the rounds written since.  The rounds
+ * since the keyframe are only kept up to the queue size; past that, a viewer
+ * that connects waits for the next keyframe.
+ * <p>
+ * The sockets are written by a selector thread.  Data waiting for a viewer
+ * is kept in a queue of at most a given number of bytes, not counting what
+ * it was sent to catch up when it connected; a viewer that falls that far
+ * behind is disconnected, since skipping rounds would leave it showing the
+ * wrong state.
+ */
+public class SpectatorProxy extends Proxy {
+
+	/**
+	 * The keyframe interval the server uses for viewers when
+	 * bc.server.keyframe-interval is not set.
+	 */
+	public static final int DEFAULT_KEYFRAME_INTERVAL = 100;
+
+	/** The ObjectOutputStream header that starts each viewer's stream. */
+	private static final byte[] STREAM_HEADER;
+
+	static {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			new ObjectOutputStream(bytes).flush();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		STREAM_HEADER = bytes.toByteArray();
+	}
+
+	private class Client {
+		final SocketChannel channel;
+		final LinkedList<ByteBuffer> queue = new LinkedList<ByteBuffer>();
+		/** The number of bytes in queue. */
+		long queued;
+		/**
+		 * The number of bytes that queue may hold: the queue limit, plus the
+		 * catch-up data until it has been sent.
+		 */
+		long limit = queueLimit;
+		/** Set when the client joined too late, and waits for a keyframe. */
+		boolean waiting;
+		/** Set when the client is too far behind, or its socket failed. */
+		boolean dropped;
+
+		Client(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		void enqueue(byte[] bytes) {
+			if (dropped)
+				return;
+			if (queued + bytes.length > limit) {
+				Server.warn("spectator " + describe() + " is too far behind; disconnecting it");
+				dropped = true;
+				queue.clear();
+				return;
+			}
+			queue.add(ByteBuffer.wrap(bytes));
+			queued += bytes.length;
+		}
+
+		String describe() {
+			return String.valueOf(channel.socket().getRemoteSocketAddress());
+		}
+	}
+
+	private final int port;
+
+	private final long queueLimit;
+
+	private SharedEncoder encoder = new SharedEncoder();
+
+	private ServerSocketChannel serverChannel;
+
+	private Selector selector;
+
+	private Thread thread;
+
+	// The rest is guarded by this.
+
+	private final List<Client> clients = new ArrayList<Client>();
+
+	/** The header of the current match, and the objects written with it. */
+	private final List<byte[]> matchStart = new ArrayList<byte[]>();
+
+	/** The most recent keyframe of the current match, or null. */
+	private byte[] keyframe;
+
+	/**
+	 * What has been written since the keyframe or the match start, unless
+	 * it grew past the queue limit.
+	 */
+	private final List<byte[]> sinceKeyframe = new ArrayList<byte[]>();
+
+	/** The number of bytes in sinceKeyframe. */
+	private long sinceKeyframeBytes;
+
+	/**
+	 * Set when sinceKeyframe was dropped for being too big, until the next
+	 * keyframe.
+	 */
+	private boolean sinceKeyframeDropped;
+
+	/** Whether the current match has had its first round yet. */
+	private boolean started;
+
+	/** Set when clients have data that the selector thread should send. */
+	private boolean pending;
+
+	private boolean closed;
+
+	/**
+	 * Creates a new SpectatorProxy.
+	 *
+	 * @param port the port to listen on
+	 * @param queueLimit the number of bytes that may wait for one viewer
+	 */
+	public SpectatorProxy(int port, long queueLimit) {
+		this.port = port;
+		this.queueLimit = queueLimit;
+	}
+
+	protected OutputStream getOutputStream() throws IOException {
+		return null;
+	}
+
+	public void setEncoder(SharedEncoder encoder) {
+		super.setEncoder(encoder);
+		this.encoder = encoder;
+	}
+
+	public void open() throws IOException {
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.socket().setReuseAddress(true);
+		serverChannel.socket().bind(new InetSocketAddress(port));
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		Server.say("waiting for spectators on port " + port);
+		thread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					serve();
+				} catch (IOException e) {
+					Server.warn("spectator server failed: " + e.getMessage());
+				} catch (ClosedSelectorException e) {
+					// close gave up waiting for the viewers
+				}
+			}
+		}, "spectator server");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops accepting viewers, and gives the connected ones a few seconds to
+	 * receive what has been written.
+	 */
+	public void close() throws IOException {
+		synchronized (this) {
+			closed = true;
+		}
+		selector.wakeup();
+		try {
+			thread.join(5000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			for (Client c : clients)
+				c.channel.close();
+			clients.clear();
+		}
+		serverChannel.close();
+		selector.close();
+	}
+
+	public void writeHeader(MatchHeader header) throws IOException {
+		byte[] bytes = encoder.getBytes(header);
+		synchronized (this) {
+			matchStart.clear();
+			matchStart.add(bytes);
+			keyframe = null;
+			clearSinceKeyframe();
+			started = false;
+			// a client waiting for a keyframe starts again with the new match
+			for (Client c : clients)
+				c.waiting = false;
+			broadcast(bytes);
+		}
+	}
+
+	public void writeRound(RoundDelta round) throws IOException {
+		byte[] bytes = encoder.getBytes(round);
+		synchronized (this) {
+			started = true;
+			addSinceKeyframe(bytes);
+			broadcast(bytes);
+		}
+	}
+
+	public void writeKeyframe(RoundDelta state) throws IOException {
+		// connected viewers have the rounds already, unless they are waiting
+		// for this
+		byte[] bytes = encoder.getBytes(state);
+		synchronized (this) {
+			keyframe = bytes;
+			clearSinceKeyframe();
+			boolean sent = false;
+			for (Client c : clients) {
+				if (c.waiting) {
+					c.waiting = false;
+					c.enqueue(bytes);
+					sent = true;
+				}
+			}
+			if (sent) {
+				pending = true;
+				selector.wakeup();
+			}
+		}
+	}
+
+	public void writeObject(Object o) throws IOException {
+		byte[] bytes = encoder.getBytes(o);
+		synchronized (this) {
+			if (started)
+				addSinceKeyframe(bytes);
+			else
+				matchStart.add(bytes);
+			broadcast(bytes);
+		}
+	}
+
+	// must hold the lock
+	private void addSinceKeyframe(byte[] bytes) {
+		if (sinceKeyframeDropped)
+			return;
+		if (sinceKeyframeBytes + bytes.length > queueLimit) {
+			// too much for a new viewer to catch up on
+			clearSinceKeyframe();
+			sinceKeyframeDropped = true;
+			return;
+		}
+		sinceKeyframe.add(bytes);
+		sinceKeyframeBytes += bytes.length;
+	}
+
+	// must hold the lock
+	private void clearSinceKeyframe() {
+		sinceKeyframe.clear();
+		sinceKeyframeBytes = 0;
+		sinceKeyframeDropped = false;
+	}
+
+	private void broadcast(byte[] bytes) {
+		for (Client c : clients) {
+			if (!c.waiting)
+				c.enqueue(bytes);
+		}
+		if (!clients.isEmpty()) {
+			pending = true;
+			selector.wakeup();
+		}
+	}
+
+	private void serve() throws IOException {
+		while (true) {
+			selector.select();
+			synchronized (this) {
+				if (closed) {
+					serverChannel.close();
+					boolean waiting = false;
+					for (Client c : clients)
+						waiting |= !c.dropped && !c.queue.isEmpty();
+					if (!waiting)
+						return;
+				}
+				if (pending) {
+					pending = false;
+					// setInterest removes the clients that were dropped
+					for (Client c : new ArrayList<Client>(clients))
+						setInterest(c);
+				}
+			}
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				if (!key.isValid())
+					continue;
+				if (key.isAcceptable())
+					accept();
+				else if (key.isWritable())
+					send((Client) key.attachment());
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if (channel == null)
+			return;
+		channel.configureBlocking(false);
+		Client c = new Client(channel);
+		synchronized (this) {
+			// the catch-up data doesn't count against the queue limit
+			List<byte[]> catchUp = new ArrayList<byte[]>();
+			catchUp.add(STREAM_HEADER);
+			catchUp.addAll(matchStart);
+			if (sinceKeyframeDropped)
+				c.waiting = true;
+			else {
+				if (keyframe != null)
+					catchUp.add(keyframe);
+				catchUp.addAll(sinceKeyframe);
+			}
+			for (byte[] bytes : catchUp)
+				c.limit += bytes.length;
+			for (byte[] bytes : catchUp)
+				c.enqueue(bytes);
+			clients.add(c);
+			channel.register(selector, 0, c);
+			setInterest(c);
+		}
+		Server.say("spectator connected from " + c.describe());
+	}
+
+	private void send(Client c) {
+		try {
+			synchronized (this) {
+				while (!c.dropped && !c.queue.isEmpty()) {
+					ByteBuffer buf = c.queue.getFirst();
+					c.queued -= c.channel.write(buf);
+					if (buf.hasRemaining())
+						break;
+					c.queue.removeFirst();
+				}
+				if (c.queue.isEmpty())
+					c.limit = queueLimit;
+				setInterest(c);
+			}
+		} catch (IOException e) {
+			Server.say("spectator " + c.describe() + " disconnected");
+			synchronized (this) {
+				c.dropped = true;
+				setInterest(c);
+			}
+		}
+	}
+
+	// must hold the lock
+	private void setInterest(Client c) {
+		SelectionKey key = c.channel.keyFor(selector);
+		if (c.dropped) {
+			clients.remove(c);
+			try {
+				c.channel.close();
+			} catch (IOException e) {
+			}
+			return;
+		}
+		if (key != null && key.isValid())
+			key.interestOps(c.queue.isEmpty() ? 0 : SelectionKey.OP_WRITE);
+	}
+}
@@ -15,6 +15,9 @@ import static battlecode.common.GameActionExceptionType.*;
 
 import com.google.common.base.Predicate;
 
+import java.util.Collections;
+import java.util.List;
+
 public class BaseComponent extends ControllerShared implements ComponentController {
 
     protected ComponentType type;
@@ -120,6 +123,18 @@ public class BaseComponent extends ControllerShared implements ComponentControll
         return checkWithinRange(obj.getLocation());
     }
 
+    // objects carried by this robot are always within range, but they
+    // are not on the map so range queries do not find them
+    protected List<InternalObject> withPassengers(List<InternalObject> objs) {
+        InternalRobot[] passengers = robot.robotsOnBoard();
+        if (passengers.length > 0) {
+            Collections.addAll(objs, passengers);
+            // keep the order of GameWorld.getAllObjectsWithinRadiusSq
+            Collections.sort(objs, ObjectTable.ADDED_ORDER);
+        }
+        return objs;
+    }
+
     protected void assertInactive() throws GameActionException {
         if (roundsUntilIdle() > 0)
             throw new GameActionException(ALREADY_ACTIVE, "This component is already active.");
@@ -7,6 +7,8 @@ public abstract class BaseObject implements GameObject {
 
     private final int myID;
     private Team myTeam;
+    // when the object was added to the world, see ObjectTable.ADDED_ORDER
+    int tableIndex;
 
     protected BaseObject(GenericWorld gw, Team t) {
         myID = gw.nextID();
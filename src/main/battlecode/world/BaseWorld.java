@@ -3,10 +3,9 @@ package battlecode.world;
 import battlecode.common.Team;
 import battlecode.engine.GenericRobot;
 import battlecode.engine.signal.Signal;
+import battlecode.server.Config;
 
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
-import java.util.Map;
 import java.util.Collections;
 import java.util.Random;
 
@@ -21,17 +20,20 @@ public class BaseWorld<WorldObject extends BaseObject> {
     protected final Random randGen;
     protected int nextID;
     protected final ArrayList<Signal> signals;
+    // false if only the result of the game is wanted, see isRecordingSignals()
+    protected final boolean recordingSignals;
     protected final long[][] archonMemory;
     protected final long[][] oldArchonMemory;
-    protected final Map<Integer, WorldObject> gameObjectsByID;
+    protected final ObjectTable<WorldObject> gameObjectsByID;
     protected final ArrayList<Integer> randomIDs = new ArrayList<Integer>();
 
     public BaseWorld(int seed, String teamA, String teamB, long[][] oldArchonMemory) {
         currentRound = -1;
         teamAName = teamA;
         teamBName = teamB;
-        gameObjectsByID = new LinkedHashMap<Integer, WorldObject>();
+        gameObjectsByID = new ObjectTable<WorldObject>();
         signals = new ArrayList<Signal>();
+        recordingSignals = !Config.getGlobalConfig().getBoolean("bc.engine.results-only");
         randGen = new Random(seed);
         nextID = 1;
         archonMemory = new long[2][oldArchonMemory[0].length];
@@ -91,7 +93,18 @@ public class BaseWorld<WorldObject extends BaseObject> {
     }
 
     public void addSignal(Signal s) {
-        signals.add(s);
+        if (recordingSignals)
+            signals.add(s);
+    }
+
+    /**
+     * Returns false if the world was created with bc.engine.results-only
+     * set.  Such a world drops the signals it is given, so that nothing is
+     * kept for a viewer, and signals that only a viewer needs need not be
+     * created.
+     */
+    public boolean isRecordingSignals() {
+        return recordingSignals;
     }
 
     public void clearAllSignals() {
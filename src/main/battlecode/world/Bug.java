@@ -14,8 +14,10 @@ import battlecode.common.RobotInfo;
 import battlecode.common.RobotLevel;
 import battlecode.world.signal.AttackSignal;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 public class Bug extends Sensor implements BugController {
@@ -58,6 +60,13 @@ public class Bug extends Sensor implements BugController {
         return buggedRobot.getLocation().distanceSquaredTo(loc) <= GameConstants.BUG_SENSOR_RANGE;
     }
 
+    @Override
+    protected List<InternalObject> nearbyObjectCandidates() {
+        if (buggedRobot == null)
+            return withPassengers(new ArrayList<InternalObject>());
+        return withPassengers(gameWorld.getAllObjectsWithinRadiusSq(buggedRobot.getLocation(), GameConstants.BUG_SENSOR_RANGE));
+    }
+
 	public boolean withinRange(MapLocation loc) {
 		return super.checkWithinRange(loc);
 	}
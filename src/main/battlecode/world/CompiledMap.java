@@ -0,0 +1,269 @@
+package battlecode.world;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import battlecode.common.Chassis;
+import battlecode.common.ComponentType;
+import battlecode.common.MapLocation;
+import battlecode.common.Team;
+import battlecode.common.TerrainTile;
+import battlecode.world.GameMap.MapProperties;
+import battlecode.world.signal.EquipSignal;
+
+/**
+ * A map that has been loaded, ready to create any number of game worlds.
+ * It holds the GameMap, which the worlds share since nothing changes it,
+ * and the list of objects to create at the start of a game, in the order
+ * they are created.
+ *
+ * A compiled map can also be saved in a binary format, which loads much
+ * faster than the XML.  The file holds a header with the map properties,
+ * the terrain grid with one byte per location, and the objects.  Running
+ * this class compiles every map in a directory, see the compile-maps target
+ * in build.xml.
+ */
+public class CompiledMap {
+
+    /** The extension of compiled map files. */
+    public static final String EXTENSION = ".bcm";
+    private static final int MAGIC = 0x42434d50;
+    private static final int VERSION = 1;
+
+    /**
+     * An object to create at the start of a game.  A spawn without a chassis
+     * is a mine.
+     */
+    public static class Spawn {
+
+        /** The location, relative to the map origin. */
+        public final int x, y;
+        public final Chassis chassis;
+        public final ComponentType[] components;
+        public final Team team;
+
+        public Spawn(int x, int y) {
+            this(x, y, null, null, Team.NEUTRAL);
+        }
+
+        public Spawn(int x, int y, Chassis chassis, ComponentType[] components, Team team) {
+            this.x = x;
+            this.y = y;
+            this.chassis = chassis;
+            this.components = components;
+            this.team = team;
+        }
+
+        public void create(GameWorld world, MapLocation loc) {
+            if (chassis == null) {
+                world.createMine(loc);
+                return;
+            }
+            InternalRobot robot = GameWorldFactory.createPlayer(world, chassis, loc, team, null, false);
+            for (ComponentType t : components) {
+                if (t == ComponentType.RECYCLER)
+                    world.createMine(loc);
+                world.visitSignal(new EquipSignal(robot, null, t));
+            }
+        }
+    }
+
+    private final Map<MapProperties, Integer> properties;
+    private final GameMap map;
+    private final List<Spawn> spawns;
+
+    public CompiledMap(Map<MapProperties, Integer> properties, TerrainTile[][] tiles, List<Spawn> spawns) {
+        this.properties = Collections.unmodifiableMap(new EnumMap<MapProperties, Integer>(properties));
+        this.map = new GameMap(this.properties, tiles);
+        this.spawns = Collections.unmodifiableList(new ArrayList<Spawn>(spawns));
+    }
+
+    public GameMap getGameMap() {
+        return map;
+    }
+
+    public List<Spawn> getSpawns() {
+        return spawns;
+    }
+
+    public GameWorld createGameWorld(String teamA, String teamB, long[][] archonMemory) {
+
+        GameWorld gw = new GameWorld(map, teamA, teamB, archonMemory);
+
+        gw.reserveRandomIDs(100);
+
+        MapLocation origin = map.getMapOrigin();
+
+        for (Spawn s : spawns)
+            s.create(gw, new MapLocation(origin.x + s.x, origin.y + s.y));
+
+        gw.endRandomIDs();
+
+        return gw;
+    }
+
+    public void write(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(properties.size());
+            for (Map.Entry<MapProperties, Integer> e : properties.entrySet()) {
+                writeString(out, e.getKey().name());
+                out.writeInt(e.getValue());
+            }
+            // the tiles are written as indices into this table, so that
+            // the file doesn't depend on the order of the enum
+            TerrainTile[] tileTypes = TerrainTile.values();
+            out.writeInt(tileTypes.length);
+            for (TerrainTile t : tileTypes)
+                writeString(out, t.name());
+            int width = map.getWidth(), height = map.getHeight();
+            MapLocation origin = map.getMapOrigin();
+            out.writeInt(width);
+            out.writeInt(height);
+            for (int x = 0; x < width; x++) {
+                for (int y = 0; y < height; y++)
+                    out.writeByte(map.getTerrainTile(new MapLocation(origin.x + x, origin.y + y)).ordinal());
+            }
+            out.writeInt(spawns.size());
+            for (Spawn s : spawns) {
+                out.writeShort(s.x);
+                out.writeShort(s.y);
+                if (s.chassis == null) {
+                    out.writeBoolean(false);
+                    continue;
+                }
+                out.writeBoolean(true);
+                writeString(out, s.chassis.name());
+                writeString(out, s.team.name());
+                out.writeByte(s.components.length);
+                for (ComponentType t : s.components)
+                    writeString(out, t.name());
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Loads a map written by write().
+     *
+     * @throws IOException if the file can't be read, or isn't a compiled map
+     * of this version
+     */
+    public static CompiledMap read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException(file + " is not a compiled map");
+            if (in.readInt() != VERSION)
+                throw new IOException(file + " was compiled by a different version; compile it again");
+            Map<MapProperties, Integer> properties = new EnumMap<MapProperties, Integer>(MapProperties.class);
+            for (int n = in.readInt(); n > 0; n--) {
+                MapProperties p = MapProperties.valueOf(readString(in));
+                properties.put(p, in.readInt());
+            }
+            TerrainTile[] tileTypes = new TerrainTile[in.readInt()];
+            for (int i = 0; i < tileTypes.length; i++)
+                tileTypes[i] = TerrainTile.valueOf(readString(in));
+            int width = in.readInt(), height = in.readInt();
+            TerrainTile[][] tiles = new TerrainTile[width][height];
+            for (int x = 0; x < width; x++) {
+                for (int y = 0; y < height; y++)
+                    tiles[x][y] = tileTypes[in.readByte()];
+            }
+            List<Spawn> spawns = new ArrayList<Spawn>();
+            for (int n = in.readInt(); n > 0; n--) {
+                int x = in.readShort(), y = in.readShort();
+                if (!in.readBoolean()) {
+                    spawns.add(new Spawn(x, y));
+                    continue;
+                }
+                Chassis chassis = Chassis.valueOf(readString(in));
+                Team team = Team.valueOf(readString(in));
+                ComponentType[] components = new ComponentType[in.readByte()];
+                for (int i = 0; i < components.length; i++)
+                    components[i] = ComponentType.valueOf(readString(in));
+                spawns.add(new Spawn(x, y, chassis, components, team));
+            }
+            return new CompiledMap(properties, tiles, spawns);
+        } catch (EOFException e) {
+            IOException ioe = new IOException(file + " is truncated");
+            ioe.initCause(e);
+            throw ioe;
+        } catch (RuntimeException e) {
+            // a name that no longer exists, or a tile index out of range
+            IOException ioe = new IOException(file + " is corrupt: " + e);
+            ioe.initCause(e);
+            throw ioe;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readShort()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Compiles the XML maps in the given directory, and writes the compiled
+     * maps to the second directory, or next to the XML maps if there is
+     * none.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("usage: CompiledMap map-dir [output-dir]");
+            System.exit(1);
+        }
+        File mapDir = new File(args[0]);
+        File outputDir = new File(args.length > 1 ? args[1] : args[0]);
+        if (!outputDir.isDirectory() && !outputDir.mkdirs())
+            throw new IOException("can't create " + outputDir);
+        File[] xmlFiles = mapDir.listFiles(new FilenameFilter() {
+
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".xml");
+            }
+        });
+        if (xmlFiles == null)
+            throw new IOException("can't read " + mapDir);
+        int failures = 0;
+        for (File f : xmlFiles) {
+            String mapName = f.getName().substring(0, f.getName().length() - 4);
+            try {
+                XMLMapHandler.loadMap(mapName, mapDir.getPath()).compile()
+                        .write(new File(outputDir, mapName + EXTENSION));
+                System.out.println("compiled " + mapName);
+            } catch (IllegalArgumentException e) {
+                // loadMap has reported the problem
+                failures++;
+            }
+        }
+        if (failures > 0) {
+            System.err.println(failures + " maps could not be compiled");
+            System.exit(1);
+        }
+    }
+}
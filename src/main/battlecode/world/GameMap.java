@@ -212,6 +212,10 @@ public class GameMap implements GenericGameMap {
         return new MapLocation(mapOriginX, mapOriginY);
     }
 
+    /**
+     * The locations a robot has seen, stored one bit per location.  The bits
+     * are only allocated once the robot remembers something.
+     */
     public static class MapMemory {
 
         // should be ge the max of all robot sensor ranges
@@ -225,7 +229,8 @@ public class GameMap implements GenericGameMap {
             }
             BUFFER = buf;
         }
-        private final boolean data[][];
+        // bit X + Y * Xwidth is set if the robot has seen that location
+        private long data[];
         private final GameMap map;
         private final int Xwidth;
         private final int Ywidth;
@@ -234,15 +239,16 @@ public class GameMap implements GenericGameMap {
             this.map = map;
             Xwidth = map.mapWidth + (2 * BUFFER);
             Ywidth = map.mapHeight + (2 * BUFFER);
-            data = new boolean[Xwidth][Ywidth];
         }
 
         public void rememberLocations(MapLocation loc, int[] offsetsX, int[] offsetsY) {
-            int X = loc.getX() - map.mapOriginX + BUFFER;
-            int Y = loc.getY() - map.mapOriginY + BUFFER;
+            if (data == null)
+                data = new long[(Xwidth * Ywidth + 63) >> 6];
+            int base = loc.getX() - map.mapOriginX + BUFFER + (loc.getY() - map.mapOriginY + BUFFER) * Xwidth;
 
             for (int i = 0; i < offsetsX.length; i++) {
-                data[X + offsetsX[i]][Y + offsetsY[i]] = true;
+                int bit = base + offsetsX[i] + offsetsY[i] * Xwidth;
+                data[bit >> 6] |= 1L << bit;
             }
         }
 
@@ -250,7 +256,10 @@ public class GameMap implements GenericGameMap {
             int X = loc.getX() - map.mapOriginX + BUFFER;
             int Y = loc.getY() - map.mapOriginY + BUFFER;
 
-            if (X >= 0 && X < Xwidth && Y >= 0 && Y < Ywidth && data[X][Y])
+            if (data == null || X < 0 || X >= Xwidth || Y < 0 || Y >= Ywidth)
+                return null;
+            int bit = X + Y * Xwidth;
+            if ((data[bit >> 6] & (1L << bit)) != 0)
                 return map.getTerrainTile(loc);
             else
                 return null;
@@ -333,4 +342,63 @@ public class GameMap implements GenericGameMap {
         }
         return offsets;
     }
+
+    /**
+     * Computes, from the offsets returned by computeVisibleOffsets, the
+     * offsets that become visible when a robot takes one step without
+     * turning.  For each component type the result is indexed by the
+     * direction the robot faces, then by fringeIndex(dx, dy) of the step,
+     * and then, like the visible offsets, by x or y.
+     */
+    public static Map<ComponentType, int[][][][]> computeFringeOffsets(Map<ComponentType, int[][][]> visible) {
+        Map<ComponentType, int[][][][]> fringes = new EnumMap<ComponentType, int[][][][]>(ComponentType.class);
+        for (Map.Entry<ComponentType, int[][][]> e : visible.entrySet()) {
+            int[][][] offsetsForType = e.getValue();
+            int[][][][] fringesForType = new int[offsetsForType.length][][][];
+            for (int d = 0; d < offsetsForType.length; d++) {
+                if (offsetsForType[d] == null)
+                    continue;
+                // directions that share offsets share fringes too
+                for (int i = 0; i < d && fringesForType[d] == null; i++) {
+                    if (offsetsForType[i] == offsetsForType[d])
+                        fringesForType[d] = fringesForType[i];
+                }
+                if (fringesForType[d] == null)
+                    fringesForType[d] = computeFringes(offsetsForType[d]);
+            }
+            fringes.put(e.getKey(), fringesForType);
+        }
+        return fringes;
+    }
+
+    public static int fringeIndex(int dx, int dy) {
+        return (dx + 1) * 3 + dy + 1;
+    }
+
+    private static int[][][] computeFringes(int[][] offsets) {
+        int[] XOffsets = offsets[0];
+        int[] YOffsets = offsets[1];
+        Set<MapLocation> visible = new HashSet<MapLocation>();
+        for (int i = 0; i < XOffsets.length; i++)
+            visible.add(new MapLocation(XOffsets[i], YOffsets[i]));
+        int[][][] fringes = new int[9][][];
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                // a location at offset (x, y) from the new location was at
+                // offset (x + dx, y + dy) from the old one
+                int[] fringeX = new int[XOffsets.length];
+                int[] fringeY = new int[XOffsets.length];
+                int n = 0;
+                for (int i = 0; i < XOffsets.length; i++) {
+                    if (!visible.contains(new MapLocation(XOffsets[i] + dx, YOffsets[i] + dy))) {
+                        fringeX[n] = XOffsets[i];
+                        fringeY[n] = YOffsets[i];
+                        n++;
+                    }
+                }
+                fringes[fringeIndex(dx, dy)] = new int[][]{Arrays.copyOf(fringeX, n), Arrays.copyOf(fringeY, n)};
+            }
+        }
+        return fringes;
+    }
 }
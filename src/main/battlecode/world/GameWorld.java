@@ -1,13 +1,11 @@
 package battlecode.world;
 
 import battlecode.common.Chassis;
+import battlecode.common.ComponentType;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
-
-import com.google.common.base.Predicate;
-import com.google.common.collect.Iterables;
+import java.util.Collections;
+import java.util.List;
 
 import battlecode.common.Direction;
 import battlecode.common.GameActionException;
@@ -19,6 +17,7 @@ import battlecode.common.RobotLevel;
 import battlecode.common.Team;
 import battlecode.common.TerrainTile;
 import battlecode.engine.ErrorReporter;
+import battlecode.engine.GenericRobot;
 import battlecode.engine.GenericWorld;
 import battlecode.engine.instrumenter.RobotMonitor;
 import battlecode.engine.signal.*;
@@ -43,13 +42,27 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
     private final GameStats gameStats = new GameStats();		// end-of-game stats
     private double[] teamRoundResources = new double[2];
     private double[] lastRoundResources = new double[2];
-    private final Map<MapLocation3D, InternalObject> gameObjectsByLoc = new HashMap<MapLocation3D, InternalObject>();
+    // indexed by [RobotLevel ordinal][x - origin x][y - origin y]
+    private final InternalObject[][][] gameObjectsByLoc;
+    private final int mapOriginX, mapOriginY;
+    private final ObjectGrid objectGrid;
+    // the robots and mines whose state has changed since the last call to getAllSignals
+    private final ArrayList<InternalRobot> energonChangedRobots = new ArrayList<InternalRobot>();
+    private final ArrayList<InternalRobot> bytecodesUsedChangedRobots = new ArrayList<InternalRobot>();
+    private final ArrayList<InternalMine> changedMines = new ArrayList<InternalMine>();
+    // reused by visitBroadcastSignal
+    private final ArrayList<InternalObject> broadcastRecipients = new ArrayList<InternalObject>();
     private double[] teamResources = new double[]{GameConstants.INITIAL_FLUX, GameConstants.INITIAL_FLUX};
 
     @SuppressWarnings("unchecked")
     public GameWorld(GameMap gm, String teamA, String teamB, long[][] oldArchonMemory) {
         super(gm.getSeed(), teamA, teamB, oldArchonMemory);
         gameMap = gm;
+        MapLocation origin = gm.getMapOrigin();
+        mapOriginX = origin.x;
+        mapOriginY = origin.y;
+        gameObjectsByLoc = new InternalObject[RobotLevel.values().length][gm.getWidth()][gm.getHeight()];
+        objectGrid = new ObjectGrid(gm);
     }
 
     public int getMapSeed() {
@@ -66,26 +79,26 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
         wasBreakpointHit = false;
 
         // process all gameobjects
-        InternalObject[] gameObjects = new InternalObject[gameObjectsByID.size()];
-        gameObjects = gameObjectsByID.values().toArray(gameObjects);
-        for (int i = 0; i < gameObjects.length; i++) {
-            gameObjects[i].processBeginningOfRound();
+        int n = gameObjectsByID.compact();
+        for (int i = 0; i < n; i++) {
+            gameObjectsByID.entry(i).processBeginningOfRound();
         }
 
     }
 
     public void processEndOfRound() {
         // process all gameobjects
-        InternalObject[] gameObjects = new InternalObject[gameObjectsByID.size()];
-        gameObjects = gameObjectsByID.values().toArray(gameObjects);
-        for (int i = 0; i < gameObjects.length; i++) {
-            gameObjects[i].processEndOfRound();
+        int n = gameObjectsByID.compact();
+        for (int i = 0; i < n; i++) {
+            gameObjectsByID.entry(i).processEndOfRound();
         }
 
         // calculate some stats
         double[] totalEnergon = new double[3];
         boolean teamADead = true, teamBDead = true;
-        for (InternalObject obj : gameObjectsByID.values()) {
+        n = gameObjectsByID.compact();
+        for (int i = 0; i < n; i++) {
+            InternalObject obj = gameObjectsByID.entry(i);
             if (!(obj instanceof InternalRobot))
                 continue;
             InternalRobot r = (InternalRobot) obj;
@@ -116,7 +129,7 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
 
             running = false;
 
-            for (InternalObject o : gameObjectsByID.values()) {
+            for (InternalObject o : gameObjectsByID) {
                 if (o instanceof InternalRobot)
                     RobotMonitor.killRobot(o.getID());
             }
@@ -167,7 +180,23 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
     }
 
     public InternalObject getObject(MapLocation loc, RobotLevel level) {
-        return gameObjectsByLoc.get(new MapLocation3D(loc, level));
+        InternalObject[][] objs = gameObjectsByLoc[level.ordinal()];
+        int x = loc.x - mapOriginX;
+        int y = loc.y - mapOriginY;
+        if (x < 0 || y < 0 || x >= objs.length || y >= objs[x].length)
+            return null;
+        return objs[x][y];
+    }
+
+    // returns false if loc is off the map
+    private boolean setObject(MapLocation loc, RobotLevel level, InternalObject o) {
+        InternalObject[][] objs = gameObjectsByLoc[level.ordinal()];
+        int x = loc.x - mapOriginX;
+        int y = loc.y - mapOriginY;
+        if (x < 0 || y < 0 || x >= objs.length || y >= objs[x].length)
+            return false;
+        objs[x][y] = o;
+        return true;
     }
 
     public <T extends InternalObject> T getObjectOfType(MapLocation loc, RobotLevel level, Class<T> cl) {
@@ -188,46 +217,53 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
 
     // should only be called by the InternalObject constructor
     public void notifyAddingNewObject(InternalObject o) {
-        if (gameObjectsByID.containsKey(o.getID()))
+        if (!gameObjectsByID.add(o))
             return;
-        gameObjectsByID.put(o.getID(), o);
         if (o.getLocation() != null) {
-            gameObjectsByLoc.put(new MapLocation3D(o.getLocation(), o.getRobotLevel()), o);
+            setObject(o.getLocation(), o.getRobotLevel(), o);
+            objectGrid.add(o, o.getLocation());
         }
     }
 
     public Collection<InternalObject> allObjects() {
-        return gameObjectsByID.values();
+        return gameObjectsByID;
     }
 
     // TODO: move stuff to here
     // should only be called by InternalObject.setLocation
     public void notifyMovingObject(InternalObject o, MapLocation oldLoc, MapLocation newLoc) {
         if (oldLoc != null) {
-            MapLocation3D oldLoc3D = new MapLocation3D(oldLoc, o.getRobotLevel());
-            if (gameObjectsByLoc.get(oldLoc3D) != o) {
+            if (getObject(oldLoc, o.getRobotLevel()) != o) {
                 ErrorReporter.report("Internal Error: invalid oldLoc in notifyMovingObject");
                 return;
             }
-            gameObjectsByLoc.remove(oldLoc3D);
+            setObject(oldLoc, o.getRobotLevel(), null);
         }
         if (newLoc != null) {
-            gameObjectsByLoc.put(new MapLocation3D(newLoc, o.getRobotLevel()), o);
+            setObject(newLoc, o.getRobotLevel(), o);
         }
+        if (oldLoc == null)
+            objectGrid.add(o, newLoc);
+        else if (newLoc == null)
+            objectGrid.remove(o, oldLoc);
+        else
+            objectGrid.move(o, oldLoc, newLoc);
     }
 
     public void removeObject(InternalObject o) {
         if (o.getLocation() != null) {
-            MapLocation3D loc3D = new MapLocation3D(o.getLocation(), o.getRobotLevel());
-            if (gameObjectsByLoc.get(loc3D) == o)
-                gameObjectsByLoc.remove(loc3D);
-            else
+            if (getObject(o.getLocation(), o.getRobotLevel()) == o) {
+                setObject(o.getLocation(), o.getRobotLevel(), null);
+                objectGrid.remove(o, o.getLocation());
+            } else
                 System.out.println("Couldn't remove " + o + " from the game");
         } else
             System.out.println("Couldn't remove " + o + " from the game");
 
-        if (gameObjectsByID.get(o.getID()) == o)
-            gameObjectsByID.remove(o.getID());
+        if (gameObjectsByID.get(o.getID()) == o) {
+            gameObjectsByID.removeID(o.getID());
+            o.setRemoved();
+        }
 
         if (o instanceof InternalRobot) {
             InternalRobot r = (InternalRobot) o;
@@ -236,7 +272,7 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
     }
 
     public boolean exists(InternalObject o) {
-        return gameObjectsByID.containsKey(o.getID());
+        return gameObjectsByID.containsID(o.getID());
     }
 
     /**
@@ -249,7 +285,7 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
     // TODO: optimize this too
     public int getUnitCount(Team team) {
         int result = 0;
-        for (InternalObject o : gameObjectsByID.values()) {
+        for (InternalObject o : gameObjectsByID) {
             if (!(o instanceof InternalRobot))
                 continue;
             if (((InternalRobot) o).getTeam() == team)
@@ -265,7 +301,7 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
 
     public boolean canMove(RobotLevel level, MapLocation loc) {
 
-        return gameMap.getTerrainTile(loc).isTraversableAtHeight(level) && (gameObjectsByLoc.get(new MapLocation3D(loc, level)) == null);
+        return gameMap.getTerrainTile(loc).isTraversableAtHeight(level) && (getObject(loc, level) == null);
     }
 
     public void splashDamageGround(MapLocation loc, double damage, double falloutFraction) {
@@ -282,32 +318,113 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
     }
 
     public InternalObject[] getAllGameObjects() {
-        return gameObjectsByID.values().toArray(new InternalObject[gameObjectsByID.size()]);
+        return gameObjectsByID.toArray(new InternalObject[gameObjectsByID.size()]);
     }
 
     public InternalRobot getRobotByID(int id) {
         return (InternalRobot) getObjectByID(id);
     }
 
+    // called by robots and mines the first time their state changes in a round;
+    // if signals aren't recorded, their flags just stay set
+    void notifyEnergonChanged(InternalRobot r) {
+        if (recordingSignals)
+            energonChangedRobots.add(r);
+    }
+
+    void notifyBytecodesUsedChanged(InternalRobot r) {
+        if (recordingSignals)
+            bytecodesUsedChangedRobots.add(r);
+    }
+
+    void notifyMineChanged(InternalMine m) {
+        if (recordingSignals)
+            changedMines.add(m);
+    }
+
+    /**
+     * Returns the signals for this round.  The EnergonChangeSignal,
+     * BytecodesUsedSignal and MineDepletionSignals only cover the robots and
+     * mines whose state changed since the last call; the keyframes from
+     * getStateSignals cover all of them.
+     */
     public Signal[] getAllSignals(boolean includeBytecodesUsedSignal) {
-        ArrayList<InternalRobot> energonChangedRobots = new ArrayList<InternalRobot>();
-        ArrayList<InternalRobot> allRobots = null;
+        if (!recordingSignals)
+            return new Signal[0];
+        for (InternalMine m : changedMines) {
+            m.clearChanged();
+            if (!m.isRemoved())
+                signals.add(new MineDepletionSignal(m, m.getRoundsLeft()));
+        }
+        changedMines.clear();
+        signals.add(new EnergonChangeSignal(takeChangedRobots(energonChangedRobots, false)));
+        // if the signal isn't wanted now, the changes are kept for the next one
         if (includeBytecodesUsedSignal)
-            allRobots = new ArrayList<InternalRobot>();
-        for (InternalObject obj : gameObjectsByID.values()) {
+            signals.add(new BytecodesUsedSignal(takeChangedRobots(bytecodesUsedChangedRobots, true)));
+        return signals.toArray(new Signal[signals.size()]);
+    }
+
+    private static InternalRobot[] takeChangedRobots(ArrayList<InternalRobot> changed, boolean bytecodes) {
+        int n = 0;
+        for (InternalRobot r : changed) {
+            if (bytecodes)
+                r.clearBytecodesUsedChanged();
+            else
+                r.clearEnergonChanged();
+            // dead robots are left out
+            if (!r.isRemoved())
+                n++;
+        }
+        InternalRobot[] robots = new InternalRobot[n];
+        n = 0;
+        for (InternalRobot r : changed) {
+            if (!r.isRemoved())
+                robots[n++] = r;
+        }
+        changed.clear();
+        return robots;
+    }
+
+    public Signal[] getStateSignals() {
+        ArrayList<Signal> state = new ArrayList<Signal>();
+        ArrayList<InternalRobot> robots = new ArrayList<InternalRobot>();
+        for (InternalObject obj : gameObjectsByID) {
+            if (obj instanceof InternalMine) {
+                InternalMine m = (InternalMine) obj;
+                state.add(new MineBirthSignal(m));
+                if (m.getRoundsLeft() != GameConstants.MINE_ROUNDS)
+                    state.add(new MineDepletionSignal(m, m.getRoundsLeft()));
+                continue;
+            }
             if (!(obj instanceof InternalRobot))
                 continue;
             InternalRobot r = (InternalRobot) obj;
-            if (includeBytecodesUsedSignal)
-                allRobots.add(r);
-            if (r.clearEnergonChanged()) {
-                energonChangedRobots.add(r);
+            robots.add(r);
+            state.add(new SpawnSignal(r, null));
+            // the built-in components are equipped without a signal
+            boolean motor = r.getChassis().motor != null;
+            boolean sensor = r.getChassis() == Chassis.BUILDING;
+            for (ComponentType t : r.getComponentTypes()) {
+                if (motor && t == r.getChassis().motor)
+                    motor = false;
+                else if (sensor && t == ComponentType.BUILDING_SENSOR)
+                    sensor = false;
+                else
+                    state.add(new EquipSignal(r, null, t));
             }
+            if (r.getControlBits() != 0)
+                state.add(new ControlBitsSignal(r.getID(), r.getControlBits()));
+            if (!r.isOn())
+                state.add(new TurnOffSignal(r, true));
         }
-        signals.add(new EnergonChangeSignal(energonChangedRobots.toArray(new InternalRobot[]{})));
-        if (includeBytecodesUsedSignal)
-            signals.add(new BytecodesUsedSignal(allRobots.toArray(new InternalRobot[]{})));
-        return signals.toArray(new Signal[signals.size()]);
+        for (InternalRobot r : robots) {
+            if (r.inTransport())
+                state.add(new LoadSignal(r.container(), r));
+        }
+        InternalRobot[] robotArray = robots.toArray(new InternalRobot[robots.size()]);
+        state.add(new EnergonChangeSignal(robotArray));
+        state.add(new BytecodesUsedSignal(robotArray));
+        return state.toArray(new Signal[state.size()]);
     }
 
     public RoundStats getRoundStats() {
@@ -318,16 +435,15 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
         return gameStats;
     }
 
-    public void beginningOfExecution(int robotID) {
-        InternalRobot r = (InternalRobot) getObjectByID(robotID);
-        if (r != null)
+    public void beginningOfExecution(GenericRobot robot) {
+        InternalRobot r = (InternalRobot) robot;
+        if (!r.isRemoved())
             r.processBeginningOfTurn();
     }
 
-    public void endOfExecution(int robotID) {
-        InternalRobot r = (InternalRobot) getObjectByID(robotID);
-        // if the robot is dead, it won't be in the map any more
-        if (r != null) {
+    public void endOfExecution(GenericRobot robot) {
+        InternalRobot r = (InternalRobot) robot;
+        if (!r.isRemoved()) {
             r.setBytecodesUsed(RobotMonitor.getBytecodesUsed());
             r.processEndOfTurn();
         }
@@ -391,13 +507,17 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
 
     public Exception visitBroadcastSignal(BroadcastSignal s) {
         InternalObject sender = gameObjectsByID.get(s.robotID);
-        Collection<InternalObject> objs = gameObjectsByLoc.values();
-        Predicate<InternalObject> pred = Util.robotWithinDistance(sender.getLocation(), s.range);
-        for (InternalObject o : Iterables.filter(objs, pred)) {
-            InternalRobot r = (InternalRobot) o;
-            if (r != sender)
-                r.enqueueIncomingMessage((Message) s.message.clone());
+        // the sender may change its message after this, so take one copy
+        // and share it between the recipients; their queues copy it again
+        // when they read it
+        Message m = (Message) s.message.clone();
+        objectGrid.addObjectsWithinRadiusSq(sender.getLocation(), s.range, broadcastRecipients);
+        for (int i = 0; i < broadcastRecipients.size(); i++) {
+            InternalObject o = broadcastRecipients.get(i);
+            if (o instanceof InternalRobot && o != sender)
+                ((InternalRobot) o).enqueueIncomingMessage(m);
         }
+        broadcastRecipients.clear();
         s.message = null;
 
         addSignal(s);
@@ -616,15 +736,26 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
             return (dotProduct * dotProduct >= rhs - 0.00001d);
     }
 
-    // TODO: make a faster implementation of this
+    /**
+     * Returns every object on the map within <tt>radiusSquared</tt> of
+     * <tt>center</tt>, in the order that allObjects() returns them, so that
+     * what players sense and the order effects are applied in don't depend
+     * on the grid.  Objects inside a transport are not included.
+     */
+    public List<InternalObject> getAllObjectsWithinRadiusSq(MapLocation center, int radiusSquared) {
+        ArrayList<InternalObject> objects = new ArrayList<InternalObject>();
+        objectGrid.addObjectsWithinRadiusSq(center, radiusSquared, objects);
+        Collections.sort(objects, ObjectTable.ADDED_ORDER);
+        return objects;
+    }
+
     private InternalRobot[] getAllRobotsWithinRadiusDonutSq(MapLocation center, int outerRadiusSquared, int innerRadiusSquared) {
         ArrayList<InternalRobot> robots = new ArrayList<InternalRobot>();
 
-        for (InternalObject o : gameObjectsByID.values()) {
+        for (InternalObject o : getAllObjectsWithinRadiusSq(center, outerRadiusSquared)) {
             if (!(o instanceof InternalRobot))
                 continue;
-            if (o.getLocation() != null && o.getLocation().distanceSquaredTo(center) <= outerRadiusSquared
-                    && o.getLocation().distanceSquaredTo(center) > innerRadiusSquared)
+            if (o.getLocation().distanceSquaredTo(center) > innerRadiusSquared)
                 robots.add((InternalRobot) o);
         }
 
@@ -33,9 +33,7 @@ TODO:
 public class GameWorldFactory {
     
     public static GameWorld createGameWorld(String teamA, String teamB, String mapName, String mapPath, long[][] archonMemory) throws IllegalArgumentException {
- 		XMLMapHandler handler = XMLMapHandler.loadMap(mapName,mapPath);
-
-        return handler.createGameWorld(teamA, teamB, archonMemory);
+        return MapCache.getMap(mapName, mapPath).createGameWorld(teamA, teamB, archonMemory);
     }
 
 	public static InternalRobot createPlayer(GameWorld gw, Chassis type, MapLocation loc, Team t, InternalRobot parent, boolean wakeDelay) {
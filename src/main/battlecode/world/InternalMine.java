@@ -9,6 +9,8 @@ import battlecode.common.Team;
 public class InternalMine extends InternalObject implements Mine {
 
     private int roundsLeft = GameConstants.MINE_ROUNDS;
+    // set while the mine is in GameWorld's list of changed mines
+    private boolean changed = false;
 
     public InternalMine(GameWorld gw, MapLocation loc) {
         super(gw, loc, RobotLevel.MINE, Team.NEUTRAL);
@@ -18,11 +20,28 @@ public class InternalMine extends InternalObject implements Mine {
         return roundsLeft;
     }
 
+    /**
+     * Mines this mine for a turn, and returns the resources produced.  The
+     * world is told that the mine changed, since the MineDepletionSignal
+     * shows the rounds left.
+     */
     public double mine() {
         roundsLeft--;
+        double yield;
         if (roundsLeft > 0)
-            return GameConstants.MINE_RESOURCES;
+            yield = GameConstants.MINE_RESOURCES;
         else
-            return Math.max(GameConstants.MINE_DEPLETED_RESOURCES, GameConstants.MINE_RESOURCES + roundsLeft / GameConstants.MINE_DEPLETION_RATE * 0.01);
+            yield = Math.max(GameConstants.MINE_DEPLETED_RESOURCES, GameConstants.MINE_RESOURCES + roundsLeft / GameConstants.MINE_DEPLETION_RATE * 0.01);
+        if (!changed) {
+            changed = true;
+            myGameWorld.notifyMineChanged(this);
+        }
+        return yield;
+    }
+
+    public boolean clearChanged() {
+        boolean wasChanged = changed;
+        changed = false;
+        return wasChanged;
     }
 }
@@ -7,6 +7,7 @@ public abstract class InternalObject extends BaseObject {
     protected volatile MapLocation myLocation;
     protected final RobotLevel myHeight;
 	protected final GameWorld myGameWorld;
+	private boolean removed;
 
     protected InternalObject(GameWorld gw, MapLocation loc, RobotLevel height, Team t) {
         super(gw,t);
@@ -37,6 +38,19 @@ public abstract class InternalObject extends BaseObject {
 		return myGameWorld.exists(this);
 	}
 
+	/**
+	 * Returns whether this object has been removed from the game, which is
+	 * cheaper than checking exists() when the object is known to have been
+	 * added.
+	 */
+	public boolean isRemoved() {
+		return removed;
+	}
+
+	void setRemoved() {
+		removed = true;
+	}
+
 	public InternalObject container() {
 		return null;
 	}
@@ -5,7 +5,6 @@ import static battlecode.common.GameConstants.*;
 import java.util.ArrayList;
 import java.util.EnumMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -37,17 +36,27 @@ public class InternalRobot extends InternalObject implements Robot, GenericRobot
     public static final MapLocation VERY_FAR_AWAY = new MapLocation(-1000, -1000);
     private volatile double myEnergonLevel;
     protected volatile Direction myDirection;
-    private volatile boolean energonChanged = true;
+    // set while the robot is in GameWorld's list of robots whose energon
+    // or bytecodes used have changed this round
+    private volatile boolean energonChanged = false;
+    private volatile boolean bytecodesUsedChanged = false;
     protected volatile long controlBits;
     // is this used ever?
     protected volatile boolean hasBeenAttacked = false;
     private static boolean upkeepEnabled = Config.getGlobalConfig().getBoolean("bc.engine.upkeep-enabled");
     /** first index is robot type, second is direction, third is x or y */
     private static final Map<ComponentType, int[][][]> offsets = GameMap.computeVisibleOffsets();
+    /** the part of offsets that is new after a step, see GameMap.computeFringeOffsets */
+    private static final Map<ComponentType, int[][][][]> fringeOffsets = GameMap.computeFringeOffsets(offsets);
     /** number of bytecodes used in the most recent round */
     private volatile int bytecodesUsed = 0;
-    private List<Message> incomingMessageQueue;
+    private MessageQueue incomingMessageQueue;
     protected GameMap.MapMemory mapMemory;
+    // where the robot was, and which way it faced, when the full view of
+    // each of its sensors was last remembered; null if that hasn't happened
+    // since the robot moved
+    private MapLocation memoryLoc;
+    private Direction memoryDir;
     private InternalRobotBuffs buffs = new InternalRobotBuffs(this);
     public final Chassis chassis;
     private List<BaseComponent> newComponents;
@@ -120,8 +129,9 @@ public class InternalRobot extends InternalObject implements Robot, GenericRobot
         this.chassis = chassis;
 
         myEnergonLevel = getMaxEnergon();
+        markEnergonChanged();
 
-        incomingMessageQueue = new LinkedList<Message>();
+        incomingMessageQueue = new MessageQueue();
 
         mapMemory = new GameMap.MapMemory(gw.getGameMap());
         saveMapMemory(null, loc, false);
@@ -425,17 +435,26 @@ public class InternalRobot extends InternalObject implements Robot, GenericRobot
     }
 
     public void changeEnergonLevel(double amount) {
+        double oldEnergonLevel = myEnergonLevel;
         myEnergonLevel += amount;
         if (myEnergonLevel > getMaxEnergon()) {
             myEnergonLevel = getMaxEnergon();
         }
-        energonChanged = true;
+        if (myEnergonLevel != oldEnergonLevel)
+            markEnergonChanged();
 
         if (myEnergonLevel <= 0) {
             suicide();
         }
     }
 
+    private void markEnergonChanged() {
+        if (!energonChanged) {
+            energonChanged = true;
+            myGameWorld.notifyEnergonChanged(this);
+        }
+    }
+
     public boolean clearEnergonChanged() {
         if (energonChanged) {
             energonChanged = false;
@@ -446,6 +465,8 @@ public class InternalRobot extends InternalObject implements Robot, GenericRobot
     }
 
     public InternalRobot[] robotsOnBoard() {
+        if (passengers == null)
+            return new InternalRobot[0];
         return passengers.toArray(new InternalRobot[0]);
     }
 
@@ -474,29 +495,44 @@ public class InternalRobot extends InternalObject implements Robot, GenericRobot
     }
 
     public Message dequeueIncomingMessage() {
-        if (incomingMessageQueue.size() > 0) {
-            return incomingMessageQueue.remove(0);
-        } else {
-            return null;
-        }
-        // ~ return incomingMessageQueue.poll();
+        return incomingMessageQueue.poll();
     }
 
     public Message[] dequeueIncomingMessages() {
-        Message[] result = incomingMessageQueue.toArray(new Message[incomingMessageQueue.size()]);
-        incomingMessageQueue.clear();
-        return result;
+        return incomingMessageQueue.pollAll();
     }
 
     public GameMap.MapMemory getMapMemory() {
         return mapMemory;
     }
 
+    /**
+     * Remembers what the robot's sensors see from newLoc.  If fringeOnly is
+     * set, and the robot has taken one step from oldLoc without turning, only
+     * the locations that the step brought into view are written.
+     */
     public void saveMapMemory(MapLocation oldLoc, MapLocation newLoc,
             boolean fringeOnly) {
+        int fringe = -1;
+        if (fringeOnly && oldLoc != null && oldLoc.equals(memoryLoc) && myDirection == memoryDir) {
+            int dx = newLoc.getX() - oldLoc.getX();
+            int dy = newLoc.getY() - oldLoc.getY();
+            if (dx >= -1 && dx <= 1 && dy >= -1 && dy <= 1)
+                fringe = GameMap.fringeIndex(dx, dy);
+        }
         for (BaseComponent c : components.get(ComponentClass.SENSOR)) {
-            saveMapMemory(newLoc, c.type());
+            ComponentType t = c.type();
+            if (t == ComponentType.BUG)
+                continue;
+            int[][] myOffsets;
+            if (fringe >= 0)
+                myOffsets = fringeOffsets.get(t)[myDirection.ordinal()][fringe];
+            else
+                myOffsets = offsets.get(t)[myDirection.ordinal()];
+            mapMemory.rememberLocations(newLoc, myOffsets[0], myOffsets[1]);
         }
+        memoryLoc = newLoc;
+        memoryDir = myDirection;
     }
 
     public void saveMapMemory(MapLocation newLoc, ComponentType t) {
@@ -504,6 +540,9 @@ public class InternalRobot extends InternalObject implements Robot, GenericRobot
             int[][] myOffsets = offsets.get(t)[myDirection.ordinal()];
             mapMemory.rememberLocations(newLoc, myOffsets[0], myOffsets[1]);
         }
+        // a new sensor's view is only remembered from here
+        if (!(newLoc.equals(memoryLoc) && myDirection == memoryDir))
+            memoryLoc = null;
     }
 
     public void addPassenger(InternalRobot passenger) {
@@ -539,7 +578,22 @@ public class InternalRobot extends InternalObject implements Robot, GenericRobot
     }
 
     public void setBytecodesUsed(int numBytecodes) {
+        if (numBytecodes == bytecodesUsed)
+            return;
         bytecodesUsed = numBytecodes;
+        if (!bytecodesUsedChanged) {
+            bytecodesUsedChanged = true;
+            myGameWorld.notifyBytecodesUsedChanged(this);
+        }
+    }
+
+    public boolean clearBytecodesUsedChanged() {
+        if (bytecodesUsedChanged) {
+            bytecodesUsedChanged = false;
+            return true;
+        } else {
+            return false;
+        }
     }
 
     public int getBytecodesUsed() {
@@ -0,0 +1,91 @@
+package battlecode.world;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import battlecode.engine.ErrorReporter;
+
+/**
+ * Keeps the maps that have been loaded, so that a map which is played many
+ * times is only read once.  A map is read again if its file has changed
+ * since it was loaded.
+ *
+ * If the map directory has a compiled map (see CompiledMap) that is at
+ * least as new as the XML map, the compiled map is loaded instead.
+ */
+public class MapCache {
+
+    /** The number of maps to keep; more than a tournament uses. */
+    private static final int SIZE = 64;
+
+    private static class Entry {
+
+        final long lastModified;
+        final long length;
+        final CompiledMap map;
+
+        Entry(File file, CompiledMap map) {
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+            this.map = map;
+        }
+
+        boolean isCurrent(File file) {
+            return file.lastModified() == lastModified && file.length() == length;
+        }
+    }
+
+    // by the absolute path of the file, least recently used first
+    private static final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > SIZE;
+        }
+    };
+
+    private MapCache() {
+    }
+
+    /**
+     * Returns the map with the given name in the given directory.
+     *
+     * @throws IllegalArgumentException if the map can't be loaded; the
+     * problem has been reported
+     */
+    public static CompiledMap getMap(String mapName, String mapPath) {
+        File xmlFile = new File(mapPath, mapName + ".xml");
+        File compiledFile = new File(mapPath, mapName + CompiledMap.EXTENSION);
+        File file;
+        if (compiledFile.exists() && (!xmlFile.exists() || compiledFile.lastModified() >= xmlFile.lastModified()))
+            file = compiledFile;
+        else
+            file = xmlFile;
+        String key = file.getAbsolutePath();
+
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry != null && entry.isCurrent(file))
+            return entry.map;
+
+        // another thread may load the same map meanwhile, which is harmless
+        if (file == compiledFile) {
+            try {
+                entry = new Entry(file, CompiledMap.read(file));
+            } catch (IOException e) {
+                ErrorReporter.report("can't load compiled map '" + file + "': " + e.getMessage(), "Compile the map again, or delete it to use the XML map.\n");
+                throw new IllegalArgumentException(e.getMessage());
+            }
+        } else
+            entry = new Entry(file, XMLMapHandler.loadMap(mapName, mapPath).compile());
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+        return entry.map;
+    }
+}
@@ -0,0 +1,89 @@
+package battlecode.world;
+
+import battlecode.common.GameConstants;
+import battlecode.common.Message;
+
+/**
+ * A robot's incoming message queue, kept in a ring buffer that holds at most
+ * GameConstants.MESSAGE_QUEUE_SIZE messages.  When a message arrives at a
+ * full queue, the oldest message in the queue is discarded.  Most robots
+ * only ever hold a few messages, so the buffer starts small and grows as
+ * needed.
+ *
+ * A broadcast enqueues the same Message instance in every recipient's queue,
+ * and the engine never changes it afterwards.  Since players may change the
+ * messages they receive, each message is copied when it is taken out of the
+ * queue, so a robot only pays for the messages it actually reads.
+ */
+public class MessageQueue {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final int capacity;
+    private Message[] messages;
+    // index of the oldest message
+    private int head;
+    private int size;
+
+    public MessageQueue() {
+        this(GameConstants.MESSAGE_QUEUE_SIZE);
+    }
+
+    public MessageQueue(int capacity) {
+        this.capacity = capacity;
+        messages = new Message[Math.min(INITIAL_CAPACITY, capacity)];
+    }
+
+    public void add(Message m) {
+        if (size == messages.length && size < capacity)
+            grow();
+        if (size == messages.length) {
+            messages[head] = m;
+            head = next(head);
+        } else {
+            messages[(head + size) % messages.length] = m;
+            size++;
+        }
+    }
+
+    /**
+     * Removes the oldest message, and returns a copy of it, or null if the
+     * queue is empty.
+     */
+    public Message poll() {
+        if (size == 0)
+            return null;
+        Message m = messages[head];
+        messages[head] = null;
+        head = next(head);
+        size--;
+        return (Message) m.clone();
+    }
+
+    /**
+     * Removes all the messages, and returns copies of them, oldest first.
+     */
+    public Message[] pollAll() {
+        Message[] result = new Message[size];
+        for (int i = 0; i < result.length; i++)
+            result[i] = poll();
+        return result;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // doubles the buffer, up to the capacity, moving the oldest message to the start
+    private void grow() {
+        Message[] grown = new Message[Math.min(messages.length * 2, capacity)];
+        for (int i = 0; i < size; i++)
+            grown[i] = messages[(head + i) % messages.length];
+        messages = grown;
+        head = 0;
+    }
+
+    private int next(int i) {
+        return i + 1 == messages.length ? 0 : i + 1;
+    }
+}
@@ -2,7 +2,6 @@ package battlecode.world;
 
 import battlecode.common.ComponentType;
 import battlecode.common.RobotLevel;
-import battlecode.world.signal.MineDepletionSignal;
 
 public class Miner extends Builder {
 
@@ -17,8 +16,7 @@ public class Miner extends Builder {
     public void processBeginningOfTurn() {
         super.processBeginningOfTurn();
         if (mine != null) {
-            gameWorld.addSignal(new MineDepletionSignal(mine, mine.getRoundsLeft()));
-
+            // the world signals the mine's depletion when it changes
             gameWorld.adjustResources(robot.getTeam(), mine.mine());
         }
     }
@@ -0,0 +1,106 @@
+package battlecode.world;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import battlecode.common.MapLocation;
+
+/**
+ * A bucketed uniform grid over the map, used to answer range queries
+ * without looking at every object in the world.  Each bucket covers a
+ * square of CELL_SIZE by CELL_SIZE map tiles and holds the objects
+ * located inside it, in no particular order.
+ *
+ * The grid only knows about objects that have a location on the map;
+ * objects inside a transport are not stored.
+ */
+public class ObjectGrid {
+
+    /** log2 of the number of tiles along each side of a bucket. */
+    private static final int CELL_BITS = 3;
+    private static final int CELL_SIZE = 1 << CELL_BITS;
+    private final int originX, originY;
+    private final int cols, rows;
+    private final ArrayList<InternalObject>[] cells;
+
+    @SuppressWarnings("unchecked")
+    public ObjectGrid(GameMap map) {
+        MapLocation origin = map.getMapOrigin();
+        originX = origin.x;
+        originY = origin.y;
+        cols = (map.getWidth() + CELL_SIZE - 1) >> CELL_BITS;
+        rows = (map.getHeight() + CELL_SIZE - 1) >> CELL_BITS;
+        cells = new ArrayList[cols * rows];
+        for (int i = 0; i < cells.length; i++)
+            cells[i] = new ArrayList<InternalObject>();
+    }
+
+    private int cellIndex(MapLocation loc) {
+        int cx = (loc.x - originX) >> CELL_BITS;
+        int cy = (loc.y - originY) >> CELL_BITS;
+        if (cx < 0 || cy < 0 || cx >= cols || cy >= rows)
+            return -1;
+        return cy * cols + cx;
+    }
+
+    public void add(InternalObject o, MapLocation loc) {
+        int i = cellIndex(loc);
+        if (i >= 0)
+            cells[i].add(o);
+    }
+
+    public void remove(InternalObject o, MapLocation loc) {
+        int i = cellIndex(loc);
+        if (i >= 0)
+            removeFrom(cells[i], o);
+    }
+
+    public void move(InternalObject o, MapLocation oldLoc, MapLocation newLoc) {
+        int i = cellIndex(oldLoc);
+        int j = cellIndex(newLoc);
+        if (i == j)
+            return;
+        if (i >= 0)
+            removeFrom(cells[i], o);
+        if (j >= 0)
+            cells[j].add(o);
+    }
+
+    // moves the last object of the bucket into o's place, since the order
+    // of a bucket doesn't matter
+    private static void removeFrom(ArrayList<InternalObject> cell, InternalObject o) {
+        for (int k = cell.size() - 1; k >= 0; k--) {
+            if (cell.get(k) == o) {
+                int last = cell.size() - 1;
+                cell.set(k, cell.get(last));
+                cell.remove(last);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Adds to <tt>result</tt> every object whose location is within
+     * <tt>radiusSquared</tt> of <tt>center</tt>.  Only the buckets that
+     * overlap the bounding box of the circle are visited.
+     */
+    public void addObjectsWithinRadiusSq(MapLocation center, int radiusSquared, List<? super InternalObject> result) {
+        if (radiusSquared < 0)
+            return;
+        int radius = (int) Math.sqrt(radiusSquared);
+        int minCX = Math.max(0, (center.x - radius - originX) >> CELL_BITS);
+        int maxCX = Math.min(cols - 1, (center.x + radius - originX) >> CELL_BITS);
+        int minCY = Math.max(0, (center.y - radius - originY) >> CELL_BITS);
+        int maxCY = Math.min(rows - 1, (center.y + radius - originY) >> CELL_BITS);
+        for (int cy = minCY; cy <= maxCY; cy++) {
+            for (int cx = minCX; cx <= maxCX; cx++) {
+                ArrayList<InternalObject> cell = cells[cy * cols + cx];
+                for (int k = 0; k < cell.size(); k++) {
+                    InternalObject o = cell.get(k);
+                    if (o.getLocation().distanceSquaredTo(center) <= radiusSquared)
+                        result.add(o);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package battlecode.world;
+
+import java.util.AbstractCollection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The objects in the world, indexed by ID.  IDs are handed out densely
+ * starting from 1, so the objects are kept in an array indexed by ID, and
+ * looking one up is an array load.
+ *
+ * The table also keeps a list of the objects in the order they were added,
+ * which is the order they are processed and iterated in.  Removing an object
+ * only clears its slot; the list drops it on the next call to compact().
+ * Callers that process every object once per round use compact() and
+ * entry(i) rather than an iterator, so that they neither allocate nor skip
+ * objects that other objects remove while they are being processed.
+ */
+public class ObjectTable<T extends BaseObject> extends AbstractCollection<T> {
+
+    /**
+     * Orders objects the way the table iterates over them, by when they
+     * were added.
+     */
+    public static final Comparator<BaseObject> ADDED_ORDER = new Comparator<BaseObject>() {
+        public int compare(BaseObject a, BaseObject b) {
+            return a.tableIndex < b.tableIndex ? -1 : (a.tableIndex == b.tableIndex ? 0 : 1);
+        }
+    };
+
+    private Object[] byID = new Object[256];
+    private Object[] list = new Object[256];
+    // the number of entries in list, including removed objects
+    private int listSize;
+    // the number of objects in the table
+    private int size;
+    // the number of objects ever added, which gives the next tableIndex
+    private int added;
+
+    public T get(int id) {
+        return (id >= 0 && id < byID.length) ? this.<T>cast(byID[id]) : null;
+    }
+
+    public boolean containsID(int id) {
+        return get(id) != null;
+    }
+
+    /**
+     * Adds an object, unless an object with the same ID is already present.
+     */
+    public boolean add(T o) {
+        int id = o.getID();
+        if (id >= byID.length) {
+            Object[] grown = new Object[Math.max(2 * byID.length, id + 1)];
+            System.arraycopy(byID, 0, grown, 0, byID.length);
+            byID = grown;
+        } else if (byID[id] != null)
+            return false;
+        byID[id] = o;
+        if (listSize == list.length) {
+            Object[] grown = new Object[2 * list.length];
+            System.arraycopy(list, 0, grown, 0, listSize);
+            list = grown;
+        }
+        list[listSize++] = o;
+        o.tableIndex = added++;
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes the object with the given ID, and returns it.
+     */
+    public T removeID(int id) {
+        T o = get(id);
+        if (o != null) {
+            byID[id] = null;
+            size--;
+        }
+        return o;
+    }
+
+    public boolean remove(Object o) {
+        if (!(o instanceof BaseObject) || get(((BaseObject) o).getID()) != o)
+            return false;
+        removeID(((BaseObject) o).getID());
+        return true;
+    }
+
+    public boolean contains(Object o) {
+        return (o instanceof BaseObject) && get(((BaseObject) o).getID()) == o;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Drops removed objects from the list, and returns the number of entries
+     * in the list, which is then the number of objects in the table.
+     * Entries that are removed afterwards stay in the list until the next
+     * call, so a loop from 0 to the returned count over entry(i) visits
+     * every object that was present when it started, like a loop over a
+     * copy of the table would.
+     */
+    public int compact() {
+        if (listSize != size) {
+            int n = 0;
+            for (int i = 0; i < listSize; i++) {
+                Object o = list[i];
+                if (byID[((BaseObject) o).getID()] == o)
+                    list[n++] = o;
+            }
+            for (int i = n; i < listSize; i++)
+                list[i] = null;
+            listSize = n;
+        }
+        return listSize;
+    }
+
+    /**
+     * Returns entry i of the list.  See compact().
+     */
+    public T entry(int i) {
+        return this.<T>cast(list[i]);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <U> U cast(Object o) {
+        return (U) o;
+    }
+
+    /**
+     * Iterates over the objects in the table, in the order they were added.
+     * Objects may not be added or removed during the iteration.
+     */
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private int next = advance(0);
+
+            private int advance(int i) {
+                while (i < listSize && byID[((BaseObject) list[i]).getID()] != list[i])
+                    i++;
+                return i;
+            }
+
+            public boolean hasNext() {
+                return next < listSize;
+            }
+
+            public T next() {
+                if (next >= listSize)
+                    throw new NoSuchElementException();
+                T o = entry(next);
+                next = advance(next + 1);
+                return o;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -43,7 +43,7 @@ public class Radio extends BaseComponent implements BroadcastController {
     public void broadcastTurnOnAll() throws GameActionException {
         assertInactive();
         ArrayList<Integer> ids = new ArrayList<Integer>();
-        for (InternalObject o : gameWorld.allObjects()) {
+        for (InternalObject o : withPassengers(gameWorld.getAllObjectsWithinRadiusSq(getLocation(), type().range))) {
             if (o.getTeam() == robot.getTeam() && checkWithinRange(o) && o instanceof InternalRobot && ((InternalRobot) o).chassis != Chassis.DUMMY)
                 ids.add(o.getID());
         }
@@ -221,12 +221,13 @@ public class RobotControllerImpl extends ControllerShared implements RobotContro
      * {@inheritDoc}
      */
     public void setIndicatorString(int stringIndex, String newString) {
-        if (stringIndex >= 0 && stringIndex < NUMBER_OF_INDICATOR_STRINGS)
+        if (stringIndex >= 0 && stringIndex < NUMBER_OF_INDICATOR_STRINGS && gameWorld.isRecordingSignals())
             (new IndicatorStringSignal(robot, stringIndex, newString)).accept(gameWorld);
     }
 
     public void setIndicatorStringFormat(int stringIndex, String format, Object... args) {
-        setIndicatorString(stringIndex, String.format(format, args));
+        if (gameWorld.isRecordingSignals())
+            setIndicatorString(stringIndex, String.format(format, args));
     }
 
     /**
@@ -240,7 +241,8 @@ public class RobotControllerImpl extends ControllerShared implements RobotContro
      * {@inheritDoc}
      */
     public void addMatchObservation(String observation) {
-        (new MatchObservationSignal(robot, observation)).accept(gameWorld);
+        if (gameWorld.isRecordingSignals())
+            (new MatchObservationSignal(robot, observation)).accept(gameWorld);
     }
 
     /**
@@ -265,7 +267,7 @@ public class RobotControllerImpl extends ControllerShared implements RobotContro
 
     public void processBeginningOfTurn() {
         if ((!robot.inTransport())&&!(robot.getLocation().equals(locThisTurn) && robot.getDirection().equals(dirThisTurn))) {
-            robot.saveMapMemory(locThisTurn, robot.getLocation(), false);
+            robot.saveMapMemory(locThisTurn, robot.getLocation(), true);
             locThisTurn = robot.getLocation();
             dirThisTurn = robot.getDirection();
         }
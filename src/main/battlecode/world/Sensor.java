@@ -4,6 +4,8 @@ import battlecode.common.Chassis;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
 
+import java.util.List;
+
 import battlecode.common.ComponentType;
 import battlecode.common.GameActionException;
 import battlecode.common.GameActionExceptionType;
@@ -39,9 +41,16 @@ public class Sensor extends BaseComponent implements SensorController {
                 return checkWithinRange(o) && (type.isInstance(o)) && (!o.equals(robot));
             }
         };
-        return Iterables.toArray((Iterable<T>) Iterables.filter(gameWorld.allObjects(), p), type);
+        return Iterables.toArray((Iterable<T>) Iterables.filter(nearbyObjectCandidates(), p), type);
     }
 
+    /**
+     * Returns a superset of the objects this sensor can sense, taken
+     * from the world's spatial index rather than from every object.
+     */
+    protected List<InternalObject> nearbyObjectCandidates() {
+        return withPassengers(gameWorld.getAllObjectsWithinRadiusSq(getLocation(), type.range));
+    }
     public RobotInfo senseRobotInfo(Robot r) throws GameActionException {
         assertEquipped();
         InternalRobot ir = castInternalRobot(r);
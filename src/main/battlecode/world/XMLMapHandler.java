@@ -10,6 +10,7 @@ import battlecode.server.Config;
 
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -36,7 +37,6 @@ import battlecode.common.TerrainTile;
 import battlecode.engine.ErrorReporter;
 import battlecode.engine.PlayerFactory;
 import battlecode.world.GameMap.MapProperties;
-import battlecode.world.signal.EquipSignal;
 import battlecode.world.signal.SpawnSignal;
 import battlecode.engine.signal.Signal;
 
@@ -56,9 +56,9 @@ class XMLMapHandler extends DefaultHandler {
     private interface SymbolData {
 
         public TerrainTile tile();
-        /* Returns {@code true} if createGameObject() does anything. */
+        /* Returns the object to create at (x, y), or null if there is none. */
 
-        public void createGameObject(GameWorld world, MapLocation loc);
+        public CompiledMap.Spawn spawn(int x, int y);
 
         public boolean equalsMirror(SymbolData data);
     }
@@ -87,7 +87,8 @@ class XMLMapHandler extends DefaultHandler {
             return tile;
         }
 
-        public void createGameObject(GameWorld world, MapLocation loc) {
+        public CompiledMap.Spawn spawn(int x, int y) {
+            return null;
         }
 
         public boolean equalsMirror(SymbolData data) {
@@ -144,13 +145,8 @@ class XMLMapHandler extends DefaultHandler {
             return TerrainTile.LAND;
         }
 
-        public void createGameObject(GameWorld world, MapLocation loc) {
-            InternalRobot robot = GameWorldFactory.createPlayer(world, type, loc, team, null, false);
-            for (ComponentType t : components) {
-                if (t == ComponentType.RECYCLER)
-                    world.createMine(loc);
-                world.visitSignal(new EquipSignal(robot, null, t));
-            }
+        public CompiledMap.Spawn spawn(int x, int y) {
+            return new CompiledMap.Spawn(x, y, type, components, team);
         }
 
         public boolean equalsMirror(SymbolData data) {
@@ -181,8 +177,8 @@ class XMLMapHandler extends DefaultHandler {
             return TerrainTile.LAND;
         }
 
-        public void createGameObject(GameWorld world, MapLocation loc) {
-            world.createMine(loc);
+        public CompiledMap.Spawn spawn(int x, int y) {
+            return new CompiledMap.Spawn(x, y);
         }
 
         public boolean equalsMirror(SymbolData data) {
@@ -190,22 +186,7 @@ class XMLMapHandler extends DefaultHandler {
         }
     }
 
-    private class SymbolTile {
-
-        SymbolData data;
-        MapLocation loc;
-
-        public SymbolTile(SymbolData data, MapLocation loc) {
-            this.data = data;
-            this.loc = loc;
-        }
-
-        public void createGameObject(GameWorld world) {
-            data.createGameObject(world, loc);
-        }
-    }
     private static final Map<String, SymbolDataFactory> factories = new HashMap<String, SymbolDataFactory>();
-    private final ArrayList<SymbolTile> objectsToCreate = new ArrayList<SymbolTile>();
 
     static {
         factories.put("TERRAIN", TerrainData.factory);
@@ -441,33 +422,27 @@ class XMLMapHandler extends DefaultHandler {
 
     }
 
-    public GameWorld createGameWorld(String teamA, String teamB, long[][] archonMemory) {
-
-        System.out.println("Creating a game%%%%%%%%%");
-
+    /**
+     * Returns the parsed map, from which game worlds are created.
+     */
+    public CompiledMap compile() {
         TerrainTile[][] mapTiles = new TerrainTile[map.length][];
+        ArrayList<CompiledMap.Spawn> spawns = new ArrayList<CompiledMap.Spawn>();
         for (int i = 0; i < map.length; i++) {
             mapTiles[i] = new TerrainTile[map[i].length];
-            for (int j = 0; j < map[i].length; j++)
+            for (int j = 0; j < map[i].length; j++) {
                 mapTiles[i][j] = map[i][j].tile();
+                CompiledMap.Spawn s = map[i][j].spawn(i, j);
+                if (s != null)
+                    spawns.add(s);
+            }
         }
 
-        GameMap gm = new GameMap(mapProperties, mapTiles);
-        //gm.setTheme(theme);
-        GameWorld gw = new GameWorld(gm, teamA, teamB, archonMemory);
-
-        gw.reserveRandomIDs(100);
-
-        MapLocation origin = gm.getMapOrigin();
-
-        for (int i = 0; i < map.length; i++) {
-            for (int j = 0; j < map[i].length; j++)
-                map[i][j].createGameObject(gw, new MapLocation(origin.x + i, origin.y + j));
-        }
-
-        gw.endRandomIDs();
+        return new CompiledMap(mapProperties, mapTiles, spawns);
+    }
 
-        return gw;
+    public GameWorld createGameWorld(String teamA, String teamB, long[][] archonMemory) {
+        return compile().createGameWorld(teamA, teamB, archonMemory);
     }
 
     /**
@@ -669,6 +644,11 @@ class XMLMapHandler extends DefaultHandler {
             e.printStackTrace();
             fail("can't load '" + fileName + "' beacause of an exception:\n" + e.getMessage(), "Check that the map is valid XML.\n");
             return null;
+        } finally {
+            try {
+                file.close();
+            } catch (IOException e) {
+            }
         }
         return handler;
     }
@@ -5,6 +5,9 @@ import battlecode.world.InternalRobot;
 
 /**
  * Signifies that a robot's energon has just changed
+ * <p>
+ * Only lists the robots whose bytecode count changed since the last
+ * BytecodesUsedSignal; the others still used as many as before.
  *
  * @author adamd
  */
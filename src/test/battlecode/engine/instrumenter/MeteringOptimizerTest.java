@@ -0,0 +1,95 @@
+package battlecode.engine.instrumenter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+import battlecode.server.Config;
+
+/**
+ * Instruments classes with bc.engine.fast-metering on, and checks that the
+ * JVM accepts the stack map frames that MeteringOptimizer writes.
+ */
+public class MeteringOptimizerTest {
+
+	/**
+	 * A method that starts with a loop, so that javac writes a frame at its
+	 * first instruction, and methods without any frames.
+	 */
+	public static class Loop {
+		static long total;
+
+		int n;
+
+		public void run() {
+			while(true) {
+				n++;
+				if(n > 3)
+					n = 0;
+				tick();
+			}
+		}
+
+		void tick() {
+			n += 2;
+		}
+
+		static void add(Loop l, long n, double d, int[] a, boolean b) {
+			total += n;
+			l.n = a.length;
+		}
+	}
+
+	@BeforeClass
+	public static void setUp() {
+		Config.getGlobalConfig().set("bc.engine.fast-metering", "true");
+		InstrumentingClassLoader.checkSettings();
+	}
+
+	@Test
+	public void methodsWithAndWithoutFrames() throws Exception {
+		// linking the class verifies it
+		define(Loop.class.getName(), instrument(Loop.class.getName())).getMethods();
+	}
+
+	private static byte[] instrument(String className) throws IOException {
+		ClassReader cr = new ClassReader(readClass(className));
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		cr.accept(new RoboAdapter(cw, "battlecode/engine/instrumenter", false, false, false), ClassReader.EXPAND_FRAMES);
+		return cw.toByteArray();
+	}
+
+	private static byte[] readClass(String className) throws IOException {
+		InputStream in = ClassLoader.getSystemResourceAsStream(className.replace('.', '/') + ".class");
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buf = new byte[8192];
+			int n;
+			while((n = in.read(buf)) > 0)
+				bytes.write(buf, 0, n);
+			return bytes.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	// defines the class in a loader of its own, rather than loading the original
+	private static Class<?> define(final String className, final byte[] bytes) throws ClassNotFoundException {
+		ClassLoader loader = new ClassLoader(MeteringOptimizerTest.class.getClassLoader()) {
+			protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+				if(!name.equals(className))
+					return super.loadClass(name, resolve);
+				Class<?> c = findLoadedClass(name);
+				if(c == null)
+					c = defineClass(name, bytes, 0, bytes.length);
+				return c;
+			}
+		};
+		return Class.forName(className, true, loader);
+	}
+}